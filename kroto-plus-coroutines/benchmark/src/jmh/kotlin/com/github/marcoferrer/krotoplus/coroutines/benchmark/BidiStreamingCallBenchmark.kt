@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import com.github.marcoferrer.krotoplus.coroutines.client.ClientBidiCallChannel
+import io.grpc.benchmarks.proto.BenchmarkServiceCoroutineGrpc
+import io.grpc.benchmarks.proto.BenchmarkServiceGrpc
+import io.grpc.benchmarks.proto.Messages
+import io.grpc.stub.StreamObserver
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures a single request / response round trip over a long lived bidi streaming call, comparing
+ * `clientCallBidiStreaming` / `serverCallBidiStreaming` against the plain grpc-java async stub and
+ * service. Every benchmark thread opens its own stream.
+ */
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class BidiStreamingCallBenchmark {
+
+    @State(Scope.Thread)
+    open class StreamState {
+
+        lateinit var krotoCall: ClientBidiCallChannel<Messages.SimpleRequest, Messages.SimpleResponse>
+
+        lateinit var grpcJavaRequests: StreamObserver<Messages.SimpleRequest>
+
+        lateinit var grpcJavaResponses: QueueingResponseObserver<Messages.SimpleRequest, Messages.SimpleResponse>
+
+        @Setup
+        fun setup(transport: InProcessTransportState) {
+            krotoCall = BenchmarkServiceCoroutineGrpc
+                .newStub(transport.krotoChannel)
+                .streamingCall()
+
+            grpcJavaResponses = QueueingResponseObserver(manualFlowControl = false)
+            grpcJavaRequests = BenchmarkServiceGrpc
+                .newStub(transport.grpcJavaChannel)
+                .streamingCall(grpcJavaResponses)
+        }
+
+        @TearDown
+        fun tearDown() {
+            krotoCall.requestChannel.close()
+            grpcJavaRequests.onCompleted()
+        }
+    }
+
+    @Benchmark
+    fun krotoPlus(transport: InProcessTransportState, stream: StreamState): Messages.SimpleResponse = runBlocking {
+        stream.krotoCall.requestChannel.send(transport.request)
+        stream.krotoCall.responseChannel.receive()
+    }
+
+    @Benchmark
+    fun grpcJava(transport: InProcessTransportState, stream: StreamState): Messages.SimpleResponse {
+        stream.grpcJavaRequests.onNext(transport.request)
+        return stream.grpcJavaResponses.take()
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import io.grpc.benchmarks.proto.BenchmarkServiceCoroutineGrpc
+import io.grpc.benchmarks.proto.BenchmarkServiceGrpc
+import io.grpc.benchmarks.proto.Messages
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures a complete client streaming call per operation, comparing `clientCallClientStreaming` /
+ * `serverCallClientStreaming` against the plain grpc-java async stub and service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ClientStreamingCallBenchmark {
+
+    @Param("1", "100")
+    @JvmField
+    var messagesPerCall: Int = 0
+
+    @Benchmark
+    fun krotoPlus(transport: InProcessTransportState): Messages.SimpleResponse = runBlocking {
+        val (requestChannel, response) = BenchmarkServiceCoroutineGrpc
+            .newStub(transport.krotoChannel)
+            .streamingFromClient()
+
+        repeat(messagesPerCall) {
+            requestChannel.send(transport.request)
+        }
+        requestChannel.close()
+        response.await()
+    }
+
+    @Benchmark
+    fun grpcJava(transport: InProcessTransportState): Messages.SimpleResponse {
+        val responseLatch = UnaryResponseLatch<Messages.SimpleResponse>()
+        val requestObserver = BenchmarkServiceGrpc
+            .newStub(transport.grpcJavaChannel)
+            .streamingFromClient(responseLatch)
+
+        repeat(messagesPerCall) {
+            requestObserver.onNext(transport.request)
+        }
+        requestObserver.onCompleted()
+        return responseLatch.await()
+    }
+}
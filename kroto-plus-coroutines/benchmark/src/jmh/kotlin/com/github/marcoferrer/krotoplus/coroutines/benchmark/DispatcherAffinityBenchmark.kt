@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import BenchMarkService
+import com.github.marcoferrer.krotoplus.coroutines.CallLanes
+import com.github.marcoferrer.krotoplus.coroutines.client.ClientBidiCallChannel
+import io.grpc.ManagedChannel
+import io.grpc.Server
+import io.grpc.benchmarks.proto.BenchmarkServiceCoroutineGrpc
+import io.grpc.benchmarks.proto.Messages
+import io.grpc.netty.NettyChannelBuilder
+import io.grpc.netty.NettyServerBuilder
+import io.netty.channel.nio.NioEventLoopGroup
+import io.netty.channel.socket.nio.NioServerSocketChannel
+import io.netty.channel.socket.nio.NioSocketChannel
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.net.InetSocketAddress
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Compares the dispatchers a service can run its rpc coroutines on, over the netty transport.
+ *
+ * The server uses a direct executor, so call events are delivered on the netty event loop owning each stream.
+ * `default` resumes handlers on `Dispatchers.Default`, `unconfined` resumes them on whichever thread delivered
+ * the event, and `callLanes` pins them to the event loop of their stream using [CallLanes].
+ */
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class DispatcherAffinityBenchmark {
+
+    @State(Scope.Benchmark)
+    open class NettyTransportState {
+
+        @Param("default", "unconfined", "callLanes")
+        @JvmField
+        var dispatcher: String = "default"
+
+        @Param("2")
+        @JvmField
+        var eventLoops: Int = 2
+
+        lateinit var request: Messages.SimpleRequest
+            private set
+
+        lateinit var channel: ManagedChannel
+            private set
+
+        private lateinit var server: Server
+
+        private lateinit var bossGroup: NioEventLoopGroup
+
+        private lateinit var workerGroup: NioEventLoopGroup
+
+        private lateinit var clientGroup: NioEventLoopGroup
+
+        @Setup
+        fun setup() {
+            request = Messages.SimpleRequest.newBuilder()
+                .setResponseType(Messages.PayloadType.COMPRESSABLE)
+                .setResponseSize(1024)
+                .build()
+
+            bossGroup = NioEventLoopGroup(1)
+            workerGroup = NioEventLoopGroup(eventLoops)
+            clientGroup = NioEventLoopGroup(1)
+
+            val lanes = CallLanes.fromSingleThreadExecutors(workerGroup)
+            val callContext: () -> CoroutineContext = when (dispatcher) {
+                "default" -> { { Dispatchers.Default } }
+                "unconfined" -> { { Dispatchers.Unconfined } }
+                "callLanes" -> { { lanes.currentLane() } }
+                else -> throw IllegalArgumentException("Unknown dispatcher: $dispatcher")
+            }
+
+            server = NettyServerBuilder.forAddress(InetSocketAddress("localhost", 0))
+                .bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(NioServerSocketChannel::class.java)
+                .directExecutor()
+                .addService(object : BenchMarkService() {
+                    override val initialContext: CoroutineContext
+                        get() = callContext()
+                })
+                .build()
+                .start()
+
+            channel = NettyChannelBuilder.forAddress("localhost", server.port)
+                .eventLoopGroup(clientGroup)
+                .channelType(NioSocketChannel::class.java)
+                .usePlaintext()
+                .directExecutor()
+                .build()
+        }
+
+        @TearDown
+        fun tearDown() {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+            listOf(clientGroup, workerGroup, bossGroup).forEach {
+                it.shutdownGracefully(0, 5, TimeUnit.SECONDS).await()
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    open class StreamState {
+
+        lateinit var call: ClientBidiCallChannel<Messages.SimpleRequest, Messages.SimpleResponse>
+
+        @Setup
+        fun setup(transport: NettyTransportState) {
+            call = BenchmarkServiceCoroutineGrpc
+                .newStub(transport.channel)
+                .streamingCall()
+        }
+
+        @TearDown
+        fun tearDown() {
+            call.requestChannel.close()
+        }
+    }
+
+    @Benchmark
+    fun unary(transport: NettyTransportState): Messages.SimpleResponse = runBlocking {
+        BenchmarkServiceCoroutineGrpc
+            .newStub(transport.channel)
+            .unaryCall(transport.request)
+    }
+
+    @Benchmark
+    fun bidiRoundTrip(transport: NettyTransportState, stream: StreamState): Messages.SimpleResponse = runBlocking {
+        stream.call.requestChannel.send(transport.request)
+        stream.call.responseChannel.receive()
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import BenchMarkService
+import io.grpc.ManagedChannel
+import io.grpc.MethodDescriptor
+import io.grpc.Server
+import io.grpc.benchmarks.proto.BenchmarkServiceGrpc
+import io.grpc.benchmarks.proto.Messages
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import io.grpc.stub.StreamObserver
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.infra.BenchmarkParams
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the heap retained by idle bidi streams, with and without hibernating their response writers.
+ *
+ * Every invocation opens `streams` streams over the in-process transport, completes one round trip on each and
+ * then leaves them idle for several idle timeouts. The heap retained by the open streams after a full gc is
+ * reported per stream as the `bytesPerIdleStream` secondary result, averaged over the measured iterations.
+ * Clients use the plain grpc-java stub, so the client side of each stream costs the same in every run. The
+ * primary score, the time taken by an invocation, is of little interest.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class IdleStreamMemoryBenchmark {
+
+    @State(Scope.Benchmark)
+    open class IdleStreamState {
+
+        @Param("0", "100")
+        @JvmField
+        var idleStreamTimeoutMillis: Long = 0
+
+        @Param("10000")
+        @JvmField
+        var streams: Int = 10000
+
+        val request: Messages.SimpleRequest = Messages.SimpleRequest.getDefaultInstance()
+
+        lateinit var channel: ManagedChannel
+            private set
+
+        private lateinit var server: Server
+
+        @Setup
+        fun setup() {
+            val idleStreamTimeout = idleStreamTimeoutMillis
+            server = InProcessServerBuilder.forName("idle-stream-benchmark")
+                .directExecutor()
+                .addService(object : BenchMarkService() {
+                    override fun idleStreamTimeoutMillis(methodDescriptor: MethodDescriptor<*, *>): Long =
+                        idleStreamTimeout
+                })
+                .build()
+                .start()
+
+            channel = InProcessChannelBuilder.forName("idle-stream-benchmark")
+                .directExecutor()
+                .build()
+        }
+
+        @TearDown
+        fun tearDown() {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    open class RetainedHeap {
+
+        /**
+         * The share of a single iteration in the heap retained by each idle stream, in bytes. JMH sums event
+         * counters over all measured iterations, so the reported score is the average over those iterations.
+         */
+        @JvmField
+        var bytesPerIdleStream: Double = 0.0
+
+        private var measuredIterations = 1
+
+        @Setup
+        fun setup(params: BenchmarkParams) {
+            measuredIterations = params.measurement.count * maxOf(params.forks, 1)
+        }
+
+        fun record(retainedBytes: Long, streams: Int) {
+            bytesPerIdleStream = retainedBytes.toDouble() / streams / measuredIterations
+        }
+    }
+
+    @Benchmark
+    fun openIdleStreams(state: IdleStreamState, retainedHeap: RetainedHeap) {
+        val baseline = usedHeapAfterGc()
+        val responses = CountDownLatch(state.streams)
+        val completions = CountDownLatch(state.streams)
+        val requestStreams = List(state.streams) {
+            BenchmarkServiceGrpc.newStub(state.channel)
+                .streamingCall(object : StreamObserver<Messages.SimpleResponse> {
+                    override fun onNext(value: Messages.SimpleResponse) = responses.countDown()
+                    override fun onError(t: Throwable) = completions.countDown()
+                    override fun onCompleted() = completions.countDown()
+                })
+                .apply { onNext(state.request) }
+        }
+        responses.await()
+
+        Thread.sleep(maxOf(state.idleStreamTimeoutMillis * 3, 100))
+        retainedHeap.record(usedHeapAfterGc() - baseline, state.streams)
+
+        requestStreams.forEach { it.onCompleted() }
+        completions.await()
+    }
+
+    private fun usedHeapAfterGc(): Long {
+        repeat(2) {
+            System.gc()
+            Thread.sleep(50)
+        }
+        return ManagementFactory.getMemoryMXBean().heapMemoryUsage.used
+    }
+}
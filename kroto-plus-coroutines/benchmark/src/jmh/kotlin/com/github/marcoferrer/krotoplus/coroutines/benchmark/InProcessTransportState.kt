@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import BenchMarkService
+import io.grpc.ManagedChannel
+import io.grpc.Server
+import io.grpc.benchmarks.proto.Messages
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * Hosts both benchmark service implementations over the in-process transport.
+ *
+ * The coroutine implementation ([BenchMarkService]) and the plain grpc-java implementation
+ * ([StreamObserverBenchMarkService]) are served side by side so that every benchmark can measure the
+ * call adapters against a baseline running on the exact same transport and executor configuration.
+ * Both servers and channels use a direct executor, which removes thread hand offs from the transport
+ * and leaves the call adapters as the only source of dispatching.
+ */
+@State(Scope.Benchmark)
+open class InProcessTransportState {
+
+    @Param("0", "1024")
+    @JvmField
+    var responseSize: Int = 0
+
+    lateinit var request: Messages.SimpleRequest
+        private set
+
+    lateinit var krotoChannel: ManagedChannel
+        private set
+
+    lateinit var grpcJavaChannel: ManagedChannel
+        private set
+
+    private lateinit var krotoServer: Server
+
+    private lateinit var grpcJavaServer: Server
+
+    @Setup
+    fun setup() {
+        request = Messages.SimpleRequest.newBuilder()
+            .setResponseType(Messages.PayloadType.COMPRESSABLE)
+            .setResponseSize(responseSize)
+            .build()
+
+        krotoServer = newServer("kroto-benchmark", BenchMarkService())
+        grpcJavaServer = newServer("grpc-java-benchmark", StreamObserverBenchMarkService())
+        krotoChannel = newChannel("kroto-benchmark")
+        grpcJavaChannel = newChannel("grpc-java-benchmark")
+    }
+
+    @TearDown
+    fun tearDown() {
+        listOf(krotoChannel, grpcJavaChannel).forEach {
+            it.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+        }
+        listOf(krotoServer, grpcJavaServer).forEach {
+            it.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+        }
+    }
+
+    private fun newServer(name: String, service: io.grpc.BindableService): Server =
+        InProcessServerBuilder.forName(name)
+            .directExecutor()
+            .addService(service)
+            .build()
+            .start()
+
+    private fun newChannel(name: String): ManagedChannel =
+        InProcessChannelBuilder.forName(name)
+            .directExecutor()
+            .build()
+}
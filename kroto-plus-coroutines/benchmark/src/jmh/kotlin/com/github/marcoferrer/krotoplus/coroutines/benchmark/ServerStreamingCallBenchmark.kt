@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import io.grpc.benchmarks.proto.BenchmarkServiceCoroutineGrpc
+import io.grpc.benchmarks.proto.BenchmarkServiceGrpc
+import io.grpc.benchmarks.proto.Messages
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures the delivery of a single message over a long lived server streaming call, comparing
+ * `clientCallServerStreaming` / `serverCallServerStreaming` against the plain grpc-java async stub and
+ * service. Every benchmark thread opens its own stream, and the server produces responses for as
+ * long as the client keeps requesting them.
+ */
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ServerStreamingCallBenchmark {
+
+    @State(Scope.Thread)
+    open class StreamState {
+
+        lateinit var krotoResponses: ReceiveChannel<Messages.SimpleResponse>
+
+        lateinit var grpcJavaResponses: QueueingResponseObserver<Messages.SimpleRequest, Messages.SimpleResponse>
+
+        @Setup
+        fun setup(transport: InProcessTransportState) {
+            krotoResponses = BenchmarkServiceCoroutineGrpc
+                .newStub(transport.krotoChannel)
+                .streamingFromServer(transport.request)
+
+            grpcJavaResponses = QueueingResponseObserver(manualFlowControl = true)
+            BenchmarkServiceGrpc
+                .newStub(transport.grpcJavaChannel)
+                .streamingFromServer(transport.request, grpcJavaResponses)
+        }
+
+        @TearDown
+        fun tearDown() {
+            krotoResponses.cancel()
+            grpcJavaResponses.requestStream.cancel("Benchmark completed", null)
+        }
+    }
+
+    @Benchmark
+    fun krotoPlus(stream: StreamState): Messages.SimpleResponse = runBlocking {
+        stream.krotoResponses.receive()
+    }
+
+    @Benchmark
+    fun grpcJava(stream: StreamState): Messages.SimpleResponse =
+        stream.grpcJavaResponses.take()
+}
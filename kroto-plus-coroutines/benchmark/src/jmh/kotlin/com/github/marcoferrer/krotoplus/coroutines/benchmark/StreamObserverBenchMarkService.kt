@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import io.grpc.Status
+import io.grpc.benchmarks.proto.BenchmarkServiceGrpc
+import io.grpc.benchmarks.proto.Messages
+import io.grpc.stub.ServerCallStreamObserver
+import io.grpc.stub.StreamObserver
+import makeResponse
+
+/**
+ * Plain grpc-java implementation of the benchmark service. It mirrors the behavior of
+ * [BenchMarkService] using [StreamObserver] callbacks only and is used as the baseline
+ * for every coroutine benchmark.
+ */
+class StreamObserverBenchMarkService : BenchmarkServiceGrpc.BenchmarkServiceImplBase() {
+
+    override fun unaryCall(
+        request: Messages.SimpleRequest,
+        responseObserver: StreamObserver<Messages.SimpleResponse>
+    ) {
+        responseObserver.onNext(makeResponse(request))
+        responseObserver.onCompleted()
+    }
+
+    override fun streamingCall(
+        responseObserver: StreamObserver<Messages.SimpleResponse>
+    ): StreamObserver<Messages.SimpleRequest> =
+        object : StreamObserver<Messages.SimpleRequest> {
+            override fun onNext(value: Messages.SimpleRequest) {
+                responseObserver.onNext(makeResponse(value))
+            }
+
+            override fun onError(t: Throwable) {
+                // Call was cancelled by the client, nothing to clean up.
+            }
+
+            override fun onCompleted() {
+                responseObserver.onCompleted()
+            }
+        }
+
+    override fun streamingFromClient(
+        responseObserver: StreamObserver<Messages.SimpleResponse>
+    ): StreamObserver<Messages.SimpleRequest> =
+        object : StreamObserver<Messages.SimpleRequest> {
+            private var lastSeen: Messages.SimpleRequest? = null
+
+            override fun onNext(value: Messages.SimpleRequest) {
+                lastSeen = value
+            }
+
+            override fun onError(t: Throwable) {
+                // Call was cancelled by the client, nothing to clean up.
+            }
+
+            override fun onCompleted() {
+                val request = lastSeen ?: return responseObserver.onError(
+                    Status.FAILED_PRECONDITION
+                        .withDescription("never received any requests")
+                        .asException()
+                )
+                responseObserver.onNext(makeResponse(request))
+                responseObserver.onCompleted()
+            }
+        }
+
+    override fun streamingFromServer(
+        request: Messages.SimpleRequest,
+        responseObserver: StreamObserver<Messages.SimpleResponse>
+    ) {
+        val response = makeResponse(request)
+        val serverCallObserver = responseObserver as ServerCallStreamObserver<Messages.SimpleResponse>
+        serverCallObserver.setOnCancelHandler {
+            // Streams are only ever terminated by the client.
+        }
+        serverCallObserver.setOnReadyHandler {
+            while (serverCallObserver.isReady && !serverCallObserver.isCancelled) {
+                serverCallObserver.onNext(response)
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import io.grpc.stub.ClientCallStreamObserver
+import io.grpc.stub.ClientResponseObserver
+import io.grpc.stub.StreamObserver
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Blocks the benchmark thread until a single response has been observed.
+ */
+class UnaryResponseLatch<T> : StreamObserver<T> {
+
+    private val latch = CountDownLatch(1)
+
+    @Volatile
+    private var value: T? = null
+
+    @Volatile
+    private var error: Throwable? = null
+
+    override fun onNext(value: T) {
+        this.value = value
+    }
+
+    override fun onError(t: Throwable) {
+        error = t
+        latch.countDown()
+    }
+
+    override fun onCompleted() {
+        latch.countDown()
+    }
+
+    fun await(): T {
+        latch.await()
+        error?.let { throw it }
+        return value!!
+    }
+}
+
+/**
+ * Queues inbound messages for the benchmark thread. When [manualFlowControl] is enabled a new message
+ * is only requested once the previous one has been taken, matching the flow control applied by the
+ * coroutine call adapters.
+ */
+class QueueingResponseObserver<ReqT, RespT>(
+    private val manualFlowControl: Boolean
+) : ClientResponseObserver<ReqT, RespT> {
+
+    private val responses = ArrayBlockingQueue<Any>(1024)
+
+    lateinit var requestStream: ClientCallStreamObserver<ReqT>
+        private set
+
+    override fun beforeStart(requestStream: ClientCallStreamObserver<ReqT>) {
+        this.requestStream = requestStream
+        if (manualFlowControl) {
+            requestStream.disableAutoInboundFlowControl()
+        }
+    }
+
+    override fun onNext(value: RespT) {
+        responses.put(value as Any)
+    }
+
+    override fun onError(t: Throwable) {
+        responses.offer(t)
+    }
+
+    override fun onCompleted() {
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun take(): RespT {
+        val value = responses.take()
+        if (value is Throwable) throw value
+        if (manualFlowControl) {
+            requestStream.request(1)
+        }
+        return value as RespT
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.benchmark
+
+import BenchMarkService
+import com.github.marcoferrer.krotoplus.coroutines.client.ClientBidiCallChannel
+import com.google.protobuf.ByteString
+import io.grpc.ManagedChannel
+import io.grpc.ManagedChannelBuilder
+import io.grpc.Server
+import io.grpc.ServerBuilder
+import io.grpc.benchmarks.proto.BenchmarkServiceCoroutineGrpc
+import io.grpc.benchmarks.proto.Messages
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import io.grpc.netty.NettyChannelBuilder
+import io.grpc.netty.NettyServerBuilder
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.asExecutor
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.openjdk.jmh.annotations.AuxCounters
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.infra.BenchmarkParams
+import java.lang.management.ManagementFactory
+import java.net.InetSocketAddress
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinWorkerThread
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Measures how the coroutine call adapters scale with the number of concurrent bidi streams.
+ *
+ * Every trial opens `streams` streams and keeps each of them busy with a closed loop of request / response
+ * round trips, running on `Dispatchers.Default`. The benchmark method measures a round trip over one more
+ * stream, so its sampled latency percentiles are those of a single stream under that load. The round trips
+ * completed by the load streams are reported as the `loadRoundTrips` secondary result, a rate of two messages
+ * each. The heap retained per open stream, measured once its first round trip has completed, is reported as the
+ * `heapBytesPerStream` secondary result of the throughput run, as JMH doesn't record event counters when sampling.
+ *
+ * `executor` selects the executor of both the server and the channel: `direct` runs call events on the transport
+ * threads, `forkJoin` on a dedicated async `ForkJoinPool`, and `default` on `Dispatchers.Default`.
+ */
+@BenchmarkMode(Mode.Throughput, Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class StreamScalabilityBenchmark {
+
+    @State(Scope.Benchmark)
+    open class StreamLoad {
+
+        @Param("inProcess", "netty")
+        @JvmField
+        var transport: String = "inProcess"
+
+        @Param("direct", "forkJoin", "default")
+        @JvmField
+        var executor: String = "direct"
+
+        @Param("1", "100", "10000")
+        @JvmField
+        var streams: Int = 1
+
+        @Param("0", "1024")
+        @JvmField
+        var messageSize: Int = 0
+
+        lateinit var request: Messages.SimpleRequest
+            private set
+
+        lateinit var channel: ManagedChannel
+            private set
+
+        var heapBytesPerStream: Long = 0
+            private set
+
+        private val completedRoundTrips = AtomicLong()
+
+        private val loadJob = Job()
+
+        private var callExecutor: ExecutorService? = null
+
+        private lateinit var server: Server
+
+        val roundTrips: Long
+            get() = completedRoundTrips.get()
+
+        @Setup
+        fun setup() {
+            request = Messages.SimpleRequest.newBuilder()
+                .setResponseType(Messages.PayloadType.COMPRESSABLE)
+                .setResponseSize(messageSize)
+                .setPayload(Messages.Payload.newBuilder().setBody(ByteString.copyFrom(ByteArray(messageSize))))
+                .build()
+
+            when (transport) {
+                "inProcess" -> {
+                    server = InProcessServerBuilder.forName("stream-scalability-benchmark")
+                        .withExecutor()
+                        .addService(BenchMarkService())
+                        .build()
+                        .start()
+                    channel = InProcessChannelBuilder.forName("stream-scalability-benchmark")
+                        .withExecutor()
+                        .build()
+                }
+                "netty" -> {
+                    server = NettyServerBuilder.forAddress(InetSocketAddress("localhost", 0))
+                        .withExecutor()
+                        .addService(BenchMarkService())
+                        .build()
+                        .start()
+                    channel = NettyChannelBuilder.forAddress("localhost", server.port)
+                        .usePlaintext()
+                        .withExecutor()
+                        .build()
+                }
+                else -> throw IllegalArgumentException("Unknown transport: $transport")
+            }
+
+            val heapBefore = usedHeapAfterGc()
+            val calls = runBlocking(Dispatchers.Default) {
+                List(streams) { newStream() }.onEach { call ->
+                    call.requestChannel.send(request)
+                    call.responseChannel.receive()
+                }
+            }
+            heapBytesPerStream = (usedHeapAfterGc() - heapBefore) / streams
+
+            val loadScope = CoroutineScope(Dispatchers.Default + loadJob)
+            for (call in calls) loadScope.launch {
+                while (isActive) {
+                    call.requestChannel.send(request)
+                    call.responseChannel.receive()
+                    completedRoundTrips.incrementAndGet()
+                }
+            }
+        }
+
+        fun newStream(): ClientBidiCallChannel<Messages.SimpleRequest, Messages.SimpleResponse> =
+            BenchmarkServiceCoroutineGrpc.newStub(channel).streamingCall()
+
+        @TearDown
+        fun tearDown() {
+            runBlocking { loadJob.cancelAndJoin() }
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+            callExecutor?.shutdownNow()
+        }
+
+        private fun <T : ServerBuilder<T>> T.withExecutor(): T =
+            when (executor) {
+                "direct" -> directExecutor()
+                "forkJoin" -> executor(newForkJoinExecutor())
+                "default" -> executor(Dispatchers.Default.asExecutor())
+                else -> throw IllegalArgumentException("Unknown executor: $executor")
+            }
+
+        private fun <T : ManagedChannelBuilder<T>> T.withExecutor(): T =
+            when (executor) {
+                "direct" -> directExecutor()
+                "forkJoin" -> executor(newForkJoinExecutor())
+                "default" -> executor(Dispatchers.Default.asExecutor())
+                else -> throw IllegalArgumentException("Unknown executor: $executor")
+            }
+
+        // Shared by the server and the channel, as configured in the standalone benchmark server
+        private fun newForkJoinExecutor(): ExecutorService =
+            callExecutor ?: ForkJoinPool(
+                Runtime.getRuntime().availableProcessors(),
+                object : ForkJoinPool.ForkJoinWorkerThreadFactory {
+                    private val num = AtomicInteger()
+                    override fun newThread(pool: ForkJoinPool): ForkJoinWorkerThread =
+                        ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool).apply {
+                            isDaemon = true
+                            name = "grpc-benchmark-app-${num.getAndIncrement()}"
+                        }
+                },
+                null,
+                true
+            ).also { callExecutor = it }
+
+        private fun usedHeapAfterGc(): Long {
+            repeat(2) {
+                System.gc()
+                Thread.sleep(50)
+            }
+            return ManagementFactory.getMemoryMXBean().heapMemoryUsage.used
+        }
+    }
+
+    @State(Scope.Thread)
+    open class ProbeStream {
+
+        lateinit var call: ClientBidiCallChannel<Messages.SimpleRequest, Messages.SimpleResponse>
+
+        @Setup
+        fun setup(load: StreamLoad) {
+            call = load.newStream()
+        }
+
+        @TearDown
+        fun tearDown() {
+            call.requestChannel.close()
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    open class LoadThroughput {
+
+        /**
+         * The round trips completed by the load streams during the iteration.
+         */
+        @JvmField
+        var loadRoundTrips: Long = 0
+
+        private var startedAt: Long = 0
+
+        @Setup(Level.Iteration)
+        fun setup(load: StreamLoad) {
+            loadRoundTrips = 0
+            startedAt = load.roundTrips
+        }
+
+        fun update(load: StreamLoad) {
+            loadRoundTrips = load.roundTrips - startedAt
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    open class StreamFootprint {
+
+        /**
+         * The share of a single iteration in the heap retained by each open stream, in bytes. JMH sums event
+         * counters over all measured iterations, so the reported score is the figure measured by the trial.
+         */
+        @JvmField
+        var heapBytesPerStream: Double = 0.0
+
+        private var measuredIterations = 1
+
+        @Setup
+        fun setup(params: BenchmarkParams) {
+            measuredIterations = params.measurement.count * maxOf(params.forks, 1)
+        }
+
+        fun update(load: StreamLoad) {
+            heapBytesPerStream = load.heapBytesPerStream.toDouble() / measuredIterations
+        }
+    }
+
+    @Benchmark
+    fun roundTrip(
+        load: StreamLoad,
+        probe: ProbeStream,
+        throughput: LoadThroughput,
+        footprint: StreamFootprint
+    ): Messages.SimpleResponse {
+        val response = runBlocking {
+            probe.call.requestChannel.send(load.request)
+            probe.call.responseChannel.receive()
+        }
+        throughput.update(load)
+        footprint.update(load)
+        return response
+    }
+}
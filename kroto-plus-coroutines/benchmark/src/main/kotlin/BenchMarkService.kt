@@ -23,7 +23,7 @@ import kotlinx.coroutines.ObsoleteCoroutinesApi
 import kotlinx.coroutines.channels.*
 
 @UseExperimental(ExperimentalCoroutinesApi::class, ObsoleteCoroutinesApi::class)
-class BenchMarkService : BenchmarkServiceCoroutineGrpc.BenchmarkServiceImplBase() {
+open class BenchMarkService : BenchmarkServiceCoroutineGrpc.BenchmarkServiceImplBase() {
 
     private val BIDI_RESPONSE_BYTES = 100
     private val BIDI_RESPONSE = Messages.SimpleResponse
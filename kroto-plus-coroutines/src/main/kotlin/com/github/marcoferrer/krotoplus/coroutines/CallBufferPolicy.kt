@@ -0,0 +1,94 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.channels.Channel
+
+/**
+ * Describes how outbound messages of a call are buffered before being written to the underlying transport.
+ *
+ * By default calls use a rendezvous channel, so every send has to be handed directly to the writer.
+ * Allowing messages to be buffered lets producers run ahead of the network writer.
+ *
+ * @property capacity The number of messages that can be buffered. Must be [Channel.RENDEZVOUS] or greater.
+ * @property onBufferOverflow The behavior of a send once the buffer is full.
+ * @property maxBufferedBytes An optional bound on the serialized size of all buffered messages.
+ * A single message is always admitted into an empty buffer, regardless of its size.
+ */
+public class CallBufferPolicy(
+    public val capacity: Int = Channel.RENDEZVOUS,
+    public val onBufferOverflow: CallBufferOverflow = CallBufferOverflow.SUSPEND,
+    public val maxBufferedBytes: Long = UNBOUNDED_BYTES
+) {
+
+    init {
+        require(capacity >= 0) { "Buffer capacity must be zero or greater, but was $capacity" }
+        require(maxBufferedBytes > 0) { "Max buffered bytes must be greater than zero, but was $maxBufferedBytes" }
+    }
+
+    public val isByteBounded: Boolean
+        get() = maxBufferedBytes != UNBOUNDED_BYTES
+
+    /**
+     * Whether only the latest message that has not been written yet is kept.
+     */
+    public val isConflated: Boolean
+        get() = capacity <= 1 && onBufferOverflow == CallBufferOverflow.DROP_OLDEST && !isByteBounded
+
+    override fun toString(): String =
+        "CallBufferPolicy(capacity=$capacity, onBufferOverflow=$onBufferOverflow, maxBufferedBytes=$maxBufferedBytes)"
+
+    public companion object {
+
+        public const val UNBOUNDED_BYTES: Long = Long.MAX_VALUE
+
+        /**
+         * The policy used when none has been configured. Every send suspends until
+         * it has been handed to the writer.
+         */
+        @JvmField
+        public val DEFAULT: CallBufferPolicy = CallBufferPolicy()
+
+        /**
+         * Keeps only the latest message that has not been written yet, replacing it on every send.
+         * Sends never suspend, which suits streams of state snapshots where only the newest value matters.
+         */
+        @JvmField
+        public val CONFLATED: CallBufferPolicy = CallBufferPolicy(1, CallBufferOverflow.DROP_OLDEST)
+    }
+}
+
+/**
+ * The behavior of a send into a full call buffer.
+ */
+public enum class CallBufferOverflow {
+
+    /**
+     * Suspend the sender until there is room in the buffer.
+     */
+    SUSPEND,
+
+    /**
+     * Drop the oldest buffered message to make room for the new one. The sender never suspends.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the message being sent, leaving the buffer unchanged. The sender never suspends.
+     */
+    DROP_LATEST
+}
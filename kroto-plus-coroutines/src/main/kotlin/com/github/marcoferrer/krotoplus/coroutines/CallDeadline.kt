@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import io.grpc.CallOptions
+import io.grpc.Deadline
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.withTimeout
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * [CoroutineContext] element carrying the [Deadline] of the rpcs made from a coroutine.
+ *
+ * Client calls take the nearer of this deadline and the deadline of their [CallOptions], so that the
+ * server stops working on a call once the client has given up on it. The element is usually added
+ * with [withCallDeadline].
+ */
+public class CallDeadlineElement(
+    /**
+     * The deadline of every rpc made within this context.
+     */
+    public val deadline: Deadline
+) : AbstractCoroutineContextElement(Key) {
+
+    /**
+     * Key of [CallDeadlineElement] in [CoroutineContext].
+     */
+    companion object Key : CoroutineContext.Key<CallDeadlineElement>
+
+    override fun toString(): String = "CallDeadlineElement($deadline)"
+}
+
+/**
+ * Runs [block] with a timeout, like [withTimeout], and sends the same deadline to the server
+ * with every rpc made from within it.
+ *
+ * A [withTimeout] cannot be propagated this way, since its remaining time cannot be read from the
+ * coroutine context. When nested, the nearer of the enclosing and the new deadline applies.
+ *
+ * ```
+ * val reply = withCallDeadline(500) {
+ *     stub.sayHello { name = "John" }
+ * }
+ * ```
+ *
+ * @throws kotlinx.coroutines.TimeoutCancellationException if the deadline expires before [block] completes.
+ */
+public suspend fun <T> withCallDeadline(
+    timeout: Long,
+    unit: TimeUnit = TimeUnit.MILLISECONDS,
+    block: suspend CoroutineScope.() -> T
+): T {
+    val deadline = kotlin.coroutines.coroutineContext[CallDeadlineElement]?.deadline
+        .nearestOf(Deadline.after(timeout, unit))
+
+    return withTimeout(deadline.timeRemaining(TimeUnit.MILLISECONDS)) {
+        withContext(CallDeadlineElement(deadline), block)
+    }
+}
+
+/**
+ * Returns call options using the nearer of their own deadline and the deadline
+ * found in [coroutineContext], if any.
+ */
+internal fun CallOptions.withCallDeadline(coroutineContext: CoroutineContext): CallOptions {
+    val contextDeadline = coroutineContext[CallDeadlineElement]?.deadline ?: return this
+    val nearestDeadline = deadline.nearestOf(contextDeadline)
+    return if (nearestDeadline === deadline) this else withDeadline(nearestDeadline)
+}
+
+private fun Deadline?.nearestOf(other: Deadline): Deadline =
+    this?.minimum(other) ?: other
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A lock free histogram of non negative values using power of two buckets.
+ *
+ * Recording a value costs a handful of uncontended atomic increments and never allocates. In exchange,
+ * percentiles are reported as the upper bound of the bucket they fall in, so they are accurate to within
+ * a factor of two. That is enough to tell a microsecond stall from a millisecond one.
+ */
+public class CallHistogram {
+
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+
+    private val totalCount = AtomicLong()
+
+    private val totalSum = AtomicLong()
+
+    private val maxValue = AtomicLong()
+
+    /**
+     * The number of values recorded.
+     */
+    public val count: Long
+        get() = totalCount.get()
+
+    /**
+     * The sum of every value recorded.
+     */
+    public val sum: Long
+        get() = totalSum.get()
+
+    /**
+     * The largest value recorded, or `0` if nothing has been recorded.
+     */
+    public val max: Long
+        get() = maxValue.get()
+
+    public val mean: Double
+        get() = count.let { if (it == 0L) 0.0 else sum.toDouble() / it }
+
+    /**
+     * Records [value]. Negative values are recorded as `0`.
+     */
+    public fun record(value: Long) {
+        val sample = value.coerceAtLeast(0L)
+        buckets.incrementAndGet(bucketOf(sample))
+        totalCount.incrementAndGet()
+        totalSum.addAndGet(sample)
+
+        var currentMax = maxValue.get()
+        while (sample > currentMax && !maxValue.compareAndSet(currentMax, sample)) {
+            currentMax = maxValue.get()
+        }
+    }
+
+    /**
+     * Returns an upper bound for the value below which [percentile] percent of the recorded values fall.
+     */
+    public fun percentile(percentile: Double): Long {
+        require(percentile in 0.0..100.0) { "Percentile must be between 0 and 100, but was $percentile" }
+
+        val recorded = count
+        if (recorded == 0L) return 0L
+
+        val rank = Math.ceil(recorded * percentile / 100.0).toLong().coerceAtLeast(1L)
+        var seen = 0L
+        for (bucket in 0 until BUCKET_COUNT) {
+            seen += buckets.get(bucket)
+            if (seen >= rank) {
+                return minOf(upperBoundOf(bucket), max)
+            }
+        }
+        return max
+    }
+
+    override fun toString(): String =
+        "CallHistogram(count=$count, mean=$mean, p50=${percentile(50.0)}, p99=${percentile(99.0)}, max=$max)"
+
+    private companion object {
+
+        // One bucket for zero, then one for every bit length of a positive long
+        const val BUCKET_COUNT = 64
+
+        fun bucketOf(value: Long): Int = 64 - java.lang.Long.numberOfLeadingZeros(value)
+
+        fun upperBoundOf(bucket: Int): Long =
+            if (bucket == BUCKET_COUNT - 1) Long.MAX_VALUE else (1L shl bucket) - 1
+    }
+}
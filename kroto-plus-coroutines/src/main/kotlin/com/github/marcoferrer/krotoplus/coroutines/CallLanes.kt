@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.CoroutineDispatcher
+import java.io.Closeable
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * A fixed set of single threaded lanes that rpc coroutines can be pinned to.
+ *
+ * Each lane is a [CoroutineDispatcher] that runs coroutines on its own thread, and does not dispatch
+ * coroutines resumed from that thread. A coroutine pinned to the lane that receives the events of its call,
+ * is resumed by those events inline, without handing off to another thread.
+ *
+ * Lanes can be backed by the event loops of a transport, such as the worker group of a netty server
+ * using a direct executor. Each stream is then handled on the event loop that owns it.
+ *
+ * ```
+ * val workerGroup = NioEventLoopGroup(4)
+ * val lanes = CallLanes.fromSingleThreadExecutors(workerGroup)
+ *
+ * NettyServerBuilder.forPort(8000)
+ *     .workerEventLoopGroup(workerGroup)
+ *     .directExecutor()
+ *     ...
+ *
+ * class GreeterServiceImpl : GreeterCoroutineGrpc.GreeterImplBase() {
+ *     override val initialContext: CoroutineContext
+ *         get() = lanes.currentLane()
+ * }
+ * ```
+ *
+ * Lanes created with [newFixedLanes] run on threads of their own instead. They can be used as the executor
+ * of a server, which runs the events of a call on the lane assigned to the transport thread delivering them.
+ */
+public class CallLanes private constructor(
+    executors: List<Executor>,
+    private val ownedExecutors: List<ExecutorService>
+) : Executor, Closeable {
+
+    private val lanes: Array<Lane> = executors.map { Lane(it) }.toTypedArray()
+
+    private val nextLane = AtomicInteger()
+
+    // Threads outside of the lanes are assigned one for their lifetime, so that
+    // the events of a stream delivered by the same transport thread share a lane.
+    // Lane threads replace their assignment with their own lane once it is captured.
+    private val currentLane = object : ThreadLocal<Lane>() {
+        override fun initialValue(): Lane = lanes[(nextLane.getAndIncrement() and Int.MAX_VALUE) % lanes.size]
+    }
+
+    init {
+        require(lanes.isNotEmpty()) { "At least one lane is required" }
+        // Threads are captured without waiting for them, since lanes may
+        // be created from a task running on one of their own executors
+        for (lane in lanes) {
+            lane.executor.execute {
+                lane.thread = Thread.currentThread()
+                currentLane.set(lane)
+            }
+        }
+    }
+
+    /**
+     * The number of lanes.
+     */
+    val size: Int
+        get() = lanes.size
+
+    /**
+     * Returns the lane running the current thread, or the lane assigned to it
+     * if the current thread does not belong to any lane.
+     */
+    fun currentLane(): CoroutineDispatcher = currentLane.get()
+
+    /**
+     * Runs [command] on the lane returned by [currentLane].
+     */
+    override fun execute(command: Runnable) {
+        currentLane.get().executor.execute(command)
+    }
+
+    /**
+     * Shuts down the threads of lanes created with [newFixedLanes]. Lanes
+     * backed by executors supplied by the caller are left running.
+     */
+    override fun close() {
+        ownedExecutors.forEach { it.shutdown() }
+    }
+
+    private class Lane(val executor: Executor) : CoroutineDispatcher() {
+
+        // Until the thread is captured every coroutine is dispatched
+        @Volatile
+        var thread: Thread? = null
+
+        override fun isDispatchNeeded(context: CoroutineContext): Boolean =
+            Thread.currentThread() !== thread
+
+        override fun dispatch(context: CoroutineContext, block: Runnable) {
+            executor.execute(block)
+        }
+
+        override fun toString(): String = "CallLane[${thread?.name ?: executor}]"
+    }
+
+    companion object {
+
+        /**
+         * Creates [laneCount] lanes, each running on a daemon thread owned by the returned instance.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun newFixedLanes(laneCount: Int, name: String = "grpc-call-lane"): CallLanes {
+            require(laneCount > 0) { "Lane count must be greater than zero, but was $laneCount" }
+            val executors = List(laneCount) { index ->
+                Executors.newSingleThreadExecutor(ThreadFactory { runnable ->
+                    Thread(runnable, "$name-$index").apply { isDaemon = true }
+                })
+            }
+            return CallLanes(executors, executors)
+        }
+
+        /**
+         * Creates a lane for each of [executors]. Every executor must run all of
+         * its tasks on the same thread, as the event loops of a transport do.
+         */
+        @JvmStatic
+        fun fromSingleThreadExecutors(executors: Iterable<Executor>): CallLanes =
+            CallLanes(executors.toList(), emptyList())
+    }
+}
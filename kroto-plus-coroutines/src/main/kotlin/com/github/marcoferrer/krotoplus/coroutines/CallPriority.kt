@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * The priority class of an rpc. It is added to the coroutine context of every call, and determines how
+ * many outbound messages a call writes in one pass before yielding to the other coroutines of its dispatcher.
+ * A dispatcher created with [prioritizeCalls] also runs the coroutines of higher priority calls first.
+ *
+ * Client calls take their priority from [CALL_OPTION_CALL_PRIORITY], and server calls from
+ * [com.github.marcoferrer.krotoplus.coroutines.server.ServiceScope.callPriority].
+ *
+ * @property drainBudget The number of outbound messages a call writes before yielding, while the transport
+ * keeps accepting them.
+ */
+public enum class CallPriority(val drainBudget: Int) : CoroutineContext.Element {
+
+    /**
+     * Latency sensitive calls. Their outbound messages are written without yielding.
+     */
+    INTERACTIVE(Int.MAX_VALUE),
+
+    /**
+     * The priority of calls that do not specify one.
+     */
+    DEFAULT(DEFAULT_DRAIN_BUDGET),
+
+    /**
+     * Throughput oriented calls, such as bulk exports. They yield often, so that
+     * they cannot hold a thread while other calls are waiting for it.
+     */
+    BULK(BULK_DRAIN_BUDGET);
+
+    override val key: CoroutineContext.Key<*>
+        get() = Key
+
+    companion object Key : CoroutineContext.Key<CallPriority>
+}
+
+private const val DEFAULT_DRAIN_BUDGET = 256
+
+private const val BULK_DRAIN_BUDGET = 32
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.consume
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+
+/**
+ * Sends the result of applying [transform] to every element of the receiver channel to [destination],
+ * transforming up to [parallelism] elements at the same time. Like `mapTo`, the receiver channel is consumed
+ * and [destination] is left open once every element has been sent.
+ *
+ * Results are sent in the order of their elements unless [ordered] is `false`, in which case
+ * each result is sent as soon as it is available.
+ *
+ * An element is only received once one of the [parallelism] slots is free, and a slot is only freed
+ * once its result has been sent to [destination]. When the receiver is the request channel of a call,
+ * receiving an element is what returns its credit to the transport, so at most [parallelism]
+ * messages are in flight and a slow [destination] still suspends the peer.
+ *
+ * ```
+ * requestChannel.mapParallelTo(responseChannel, parallelism = 4) { request ->
+ *     enrich(request)
+ * }
+ * ```
+ */
+public suspend fun <E, R, C : SendChannel<R>> ReceiveChannel<E>.mapParallelTo(
+    destination: C,
+    parallelism: Int,
+    ordered: Boolean = true,
+    transform: suspend (E) -> R
+): C {
+    require(parallelism > 0) { "Parallelism must be greater than zero, but was $parallelism" }
+
+    consume {
+        coroutineScope {
+            val slots = Semaphore(parallelism)
+            // Holds at most one result per slot, so it never needs to suspend
+            val pendingResults = if (ordered) Channel<Deferred<R>>(Channel.UNLIMITED) else null
+
+            if (pendingResults != null) launch {
+                for (result in pendingResults) {
+                    destination.send(result.await())
+                    slots.release()
+                }
+            }
+
+            try {
+                val iterator = iterator()
+                while (true) {
+                    slots.acquire()
+                    if (!iterator.hasNext()) break
+
+                    val element = iterator.next()
+                    if (pendingResults != null) {
+                        pendingResults.send(async { transform(element) })
+                    } else launch {
+                        try {
+                            destination.send(transform(element))
+                        } finally {
+                            slots.release()
+                        }
+                    }
+                }
+            } finally {
+                pendingResults?.close()
+            }
+        }
+    }
+    return destination
+}
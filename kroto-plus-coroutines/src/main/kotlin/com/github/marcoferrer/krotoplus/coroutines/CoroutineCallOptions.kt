@@ -16,6 +16,7 @@
 
 package com.github.marcoferrer.krotoplus.coroutines
 
+import com.github.marcoferrer.krotoplus.coroutines.client.ClientCallInstrumentation
 import io.grpc.CallOptions
 import io.grpc.stub.AbstractStub
 import kotlin.coroutines.CoroutineContext
@@ -29,6 +30,43 @@ import kotlin.coroutines.EmptyCoroutineContext
 public val CALL_OPTION_COROUTINE_CONTEXT: CallOptions.Key<CoroutineContext> =
     CallOptions.Key.createWithDefault<CoroutineContext>("coroutineContext", EmptyCoroutineContext)
 
+/**
+ * The call option key used for retrieving and storing the number of inbound messages a streaming call
+ * will request ahead of consumption. Once three quarters of this window have been delivered,
+ * the consumed messages are requested from the transport in a single batch.
+ *
+ * Defaults to `1`, requesting a single message each time one is delivered.
+ */
+public val CALL_OPTION_INBOUND_PREFETCH: CallOptions.Key<Int> =
+    CallOptions.Key.createWithDefault<Int>("inboundPrefetch", 1)
+
+/**
+ * The call option key used for retrieving and storing the [CallBufferPolicy] applied to the outbound messages
+ * of client and bidi streaming calls.
+ *
+ * Defaults to [CallBufferPolicy.DEFAULT]
+ */
+public val CALL_OPTION_BUFFER_POLICY: CallOptions.Key<CallBufferPolicy> =
+    CallOptions.Key.createWithDefault<CallBufferPolicy>("bufferPolicy", CallBufferPolicy.DEFAULT)
+
+/**
+ * The call option key used for retrieving and storing the [ClientCallInstrumentation] notified of the events
+ * of each call.
+ *
+ * Defaults to [ClientCallInstrumentation.NONE]
+ */
+public val CALL_OPTION_CALL_INSTRUMENTATION: CallOptions.Key<ClientCallInstrumentation> =
+    CallOptions.Key.createWithDefault<ClientCallInstrumentation>("callInstrumentation", ClientCallInstrumentation.NONE)
+
+/**
+ * The call option key used for retrieving and storing the [CallPriority] of each call.
+ * A priority added to the [CALL_OPTION_COROUTINE_CONTEXT] is used for calls left at the default priority.
+ *
+ * Defaults to [CallPriority.DEFAULT]
+ */
+public val CALL_OPTION_CALL_PRIORITY: CallOptions.Key<CallPriority> =
+    CallOptions.Key.createWithDefault<CallPriority>("callPriority", CallPriority.DEFAULT)
+
 /**
  * Get the coroutineContext the receiving stub is using for cooperative cancellation.
  */
@@ -64,4 +102,36 @@ internal fun CallOptions.withCoroutineContext(coroutineContext: CoroutineContext
     this.withOption(CALL_OPTION_COROUTINE_CONTEXT, coroutineContext)
 
 internal suspend fun CallOptions.withCoroutineContext(): CallOptions =
-    this.withOption(CALL_OPTION_COROUTINE_CONTEXT, kotlin.coroutines.coroutineContext)
\ No newline at end of file
+    this.withOption(CALL_OPTION_COROUTINE_CONTEXT, kotlin.coroutines.coroutineContext)
+
+/**
+ * Returns a new stub with the value of [prefetch] attached as a [CallOptions].
+ * Any streaming rpcs invoked on the resulting stub will request up to [prefetch] response messages
+ * ahead of their consumption.
+ */
+public fun <T : AbstractStub<T>> T.withInboundPrefetch(prefetch: Int): T {
+    require(prefetch > 0) { "Inbound prefetch must be greater than zero, but was $prefetch" }
+    return withOption(CALL_OPTION_INBOUND_PREFETCH, prefetch)
+}
+
+/**
+ * Returns a new stub with the value of [policy] attached as a [CallOptions].
+ * Any client or bidi streaming rpcs invoked on the resulting stub will buffer their
+ * outbound messages according to this policy.
+ */
+public fun <T : AbstractStub<T>> T.withBufferPolicy(policy: CallBufferPolicy): T =
+    withOption(CALL_OPTION_BUFFER_POLICY, policy)
+
+/**
+ * Returns a new stub with the value of [instrumentation] attached as a [CallOptions].
+ * Any rpcs invoked on the resulting stub will report their events to a listener created by it.
+ */
+public fun <T : AbstractStub<T>> T.withCallInstrumentation(instrumentation: ClientCallInstrumentation): T =
+    withOption(CALL_OPTION_CALL_INSTRUMENTATION, instrumentation)
+
+/**
+ * Returns a new stub with the value of [priority] attached as a [CallOptions].
+ * Any rpcs invoked on the resulting stub will run with this priority.
+ */
+public fun <T : AbstractStub<T>> T.withCallPriority(priority: CallPriority): T =
+    withOption(CALL_OPTION_CALL_PRIORITY, priority)
@@ -57,11 +57,20 @@ public class GrpcContextElement(
      */
     companion object Key : CoroutineContext.Key<GrpcContextElement>
 
-    override fun updateThreadContext(context: CoroutineContext): io.grpc.Context =
-        this@GrpcContextElement.context.attach()
+    override fun updateThreadContext(context: CoroutineContext): io.grpc.Context {
+        val currentContext = io.grpc.Context.current()
+        // Attaching writes to a thread local on every resumption. When the grpc context is already
+        // current, such as when a coroutine is resumed on the thread that started it, we skip it
+        // and return the context itself, so that the restore below is skipped as well.
+        return if (currentContext === this.context)
+            currentContext else
+            this.context.attach()
+    }
 
     override fun restoreThreadContext(context: CoroutineContext, oldState: io.grpc.Context) {
-        this@GrpcContextElement.context.detach(oldState)
+        if (oldState !== this.context) {
+            this.context.detach(oldState)
+        }
     }
 
 }
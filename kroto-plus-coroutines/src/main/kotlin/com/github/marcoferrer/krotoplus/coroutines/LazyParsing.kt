@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import com.github.marcoferrer.krotoplus.coroutines.call.lazyParsing
+import com.github.marcoferrer.krotoplus.coroutines.call.mapMethods
+import com.github.marcoferrer.krotoplus.coroutines.call.withRequestMarshaller
+import io.grpc.MethodDescriptor
+import io.grpc.ServerServiceDefinition
+
+/**
+ * Returns a copy of the receiver service definition, whose client and bidi streaming methods defer
+ * parsing their requests until they are received from the request channel of the call.
+ *
+ * The raw bytes of each request are queued instead, and parsed on the dispatcher of the call. Parsing large
+ * messages is then spread across the threads of that dispatcher, instead of occupying the transport threads.
+ * This only applies to services implemented with the coroutine `ImplBase` classes. Server interceptors of the
+ * rewritten methods observe requests before they are parsed, and so must not rely on their type.
+ */
+public fun ServerServiceDefinition.withLazyRequestParsing(): ServerServiceDefinition =
+    mapMethods { method ->
+        when (method.methodDescriptor.type) {
+            MethodDescriptor.MethodType.CLIENT_STREAMING,
+            MethodDescriptor.MethodType.BIDI_STREAMING ->
+                method.withRequestMarshaller(method.methodDescriptor.requestMarshaller.lazyParsing())
+            else -> method
+        }
+    }
+
+/**
+ * Returns a copy of the receiver server streaming or bidi streaming method, whose responses are only
+ * parsed once they are received from the response channel or flow of a coroutine client call.
+ *
+ * Client interceptors of calls to the resulting method observe responses before they are parsed,
+ * and so must not rely on their type.
+ */
+public fun <ReqT, RespT> MethodDescriptor<ReqT, RespT>.withLazyResponseParsing(): MethodDescriptor<ReqT, RespT> {
+    require(type == MethodDescriptor.MethodType.SERVER_STREAMING || type == MethodDescriptor.MethodType.BIDI_STREAMING) {
+        "Lazy response parsing is only supported by server and bidi streaming methods, but $fullMethodName is $type"
+    }
+    return toBuilder()
+        .setResponseMarshaller(responseMarshaller.lazyParsing())
+        .build()
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.CoroutineDispatcher
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.EmptyCoroutineContext
+
+/**
+ * Returns a dispatcher that runs at most [parallelism] coroutines of the receiver dispatcher at the same time.
+ * Work beyond that limit is queued and executed in order as running coroutines suspend or complete.
+ *
+ * This is useful to give a single rpc method a share of a shared pool such as `Dispatchers.Default`
+ * without letting it occupy every thread.
+ */
+public fun CoroutineDispatcher.limitParallelism(parallelism: Int): CoroutineDispatcher {
+    require(parallelism > 0) { "Parallelism must be greater than zero, but was $parallelism" }
+    return LimitedParallelismDispatcher(this, parallelism, FifoDispatchQueue(), "limitParallelism")
+}
+
+/**
+ * Holds the coroutines queued on a [LimitedParallelismDispatcher], and decides which one runs next.
+ */
+internal interface DispatchQueue {
+
+    fun add(context: CoroutineContext, block: Runnable)
+
+    fun poll(): Runnable?
+
+    fun isEmpty(): Boolean
+}
+
+/**
+ * Runs queued coroutines on at most [parallelism] threads of [dispatcher], in the order chosen by [queue].
+ */
+internal class LimitedParallelismDispatcher(
+    private val dispatcher: CoroutineDispatcher,
+    private val parallelism: Int,
+    private val queue: DispatchQueue,
+    private val name: String
+) : CoroutineDispatcher(), Runnable {
+
+    private val runningWorkers = AtomicInteger()
+
+    override fun dispatch(context: CoroutineContext, block: Runnable) {
+        queue.add(context, block)
+        if (tryAcquireWorker()) {
+            dispatcher.dispatch(EmptyCoroutineContext, this)
+        }
+    }
+
+    override fun run() {
+        var processed = 0
+        while (true) {
+            val task = queue.poll()
+            if (task == null) {
+                runningWorkers.decrementAndGet()
+                // A task may have been queued after our last poll, but before
+                // this worker was released. Keep running if no other worker can take it.
+                if (queue.isEmpty() || !tryAcquireWorker()) return
+                continue
+            }
+
+            task.run()
+
+            // Hand the thread back to the underlying dispatcher every so often,
+            // so that a busy queue cannot monopolize one of its threads.
+            if (++processed == MAX_TASKS_PER_RUN) {
+                dispatcher.dispatch(EmptyCoroutineContext, this)
+                return
+            }
+        }
+    }
+
+    private fun tryAcquireWorker(): Boolean {
+        while (true) {
+            val running = runningWorkers.get()
+            if (running >= parallelism) return false
+            if (runningWorkers.compareAndSet(running, running + 1)) return true
+        }
+    }
+
+    override fun toString(): String = "$dispatcher.$name($parallelism)"
+
+    private companion object {
+        const val MAX_TASKS_PER_RUN = 16
+    }
+}
+
+private class FifoDispatchQueue : DispatchQueue {
+
+    private val queue = ConcurrentLinkedQueue<Runnable>()
+
+    override fun add(context: CoroutineContext, block: Runnable) {
+        queue.add(block)
+    }
+
+    override fun poll(): Runnable? = queue.poll()
+
+    override fun isEmpty(): Boolean = queue.isEmpty()
+}
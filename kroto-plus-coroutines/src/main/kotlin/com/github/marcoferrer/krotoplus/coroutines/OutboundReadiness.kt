@@ -0,0 +1,67 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.flow.Flow
+
+/**
+ * The readiness of the call behind an outbound channel, such as the response channel of a server streaming
+ * call or the request channel of a client streaming call. It lets producers check for back-pressure before
+ * they send, so that they can adapt what they send to the capacity of the network instead of suspending.
+ *
+ * ```
+ * val readiness = responseChannel.outboundReadiness
+ * while (isActive) {
+ *     val frame = if (readiness.isReady) encodeHighQuality() else encodeLowQuality()
+ *     responseChannel.send(frame)
+ * }
+ * ```
+ */
+public interface OutboundReadiness {
+
+    /**
+     * Whether the call can write a message to the transport without buffering it.
+     * Always `false` once the call has completed.
+     */
+    public val isReady: Boolean
+
+    /**
+     * The number of messages sent to the channel that have not been written to the transport yet.
+     */
+    public val queueDepth: Int
+
+    /**
+     * Emits the readiness of the call each time it changes, starting with its current readiness.
+     * Intermediate changes are conflated for slow collectors. The flow completes with the call.
+     */
+    public val readiness: Flow<Boolean>
+
+    /**
+     * Suspends until the call is ready to write another message. Returns immediately
+     * if it already is, or if the call has completed.
+     */
+    public suspend fun awaitReady()
+}
+
+/**
+ * The [OutboundReadiness] of the call the receiver channel sends messages to.
+ *
+ * @throws IllegalArgumentException if the receiver is not the outbound channel of a call.
+ */
+public val SendChannel<*>.outboundReadiness: OutboundReadiness
+    get() = requireNotNull(this as? OutboundReadiness) { "$this is not the outbound channel of a call" }
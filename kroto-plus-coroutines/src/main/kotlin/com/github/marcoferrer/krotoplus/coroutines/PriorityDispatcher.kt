@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.CoroutineDispatcher
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Returns a dispatcher that runs at most [parallelism] coroutines of the receiver dispatcher at the same time,
+ * choosing which queued coroutine runs next by the [CallPriority] of its context.
+ *
+ * Coroutines of [CallPriority.INTERACTIVE] calls are picked first, but not exclusively. Out of every seven
+ * coroutines run while all priorities have work queued, four are interactive, two are default and one is bulk.
+ * Bulk calls therefore keep making progress without adding latency to interactive ones.
+ *
+ * ```
+ * val rpcDispatcher = Dispatchers.Default.prioritizeCalls(parallelism = 4)
+ *
+ * class ExportServiceImpl : ExportCoroutineGrpc.ExportImplBase() {
+ *     override val initialContext: CoroutineContext
+ *         get() = rpcDispatcher
+ *
+ *     override fun callPriority(methodDescriptor: MethodDescriptor<*, *>): CallPriority =
+ *         if (methodDescriptor == ExportGrpc.getExportAllMethod()) CallPriority.BULK else CallPriority.INTERACTIVE
+ * }
+ * ```
+ */
+public fun CoroutineDispatcher.prioritizeCalls(parallelism: Int): CoroutineDispatcher {
+    require(parallelism > 0) { "Parallelism must be greater than zero, but was $parallelism" }
+    return LimitedParallelismDispatcher(this, parallelism, PriorityDispatchQueue(), "prioritizeCalls")
+}
+
+private class PriorityDispatchQueue : DispatchQueue {
+
+    private val queues = Array(PRIORITIES.size) { ConcurrentLinkedQueue<Runnable>() }
+
+    private val tick = AtomicInteger()
+
+    override fun add(context: CoroutineContext, block: Runnable) {
+        val priority = context[CallPriority] ?: CallPriority.DEFAULT
+        queues[priority.ordinal].add(block)
+    }
+
+    override fun poll(): Runnable? {
+        // Start from the priority scheduled for this turn, falling
+        // back to the highest priority that has queued work.
+        val scheduled = SCHEDULE[(tick.getAndIncrement() and Int.MAX_VALUE) % SCHEDULE.size]
+        queues[scheduled.ordinal].poll()?.let { return it }
+        for (queue in queues) {
+            queue.poll()?.let { return it }
+        }
+        return null
+    }
+
+    override fun isEmpty(): Boolean = queues.all { it.isEmpty() }
+
+    private companion object {
+        val PRIORITIES = CallPriority.values()
+
+        val SCHEDULE = arrayOf(
+            CallPriority.INTERACTIVE,
+            CallPriority.DEFAULT,
+            CallPriority.INTERACTIVE,
+            CallPriority.BULK,
+            CallPriority.INTERACTIVE,
+            CallPriority.DEFAULT,
+            CallPriority.INTERACTIVE
+        )
+    }
+}
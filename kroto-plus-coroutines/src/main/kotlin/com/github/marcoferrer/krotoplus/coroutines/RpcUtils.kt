@@ -26,11 +26,8 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.channels.ProducerScope
 import kotlinx.coroutines.channels.SendChannel
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.EmptyCoroutineContext
-import kotlin.coroutines.resume
-import kotlin.coroutines.resumeWithException
 
 /**
  * Launch a [Job] within a [ProducerScope] using the supplied channel as the Receiver.
@@ -59,13 +56,3 @@ public fun <T> CoroutineScope.launchProducerJob(
             }
         }
     }
-
-internal suspend fun SendChannel<*>.awaitCloseOrThrow(){
-    suspendCancellableCoroutine<Unit> { cont ->
-        invokeOnClose { error ->
-            if(error == null)
-                cont.resume(Unit) else
-                cont.resumeWithException(error)
-        }
-    }
-}
\ No newline at end of file
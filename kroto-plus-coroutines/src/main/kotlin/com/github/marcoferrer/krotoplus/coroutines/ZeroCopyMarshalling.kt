@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import com.github.marcoferrer.krotoplus.coroutines.call.aliasing
+import com.github.marcoferrer.krotoplus.coroutines.call.mapMethods
+import com.github.marcoferrer.krotoplus.coroutines.call.withRequestMarshaller
+import com.github.marcoferrer.krotoplus.coroutines.call.withResponseMarshaller
+import io.grpc.MethodDescriptor
+import io.grpc.ServerServiceDefinition
+
+/**
+ * Returns a copy of the receiver method, whose protobuf marshallers do not copy `bytes` fields while parsing.
+ *
+ * Parsed `bytes` fields reference the buffer each message was read into from the transport instead. That buffer
+ * is allocated per message and stays reachable for as long as any of its fields are, so this is intended for
+ * methods transferring large binary payloads. Messages built around existing arrays can avoid a copy on the way
+ * out by wrapping them with `UnsafeByteOperations.unsafeWrap`. Marshallers of other formats are left as they are.
+ */
+public fun <ReqT, RespT> MethodDescriptor<ReqT, RespT>.withZeroCopyMarshallers(): MethodDescriptor<ReqT, RespT> =
+    toBuilder()
+        .setRequestMarshaller(requestMarshaller.aliasing())
+        .setResponseMarshaller(responseMarshaller.aliasing())
+        .build()
+
+/**
+ * Returns a copy of the receiver service definition, whose methods parse messages
+ * without copying their `bytes` fields. See [MethodDescriptor.withZeroCopyMarshallers].
+ */
+public fun ServerServiceDefinition.withZeroCopyMarshallers(): ServerServiceDefinition =
+    mapMethods { method ->
+        method
+            .withRequestMarshaller(method.methodDescriptor.requestMarshaller.aliasing())
+            .withResponseMarshaller(method.methodDescriptor.responseMarshaller.aliasing())
+    }
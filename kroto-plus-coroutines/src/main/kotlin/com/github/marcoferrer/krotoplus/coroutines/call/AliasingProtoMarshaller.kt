@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import com.google.protobuf.InvalidProtocolBufferException
+import com.google.protobuf.MessageLite
+import com.google.protobuf.Parser
+import com.google.protobuf.UnsafeByteOperations
+import io.grpc.Drainable
+import io.grpc.KnownLength
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import java.io.EOFException
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * A protobuf marshaller that parses messages with aliasing enabled, so that `bytes` fields
+ * reference the buffer read from the transport instead of copies of it.
+ *
+ * Each message is read into a buffer of its own, which is kept alive for as long as any of its aliased fields
+ * are reachable. This only pays off for messages whose size is dominated by `bytes` fields. Messages are
+ * serialized, and streams from the in-process transport are parsed, by the [delegate] marshaller.
+ */
+internal class AliasingProtoMarshaller<T : MessageLite>(
+    private val delegate: MethodDescriptor.PrototypeMarshaller<T>
+) : MethodDescriptor.PrototypeMarshaller<T> {
+
+    private val prototype: T = checkNotNull(delegate.messagePrototype) { "Marshaller $delegate has no message prototype" }
+
+    @Suppress("UNCHECKED_CAST")
+    private val parser: Parser<T> = prototype.parserForType as Parser<T>
+
+    override fun getMessagePrototype(): T = prototype
+
+    override fun getMessageClass(): Class<T> = delegate.messageClass
+
+    override fun stream(value: T): InputStream = delegate.stream(value)
+
+    override fun parse(stream: InputStream): T {
+        // Only streams from the in-process transport are drainable. They hold the
+        // message itself, which the delegate returns without parsing it.
+        if (stream is Drainable) {
+            return delegate.parse(stream)
+        }
+
+        val bytes = try {
+            stream.readMessageBytes()
+        } catch (e: IOException) {
+            throw Status.INTERNAL.withDescription("Failed to read message").withCause(e).asRuntimeException()
+        }
+        if (bytes.isEmpty()) {
+            return prototype
+        }
+
+        try {
+            // Protobuf only aliases buffers it considers immutable, which
+            // is the case for those wrapped as a ByteString.
+            val input = UnsafeByteOperations.unsafeWrap(bytes).newCodedInput()
+            input.enableAliasing(true)
+            return parser.parseFrom(input).also { input.checkLastTagWas(0) }
+        } catch (e: InvalidProtocolBufferException) {
+            throw Status.INTERNAL.withDescription("Invalid protobuf byte sequence").withCause(e).asRuntimeException()
+        }
+    }
+
+    private fun InputStream.readMessageBytes(): ByteArray {
+        if (this !is KnownLength) {
+            return readBytes()
+        }
+
+        val bytes = ByteArray(available())
+        var offset = 0
+        while (offset < bytes.size) {
+            val count = read(bytes, offset, bytes.size - offset)
+            if (count == -1) {
+                throw EOFException("Message stream ended after $offset of ${bytes.size} bytes")
+            }
+            offset += count
+        }
+        return bytes
+    }
+}
+
+/**
+ * Returns an [AliasingProtoMarshaller] delegating to the receiver, or the receiver itself
+ * if it is not a protobuf marshaller.
+ */
+@Suppress("UNCHECKED_CAST")
+internal fun <T> MethodDescriptor.Marshaller<T>.aliasing(): MethodDescriptor.Marshaller<T> {
+    val marshaller = this as? MethodDescriptor.PrototypeMarshaller<T>
+    return if (marshaller !is AliasingProtoMarshaller<*> && marshaller?.messagePrototype is MessageLite)
+        AliasingProtoMarshaller(marshaller as MethodDescriptor.PrototypeMarshaller<MessageLite>)
+            as MethodDescriptor.Marshaller<T> else
+        this
+}
@@ -16,9 +16,14 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.call
 
+import com.github.marcoferrer.krotoplus.coroutines.CallPriority
+import com.github.marcoferrer.krotoplus.coroutines.GrpcContextElement
 import com.github.marcoferrer.krotoplus.coroutines.asContextElement
 import io.grpc.ClientCall
 import io.grpc.MethodDescriptor
+import io.grpc.ServerMethodDefinition
+import io.grpc.ServerServiceDefinition
+import io.grpc.ServiceDescriptor
 import io.grpc.Status
 import io.grpc.StatusException
 import io.grpc.StatusRuntimeException
@@ -31,12 +36,25 @@ import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.ProducerScope
 import kotlinx.coroutines.channels.SendChannel
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.coroutines.CoroutineContext
 
 
-internal fun CoroutineScope.bindToClientCancellation(observer: ServerCallStreamObserver<*>) {
+internal fun CoroutineScope.bindToClientCancellation(
+    observer: ServerCallStreamObserver<*>,
+    grpcContext: io.grpc.Context = io.grpc.Context.current()
+) {
     observer.setOnCancelHandler {
-        this@bindToClientCancellation.cancel()
+        // The transport also cancels calls once their deadline expires. We include the deadline
+        // as the cause, so that handlers can tell it apart from a cancellation by the client.
+        if (grpcContext.deadline?.isExpired == true) {
+            val status = Status.DEADLINE_EXCEEDED.withDescription("Call deadline exceeded")
+            this@bindToClientCancellation.cancel(
+                CancellationException(status.description, status.asRuntimeException())
+            )
+        } else {
+            this@bindToClientCancellation.cancel()
+        }
     }
 }
 
@@ -85,24 +103,61 @@ internal fun Throwable.toRpcException(): Throwable =
         }
     }
 
-internal fun MethodDescriptor<*, *>.getCoroutineName(): CoroutineName =
-    CoroutineName(fullMethodName)
+private val coroutineNames = ConcurrentHashMap<String, CoroutineName>()
+
+/**
+ * Returns the [CoroutineName] of the rpc scopes created for this method. Names are cached
+ * by method, so that starting an rpc does not allocate a new one.
+ */
+internal fun MethodDescriptor<*, *>.getCoroutineName(): CoroutineName {
+    val methodName = fullMethodName
+    return coroutineNames[methodName]
+        ?: CoroutineName(methodName).let { coroutineNames.putIfAbsent(methodName, it) ?: it }
+}
 
 internal fun newRpcScope(
     coroutineContext: CoroutineContext,
     methodDescriptor: MethodDescriptor<*, *>,
-    grpcContext: io.grpc.Context = io.grpc.Context.current()
+    grpcContext: io.grpc.Context = io.grpc.Context.current(),
+    callPriority: CallPriority = CallPriority.DEFAULT
 ): CoroutineScope{
-    val context = newRpcContext(coroutineContext, methodDescriptor, grpcContext)
+    val context = newRpcContext(coroutineContext, methodDescriptor, grpcContext, callPriority)
     return CoroutineScope(context)
 }
 
 internal fun newRpcContext(
     coroutineContext: CoroutineContext,
     methodDescriptor: MethodDescriptor<*, *>,
-    grpcContext: io.grpc.Context = io.grpc.Context.current()
+    grpcContext: io.grpc.Context = io.grpc.Context.current(),
+    callPriority: CallPriority = CallPriority.DEFAULT
 ): CoroutineContext =
-    coroutineContext + grpcContext.asContextElement() + methodDescriptor.getCoroutineName()
+    newMethodRpcContext(coroutineContext, methodDescriptor, callPriority).withGrpcContext(grpcContext)
+
+/**
+ * Returns the part of the context of an rpc that is the same for every call of the method
+ * described by [methodDescriptor], that is all of it except for the gRPC context of the call.
+ */
+internal fun newMethodRpcContext(
+    coroutineContext: CoroutineContext,
+    methodDescriptor: MethodDescriptor<*, *>,
+    callPriority: CallPriority = CallPriority.DEFAULT
+): CoroutineContext {
+    // Every element added to a context allocates new context nodes, so
+    // elements that are already in place are not added a second time.
+    var context = coroutineContext
+    val coroutineName = methodDescriptor.getCoroutineName()
+    if (context[CoroutineName] != coroutineName) {
+        context += coroutineName
+    }
+    // A priority already present in the context is kept, unless another one has been set for the call
+    if (callPriority != CallPriority.DEFAULT && context[CallPriority] != callPriority) {
+        context += callPriority
+    }
+    return context
+}
+
+internal fun CoroutineContext.withGrpcContext(grpcContext: io.grpc.Context): CoroutineContext =
+    if (this[GrpcContextElement]?.context === grpcContext) this else this + grpcContext.asContextElement()
 
 internal fun <T> CoroutineScope.newProducerScope(channel: SendChannel<T>): ProducerScope<T> =
     object : ProducerScope<T>,
@@ -111,4 +166,44 @@ internal fun <T> CoroutineScope.newProducerScope(channel: SendChannel<T>): Produ
 
         override val channel: SendChannel<T>
             get() = channel
-    }
\ No newline at end of file
+    }
+
+/**
+ * Returns a copy of the receiver service definition, with each of its methods replaced by the result of [transform].
+ */
+internal fun ServerServiceDefinition.mapMethods(
+    transform: (ServerMethodDefinition<*, *>) -> ServerMethodDefinition<*, *>
+): ServerServiceDefinition {
+    val methods = methods.map(transform)
+
+    val serviceDescriptor = ServiceDescriptor.newBuilder(this.serviceDescriptor.name)
+        .setSchemaDescriptor(this.serviceDescriptor.schemaDescriptor)
+        .apply { methods.forEach { addMethod(it.methodDescriptor) } }
+        .build()
+
+    return ServerServiceDefinition.builder(serviceDescriptor)
+        .apply { methods.forEach { addMethod(it) } }
+        .build()
+}
+
+@Suppress("UNCHECKED_CAST")
+internal fun <ReqT, RespT> ServerMethodDefinition<ReqT, RespT>.withRequestMarshaller(
+    marshaller: MethodDescriptor.Marshaller<*>
+): ServerMethodDefinition<ReqT, RespT> =
+    ServerMethodDefinition.create(
+        methodDescriptor.toBuilder()
+            .setRequestMarshaller(marshaller as MethodDescriptor.Marshaller<ReqT>)
+            .build(),
+        serverCallHandler
+    )
+
+@Suppress("UNCHECKED_CAST")
+internal fun <ReqT, RespT> ServerMethodDefinition<ReqT, RespT>.withResponseMarshaller(
+    marshaller: MethodDescriptor.Marshaller<*>
+): ServerMethodDefinition<ReqT, RespT> =
+    ServerMethodDefinition.create(
+        methodDescriptor.toBuilder()
+            .setResponseMarshaller(marshaller as MethodDescriptor.Marshaller<RespT>)
+            .build(),
+        serverCallHandler
+    )
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import io.grpc.stub.CallStreamObserver
+import kotlinx.coroutines.channels.Channel
+
+/**
+ * Lets a coroutine writing directly to a [CallStreamObserver] suspend until the underlying call
+ * is ready to accept another message.
+ *
+ * This replaces the observers on ready handler, so it must be created before the call has started
+ * and cannot be combined with [OutboundCallWriter] on the same observer.
+ */
+internal class CallReadiness(
+    private val streamObserver: CallStreamObserver<*>,
+    private val onStall: ((Long) -> Unit)? = null
+) {
+
+    // Readiness signals are conflated, since a writer only
+    // needs to know that it should check `isReady` again.
+    private val readySignal = Channel<Unit>(Channel.CONFLATED)
+
+    init {
+        streamObserver.setOnReadyHandler {
+            readySignal.offer(Unit)
+        }
+    }
+
+    suspend fun awaitReady() {
+        if (streamObserver.isReady) return
+
+        val stalledAt = System.nanoTime()
+        do {
+            readySignal.receive()
+        } while (!streamObserver.isReady)
+        onStall?.invoke(System.nanoTime() - stalledAt)
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import kotlinx.coroutines.InternalCoroutinesApi
+import kotlinx.coroutines.channels.ChannelIterator
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.ValueOrClosed
+import kotlinx.coroutines.selects.SelectClause1
+import kotlinx.coroutines.selects.SelectInstance
+
+/**
+ * A [ReceiveChannel] that notifies its [InboundRequestWindow] each time an element is consumed.
+ *
+ * Every receiving operation is covered, including iteration and select clauses, so that
+ * credit is returned regardless of how the consumer drains the channel.
+ */
+@UseExperimental(InternalCoroutinesApi::class)
+internal class CreditingReceiveChannel<E>(
+    private val delegate: ReceiveChannel<E>,
+    private val inboundRequestWindow: InboundRequestWindow
+) : ReceiveChannel<E> by delegate {
+
+    override suspend fun receive(): E =
+        delegate.receive().also { inboundRequestWindow.onMessageConsumed() }
+
+    override suspend fun receiveOrNull(): E? =
+        delegate.receiveOrNull()?.also { inboundRequestWindow.onMessageConsumed() }
+
+    override suspend fun receiveOrClosed(): ValueOrClosed<E> =
+        delegate.receiveOrClosed().also { if (!it.isClosed) inboundRequestWindow.onMessageConsumed() }
+
+    override fun poll(): E? =
+        delegate.poll()?.also { inboundRequestWindow.onMessageConsumed() }
+
+    override fun iterator(): ChannelIterator<E> =
+        CreditingChannelIterator(delegate.iterator())
+
+    override val onReceive: SelectClause1<E>
+        get() = CreditingSelectClause(delegate.onReceive) { true }
+
+    override val onReceiveOrNull: SelectClause1<E?>
+        get() = CreditingSelectClause(delegate.onReceiveOrNull) { it != null }
+
+    override val onReceiveOrClosed: SelectClause1<ValueOrClosed<E>>
+        get() = CreditingSelectClause(delegate.onReceiveOrClosed) { !it.isClosed }
+
+    private inner class CreditingChannelIterator(
+        private val iterator: ChannelIterator<E>
+    ) : ChannelIterator<E> {
+
+        override suspend fun hasNext(): Boolean = iterator.hasNext()
+
+        override fun next(): E = iterator.next().also { inboundRequestWindow.onMessageConsumed() }
+    }
+
+    private inner class CreditingSelectClause<Q>(
+        private val clause: SelectClause1<Q>,
+        private val isElement: (Q) -> Boolean
+    ) : SelectClause1<Q> {
+
+        override fun <R> registerSelectClause1(select: SelectInstance<R>, block: suspend (Q) -> R) {
+            clause.registerSelectClause1(select) { value ->
+                if (isElement(value)) inboundRequestWindow.onMessageConsumed()
+                block(value)
+            }
+        }
+    }
+}
@@ -16,126 +16,314 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.call
 
-import com.github.marcoferrer.krotoplus.coroutines.awaitCloseOrThrow
+import com.github.marcoferrer.krotoplus.coroutines.CallPriority
 import io.grpc.stub.CallStreamObserver
 import io.grpc.stub.ClientCallStreamObserver
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.CoroutineStart
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
-import kotlinx.coroutines.channels.ActorScope
 import kotlinx.coroutines.channels.Channel
-import kotlinx.coroutines.channels.SendChannel
-import kotlinx.coroutines.channels.actor
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
-import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.ContinuationInterceptor
+import kotlin.coroutines.CoroutineContext
 
 
 internal fun <T> CallStreamObserver<*>.applyInboundFlowControl(
     targetChannel: Channel<T>,
-    transientInboundMessageCount: AtomicInteger
+    inboundRequestWindow: InboundRequestWindow
 ) {
+    val isWindowRequested = AtomicBoolean()
     disableAutoInboundFlowControl()
     setOnReadyHandler {
+        // The window is only requested once. After that, credit
+        // is returned as messages are consumed from the channel.
         if (
             isReady &&
             !targetChannel.isClosedForReceive &&
-            transientInboundMessageCount.get() == 0
+            isWindowRequested.compareAndSet(false, true)
         ) {
-            request(1)
+            request(inboundRequestWindow.prefetch)
         }
     }
 }
 
-internal typealias MessageHandler = suspend ActorScope<*>.() -> Unit
+/**
+ * Writes the messages of an outbound channel to a call once it is ready to accept them, and completes
+ * the call once the channel has been closed and drained.
+ *
+ * A single coroutine drives both flow control and call completion. It only suspends while the call is
+ * not ready, or while it waits for the next message. Readiness and channel closing are delivered to it
+ * through one conflated signal, so a stream costs the same whether it is busy or idle.
+ *
+ * While the call stays ready, the writer yields to the dispatcher of the call each time it has written the
+ * [CallPriority.drainBudget] of the call. A fast producer then cannot hold a thread that other calls are waiting on.
+ * A call whose context has no dispatcher has nothing to yield to, so its writer never yields.
+ *
+ * Given an [idleTimeoutMillis], the writer of an [OutboundCallChannel] hibernates once nothing has been written for
+ * that long and the channel is empty. Its coroutine is cancelled and only launched again by the next readiness
+ * signal, send or close, so an idle stream holds no coroutine at all.
+ *
+ * @param onStallStarted Invoked when the stream stops accepting messages.
+ * @param onStall Invoked with the time, in nanoseconds, that buffered messages had
+ * to wait for the stream to become ready again.
+ * @param onError Invoked when the outbound channel is closed with an error.
+ * @param idleTimeoutMillis The time without writes after which the writer hibernates. Zero disables hibernation.
+ * @param onCompleted Invoked once the writer has stopped for good, after which nothing more is written to the call.
+ */
+internal class OutboundCallWriter<T>(
+    private val streamObserver: CallStreamObserver<T>,
+    private val targetChannel: Channel<T>,
+    private val onStallStarted: (() -> Unit)? = null,
+    private val onStall: ((Long) -> Unit)? = null,
+    private val onError: (Throwable) -> Unit = {},
+    idleTimeoutMillis: Long = 0L,
+    private val onCompleted: (() -> Unit)? = null
+) {
 
-internal inline fun <T> CoroutineScope.attachOutboundChannelCompletionHandler(
-    streamObserver: CallStreamObserver<T>,
-    targetChannel: Channel<T>,
-    crossinline onSuccess: () -> Unit = {},
-    crossinline onError: (Throwable) -> Unit = {}
-){
-    launch(start = CoroutineStart.UNDISPATCHED) {
-        val job = coroutineContext[Job]!!
-        try {
-            targetChannel.awaitCloseOrThrow()
-            onSuccess()
-        } catch (error: Throwable) {
-            if(!job.isCancelled){
-                streamObserver.completeSafely(error, convertError = streamObserver !is ClientCallStreamObserver)
+    private val isStallObserved = onStallStarted != null || onStall != null
+
+    private val isCompleted = AtomicBoolean()
+
+    /**
+     * Whether this writer has failed the call because its outbound channel was closed with an error.
+     */
+    @Volatile
+    var hasFailedCall = false
+        private set
+
+    // The writer only needs to know that it should check the
+    // state of the call again, so consecutive signals are coalesced
+    private val wakeSignal = Channel<Unit>(Channel.CONFLATED)
+
+    @Volatile
+    private lateinit var job: Job
+
+    private lateinit var scope: CoroutineScope
+
+    private var drainBudget = CallPriority.DEFAULT.drainBudget
+
+    private var callDispatcher: ContinuationInterceptor? = null
+
+    private val readiness = targetChannel as? OutboundCallChannel<T>
+
+    // Only an outbound call channel can wake a hibernating writer when a message is sent
+    private val idleTimeoutNanos =
+        if (readiness != null) TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis) else 0L
+
+    private val isHibernating = AtomicBoolean()
+
+    @Volatile
+    private var isClosed = false
+
+    @Volatile
+    private var lastActiveAt = 0L
+
+    private var stalledAt = 0L
+
+    internal fun start(scope: CoroutineScope): OutboundCallWriter<T> {
+        this.scope = scope
+        val callContext = scope.coroutineContext
+        callDispatcher = callContext[ContinuationInterceptor]
+        // Yielding to a dispatcher the call does not use would move the writer to other threads
+        drainBudget = if (callDispatcher != null)
+            (callContext[CallPriority] ?: CallPriority.DEFAULT).drainBudget else
+            Int.MAX_VALUE
+        readiness?.onWriterStarted(streamObserver, sendListener = if (idleTimeoutNanos > 0) ::resumeIfHibernating else null)
+        streamObserver.setOnReadyHandler {
+            readiness?.onReadinessChanged(streamObserver.isReady)
+            wake()
+        }
+        targetChannel.invokeOnClose { error ->
+            if (error != null) {
+                if (!isCancelled) {
+                    completeExceptionally(error)
+                }
+                onError(error)
             }
-            onError(error)
+            wake()
         }
+        launchWriter()
+        return this
     }
-}
 
-internal fun <T> CoroutineScope.applyOutboundFlowControl(
-    streamObserver: CallStreamObserver<T>,
-    targetChannel: Channel<T>
-): SendChannel<MessageHandler> {
-
-    val isCompleted = AtomicBoolean()
-    val channelIterator = targetChannel.iterator()
-    val messageHandlerBlock: MessageHandler = handler@{
-        try {
-            while (
-                streamObserver.isReady &&
-                channelIterator.hasNext()
-            ) {
-                streamObserver.onNext(channelIterator.next())
-            }
-        } catch (e: Throwable) {
-            // If the outbound channel is closed while we are suspended
-            // on `hasNext()`, then the close exception will be throw
-            // and need to be propagated to the call stream
-            if (targetChannel.isClosedForSend) {
-                // We cant convert our error before passing it to a 'client' stream observer
-                // because we will loose the cause when 'onError' cancels the underlying call.
-                // As for 'server' stream observers, we still need to convert the error before
-                // returning it to the client. Unfortunately checking the observer type is
-                // the only way we can do this in the current implementation.
-                streamObserver.completeSafely(e, convertError = streamObserver !is ClientCallStreamObserver)
-                isCompleted.set(true)
-            }
+    // The writer is cancelled once it has been closed, or once the scope of its call has been cancelled
+    private val isCancelled: Boolean
+        get() = isClosed || scope.coroutineContext[Job]?.isCancelled == true
+
+    private fun launchWriter() {
+        if (idleTimeoutNanos > 0) {
+            lastActiveAt = System.nanoTime()
+            scheduleIdleCheck(idleTimeoutNanos)
         }
-        if (targetChannel.isClosedForReceive &&
-            !coroutineContext[Job]!!.isCancelled &&
-            isCompleted.compareAndSet(false, true)
-        ) {
-            streamObserver.onCompleted()
-            channel.close()
+        val writerJob = scope.launch(Dispatchers.Unconfined, start = CoroutineStart.UNDISPATCHED) {
+            writeMessages(coroutineContext[Job]!!)
         }
+        job = writerJob
+        writerJob.invokeOnCompletion(::onWriterStopped)
     }
 
-    val messageHandlerActor = actor<MessageHandler>(
-        capacity = Channel.BUFFERED,
-        context = Dispatchers.Unconfined
-    ) {
-        try {
-            for (handler in channel) {
-                if (isCompleted.get()) break
-                handler(this)
+    private suspend fun writeMessages(writerJob: Job) {
+        val channelIterator = targetChannel.iterator()
+        // Nothing is written before the call has signalled readiness for the first time
+        while (!isCompleted.get() && !isClosed) {
+            wakeSignal.receive()
+            if (idleTimeoutNanos > 0) {
+                lastActiveAt = System.nanoTime()
             }
-            if (!isCompleted.get()) {
-                streamObserver.completeSafely()
+            try {
+                if (streamObserver.isReady) {
+                    if (stalledAt != 0L) {
+                        onStall?.invoke(System.nanoTime() - stalledAt)
+                        stalledAt = 0L
+                    }
+                    var written = 0
+                    while (streamObserver.isReady) {
+                        // Write everything already buffered in the outbound channel in a
+                        // single pass. We only suspend on the iterator once the buffer is empty.
+                        val message = targetChannel.poll()
+                            ?: if (channelIterator.hasNext()) channelIterator.next() else break
+
+                        streamObserver.onNext(message)
+
+                        if (idleTimeoutNanos > 0) {
+                            lastActiveAt = System.nanoTime()
+                        }
+                        if (++written == drainBudget) {
+                            // Switching to the dispatcher of the call queues the
+                            // writer behind the coroutines already waiting on it
+                            withContext(callDispatcher!!) {}
+                            written = 0
+                        }
+                    }
+                    if (!streamObserver.isReady) {
+                        readiness?.onReadinessChanged(false)
+                    }
+                } else if (targetChannel.isClosedForReceive) {
+                    // Surfaces the close cause, if there is one
+                    targetChannel.poll()
+                }
+
+                if (targetChannel.isClosedForReceive) {
+                    if (!writerJob.isCancelled && isCompleted.compareAndSet(false, true)) {
+                        streamObserver.onCompleted()
+                    }
+                    return
+                }
+
+                if (isStallObserved && stalledAt == 0L && !streamObserver.isReady) {
+                    stalledAt = System.nanoTime()
+                    onStallStarted?.invoke()
+                }
+            } catch (e: Throwable) {
+                // Cancelled calls are cleaned up by their cancellation handlers,
+                // and hibernating writers are launched again once they are woken
+                if (writerJob.isCancelled) return
+
+                // If the outbound channel is closed while we are suspended
+                // on `hasNext()`, then the close exception will be throw
+                // and need to be propagated to the call stream
+                if (targetChannel.isClosedForSend) {
+                    completeExceptionally(e)
+                    return
+                }
             }
-        }catch (e: Throwable){
-            channel.cancel()
         }
     }
 
-    streamObserver.setOnReadyHandler {
-        try {
-            if (!messageHandlerActor.isClosedForSend) {
-                messageHandlerActor.offer(messageHandlerBlock)
+    private fun wake() {
+        wakeSignal.offer(Unit)
+        if (!isClosed && isHibernating.compareAndSet(true, false)) {
+            launchWriter()
+        }
+    }
+
+    private fun resumeIfHibernating() {
+        if (isHibernating.get()) wake()
+    }
+
+    private fun scheduleIdleCheck(delayNanos: Long) {
+        IdleStreamTimer.schedule(delayNanos) { hibernateIfIdle() }
+    }
+
+    private fun hibernateIfIdle() {
+        if (isClosed || isCompleted.get() || !job.isActive) return
+
+        val idleNanos = System.nanoTime() - lastActiveAt
+        when {
+            idleNanos < idleTimeoutNanos -> scheduleIdleCheck(idleTimeoutNanos - idleNanos)
+            // Buffered messages are waiting on the call, which is not idle
+            !targetChannel.isEmpty -> scheduleIdleCheck(idleTimeoutNanos)
+            // Receiving from the outbound channel is cancelled atomically,
+            // so a message is never lost by cancelling the writer.
+            else -> job.cancel(HibernationException())
+        }
+    }
+
+    private fun onWriterStopped(cause: Throwable?) {
+        if (cause is HibernationException && !isClosed && !isCompleted.get()) {
+            isHibernating.set(true)
+            // Anything that happened while the writer was stopping wakes it straight away
+            val isWakePending = !wakeSignal.isEmpty || readiness?.hasActiveSends == true
+            if (isWakePending || !targetChannel.isEmpty || targetChannel.isClosedForReceive) {
+                wake()
             }
-        } catch (e: Throwable) {
-            // If offer throws an exception then it is
-            // either already closed or there was a failure
-            // which has already cleaned up call resources
+        } else {
+            onWriterCompleted()
+        }
+    }
+
+    private fun onWriterCompleted() {
+        readiness?.onWriterCompleted()
+        onCompleted?.invoke()
+    }
+
+    private fun completeExceptionally(error: Throwable) {
+        if (isCompleted.compareAndSet(false, true)) {
+            hasFailedCall = true
+            // We cant convert our error before passing it to a 'client' stream observer
+            // because we will loose the cause when 'onError' cancels the underlying call.
+            // As for 'server' stream observers, we still need to convert the error before
+            // returning it to the client. Unfortunately checking the observer type is
+            // the only way we can do this in the current implementation.
+            streamObserver.completeSafely(error, convertError = streamObserver !is ClientCallStreamObserver)
+        }
+    }
+
+    /**
+     * Stops writing to the call. Without a [cause] the stream is completed,
+     * unless the writer has already completed it.
+     */
+    fun close(cause: Throwable? = null) {
+        isClosed = true
+        if (cause == null && isCompleted.compareAndSet(false, true)) {
+            streamObserver.completeSafely()
+        }
+        job.cancel()
+        if (isHibernating.compareAndSet(true, false)) {
+            onWriterCompleted()
         }
     }
 
-    return messageHandlerActor
+    // Created for each hibernation, since the cancellation cause of a
+    // job is mutable and must not be shared between writers
+    private class HibernationException : CancellationException("Outbound writer hibernated while its stream was idle") {
+        override fun fillInStackTrace(): Throwable = this
+    }
 }
+
+internal fun <T> CoroutineScope.launchOutboundWriter(
+    streamObserver: CallStreamObserver<T>,
+    targetChannel: Channel<T>,
+    onStallStarted: (() -> Unit)? = null,
+    onStall: ((Long) -> Unit)? = null,
+    onError: (Throwable) -> Unit = {},
+    idleTimeoutMillis: Long = 0L,
+    onCompleted: (() -> Unit)? = null
+): OutboundCallWriter<T> =
+    OutboundCallWriter(streamObserver, targetChannel, onStallStarted, onStall, onError, idleTimeoutMillis, onCompleted)
+        .start(this)
@@ -33,19 +33,48 @@ internal interface FlowControlledInboundStreamObserver<T> : StreamObserver<T>, C
 
     val transientInboundMessageCount: AtomicInteger
 
+    val inboundRequestWindow: InboundRequestWindow
+
     val callStreamObserver: CallStreamObserver<*>
 
+    /**
+     * Parses the inbound messages of calls using a lazy marshaller. Created once the first of them is delivered.
+     */
+    var lazyMessageParser: LazyMessageParser<T>?
+
     val isChannelReadyForClose: Boolean
         get() = isInboundCompleted.get() && transientInboundMessageCount.get() == 0
 
+    /**
+     * Invoked after each message is delivered to the inbound channel, or parked
+     * waiting for room in it.
+     */
+    fun onInboundMessage(bufferedCount: Int, transientCount: Int) {}
+
     fun onNextWithBackPressure(value: T) {
-        transientInboundMessageCount.incrementAndGet()
+        // We need to drop messages that were received
+        // after the inbound channel was  prematurely
+        // closed. Usually done to signal a cancellation
+        if (inboundChannel.isClosedForSend) return
+
+        val bufferedCount = inboundRequestWindow.onMessageDelivered()
         when {
-            !inboundChannel.isClosedForSend && inboundChannel.offer(value) -> {
-                transientInboundMessageCount.decrementAndGet()
-                requestNextOrClose()
+            // Messages that have not been parsed yet are counted as transient,
+            // until they have been parsed and sent to the inbound channel.
+            value is LazyMessage<*> -> {
+                onInboundMessage(bufferedCount, transientInboundMessageCount.incrementAndGet())
+                val parser = lazyMessageParser ?: LazyMessageParser(this).also { lazyMessageParser = it }
+                parser.enqueue(value)
             }
-            !inboundChannel.isClosedForSend -> {
+
+            // The inbound channel can hold every message requested by
+            // the inbound window, so this only fails if the peer has
+            // sent more messages than it was asked for.
+            inboundChannel.offer(value) ->
+                onInboundMessage(bufferedCount, transientInboundMessageCount.get())
+
+            else -> {
+                onInboundMessage(bufferedCount, transientInboundMessageCount.incrementAndGet())
                 launch(context = Dispatchers.Unconfined) {
                     try {
                         inboundChannel.send(value)
@@ -54,24 +83,22 @@ internal interface FlowControlledInboundStreamObserver<T> : StreamObserver<T>, C
                     }
                 }.invokeOnCompletion {
                     transientInboundMessageCount.decrementAndGet()
-                    if (!inboundChannel.isClosedForReceive) {
-                        requestNextOrClose()
+                    if (isChannelReadyForClose) {
+                        inboundChannel.close()
                     }
                 }
             }
-            else -> {
-                // We need to drop messages that were received
-                // after the inbound channel was  prematurely
-                // closed. Usually done to signal a cancellation
-                transientInboundMessageCount.decrementAndGet()
-            }
         }
     }
 
-    fun requestNextOrClose() {
-        if (isChannelReadyForClose)
-            inboundChannel.close() else
-            callStreamObserver.request(1)
+    /**
+     * Closes the inbound channel with [error]. Messages that were buffered but not yet consumed are
+     * discarded, mirroring grpc-java, so that the error is surfaced to the consumer immediately.
+     */
+    fun closeInboundWithError(error: Throwable) {
+        inboundChannel.close(error)
+        // Once drained, polling a channel closed with a cause rethrows it
+        runCatching { while (inboundChannel.poll() != null) Unit }
     }
 
     override fun onCompleted() {
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * Schedules the idle checks of hibernating outbound writers.
+ *
+ * A writer only keeps one check scheduled at a time, and reschedules it for the remainder of its idle
+ * timeout whenever it has been active since. A busy stream is then checked about once per timeout,
+ * instead of every time its buffer runs empty.
+ */
+internal object IdleStreamTimer {
+
+    private val executor = ScheduledThreadPoolExecutor(1, ThreadFactory { runnable ->
+        Thread(runnable, "grpc-idle-stream-timer").apply { isDaemon = true }
+    })
+
+    fun schedule(delayNanos: Long, task: () -> Unit) {
+        executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS)
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import io.grpc.ClientCall
+import io.grpc.stub.CallStreamObserver
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ReceiveChannel
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Tracks the inbound messages requested from a call using a fixed size prefetch window.
+ *
+ * Credit is returned as messages are consumed from the inbound channel rather than as they are delivered
+ * to it. It is accumulated and requested from the transport in batches once three quarters of the window
+ * have been consumed. A window of size `1` results in a call to `request(1)` for every consumed message.
+ *
+ * Since the number of messages buffered plus the number still outstanding never exceeds [capacity],
+ * an inbound channel of that size can always accept a requested message without suspending.
+ */
+internal class InboundRequestWindow(
+    val prefetch: Int,
+    val capacity: Int = prefetch
+) {
+
+    init {
+        require(prefetch > 0) { "Inbound prefetch must be greater than zero, but was $prefetch" }
+    }
+
+    private val replenishThreshold = prefetch - (prefetch shr 2)
+
+    private val pendingCredit = AtomicInteger()
+
+    private val deliveredMessageCount = AtomicInteger()
+
+    // Credit returned before the observer of the call was bound
+    private val unrequestedCredit = AtomicInteger()
+
+    @Volatile
+    private var callStreamObserver: CallStreamObserver<*>? = null
+
+    /**
+     * Binds the observer of the call this window requests messages from.
+     * Credit returned before it was bound is requested straight away.
+     */
+    fun bind(callStreamObserver: CallStreamObserver<*>) {
+        this.callStreamObserver = callStreamObserver
+        requestUnrequestedCredit(callStreamObserver)
+    }
+
+    /**
+     * Requests the remainder of the initial window from a client [call]. grpc-java
+     * has already requested the first message by the time a streaming call is started.
+     */
+    fun requestInitial(call: ClientCall<*, *>) {
+        if (prefetch > 1) {
+            call.request(prefetch - 1)
+        }
+    }
+
+    /**
+     * Returns the credit for a single consumed message. Once enough credit has
+     * accumulated it is requested from the bound observer in a single batch.
+     */
+    fun onMessageConsumed() {
+        deliveredMessageCount.decrementAndGet()
+        val credit = returnCredit()
+        if (credit > 0) {
+            val observer = callStreamObserver
+            if (observer != null) {
+                observer.request(credit)
+            } else {
+                unrequestedCredit.addAndGet(credit)
+                // The observer may have been bound after we checked for it, but
+                // before the credit was added. It is then requested here instead.
+                callStreamObserver?.let { requestUnrequestedCredit(it) }
+            }
+        }
+    }
+
+    private fun requestUnrequestedCredit(observer: CallStreamObserver<*>) {
+        val credit = unrequestedCredit.getAndSet(0)
+        if (credit > 0) {
+            observer.request(credit)
+        }
+    }
+
+    /**
+     * Records a message delivered by the transport, returning the number of
+     * delivered messages that have not been consumed yet.
+     */
+    fun onMessageDelivered(): Int = deliveredMessageCount.incrementAndGet()
+
+    /**
+     * Returns the credit for a single consumed message, requesting it directly from [call]
+     * once enough has accumulated. Used by calls that are not driven through a stream observer.
+     */
+    fun onMessageConsumed(call: ClientCall<*, *>) {
+        val credit = returnCredit()
+        if (credit > 0) {
+            call.request(credit)
+        }
+    }
+
+    private fun returnCredit(): Int =
+        if (pendingCredit.incrementAndGet() >= replenishThreshold)
+            pendingCredit.getAndSet(0) else 0
+
+    /**
+     * Creates the channel used for buffering inbound messages, sized to hold every message requested by this window.
+     */
+    fun <T> newInboundChannel(): Channel<T> = Channel(capacity)
+
+    /**
+     * Wraps [channel] so that credit is returned to this window as each message is consumed.
+     */
+    fun <T> creditOnConsumption(channel: ReceiveChannel<T>): ReceiveChannel<T> =
+        CreditingReceiveChannel(channel, this)
+
+    companion object {
+
+        const val DEFAULT_PREFETCH = 1
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import io.grpc.MethodDescriptor
+import kotlinx.coroutines.launch
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * The serialized form of an inbound message, parsed only once it is about to be consumed.
+ */
+internal class LazyMessage<T>(
+    private val marshaller: MethodDescriptor.Marshaller<T>,
+    private val bytes: ByteArray
+) {
+
+    fun parse(): T = marshaller.parse(ByteArrayInputStream(bytes))
+
+    fun stream(): InputStream = ByteArrayInputStream(bytes)
+}
+
+/**
+ * A marshaller that copies the bytes of each inbound message instead of parsing it.
+ *
+ * The [LazyMessage] it returns stands in for a message of type [T] while it is handed through gRPC. It must
+ * only be used for the inbound messages of streaming calls, whose inbound channels parse it before it is consumed.
+ */
+internal class LazyParsingMarshaller<T>(
+    private val delegate: MethodDescriptor.Marshaller<T>
+) : MethodDescriptor.Marshaller<T> {
+
+    override fun stream(value: T): InputStream =
+        if (value is LazyMessage<*>) value.stream() else delegate.stream(value)
+
+    @Suppress("UNCHECKED_CAST")
+    override fun parse(stream: InputStream): T =
+        LazyMessage(delegate, stream.readBytes()) as T
+}
+
+internal fun <T> MethodDescriptor.Marshaller<T>.lazyParsing(): MethodDescriptor.Marshaller<T> =
+    this as? LazyParsingMarshaller ?: LazyParsingMarshaller(this)
+
+@Suppress("UNCHECKED_CAST")
+internal fun <T> T.parseIfLazy(): T =
+    if (this is LazyMessage<*>) parse() as T else this
+
+/**
+ * Parses the [LazyMessage]s delivered to [observer] and sends them to its inbound channel.
+ *
+ * Messages are parsed one at a time, in the order they were delivered, by a coroutine launched in the scope of
+ * the [observer]. That coroutine only runs while messages are pending, so parsing happens on the dispatcher
+ * of the call instead of the transport thread that delivered the message.
+ */
+internal class LazyMessageParser<T>(
+    private val observer: FlowControlledInboundStreamObserver<T>
+) {
+
+    private val pendingMessages = ConcurrentLinkedQueue<LazyMessage<*>>()
+
+    private val isParsing = AtomicBoolean()
+
+    /**
+     * Queues [message] for parsing. The caller is expected to count it as a transient
+     * inbound message, which is released once it has been sent to the inbound channel.
+     */
+    fun enqueue(message: LazyMessage<*>) {
+        pendingMessages.add(message)
+        if (isParsing.compareAndSet(false, true)) {
+            observer.launch { parseMessages() }
+        }
+    }
+
+    private suspend fun parseMessages() {
+        do {
+            while (true) {
+                val message = pendingMessages.poll() ?: break
+                sendParsed(message)
+            }
+            isParsing.set(false)
+            // A message can be queued after the queue was found empty, but before
+            // the flag was cleared. In that case no other parser will be launched.
+        } while (pendingMessages.isNotEmpty() && isParsing.compareAndSet(false, true))
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private suspend fun sendParsed(message: LazyMessage<*>) {
+        val inboundChannel = observer.inboundChannel
+        try {
+            if (!inboundChannel.isClosedForSend) {
+                inboundChannel.send(message.parse() as T)
+            }
+        } catch (e: Throwable) {
+            inboundChannel.close(e)
+        } finally {
+            observer.transientInboundMessageCount.decrementAndGet()
+            if (observer.isChannelReadyForClose) {
+                inboundChannel.close()
+            }
+        }
+    }
+}
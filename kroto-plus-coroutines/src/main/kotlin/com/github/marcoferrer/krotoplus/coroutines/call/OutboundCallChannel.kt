@@ -0,0 +1,264 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferPolicy
+import com.github.marcoferrer.krotoplus.coroutines.OutboundReadiness
+import io.grpc.MethodDescriptor
+import io.grpc.stub.CallStreamObserver
+import kotlinx.coroutines.DisposableHandle
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.FlowPreview
+import kotlinx.coroutines.InternalCoroutinesApi
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ChannelIterator
+import kotlinx.coroutines.channels.ConflatedBroadcastChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.ValueOrClosed
+import kotlinx.coroutines.channels.consume
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.selects.SelectClause1
+import kotlinx.coroutines.selects.SelectClause2
+import kotlinx.coroutines.selects.SelectInstance
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Creates the outbound channel of a call, buffering messages according to the receiver policy
+ * and exposing the readiness of the call to its producers.
+ */
+internal fun <T> CallBufferPolicy.newOutboundCallChannel(
+    marshaller: MethodDescriptor.Marshaller<T>
+): OutboundCallChannel<T> =
+    OutboundCallChannel(newOutboundChannel(marshaller), isConflated)
+
+/**
+ * An outbound channel that tracks the readiness of its call, as reported by the [OutboundCallWriter]
+ * draining it, along with the number of messages waiting to be written.
+ *
+ * Messages buffered by a [PolicyBufferedChannel] are counted by that channel, since it can drop them.
+ * A conflated channel holds at most one message. Any other channel only loses messages once it is
+ * cancelled, so they are counted here as they are sent and received.
+ *
+ * Every sending and receiving operation is covered, including iteration and select clauses,
+ * so that the count and the writer stay in sync however the channel is used.
+ */
+@UseExperimental(ExperimentalCoroutinesApi::class, FlowPreview::class, InternalCoroutinesApi::class)
+internal class OutboundCallChannel<E>(
+    private val delegate: Channel<E>,
+    private val isConflated: Boolean
+) : Channel<E> by delegate, OutboundReadiness {
+
+    private val isCountingMessages = !isConflated && delegate !is PolicyBufferedChannel<*>
+
+    private val pendingMessageCount = AtomicInteger()
+
+    private val readinessState = ConflatedBroadcastChannel(false)
+
+    @Volatile
+    private var streamObserver: CallStreamObserver<*>? = null
+
+    @Volatile
+    private var sendListener: (() -> Unit)? = null
+
+    private val activeSendCount = AtomicInteger()
+
+    override val isReady: Boolean
+        get() = streamObserver?.isReady == true && !readinessState.isClosedForSend
+
+    override val queueDepth: Int
+        get() = when {
+            delegate is PolicyBufferedChannel<*> -> delegate.bufferedMessageCount
+            isConflated -> if (delegate.isEmpty) 0 else 1
+            // A message handed directly to the writer can be received before its send is counted
+            else -> maxOf(pendingMessageCount.get(), 0)
+        }
+
+    override val readiness: Flow<Boolean>
+        get() = readinessState.asFlow().distinctUntilChanged()
+
+    override suspend fun awaitReady() {
+        if (isReady) return
+        readinessState.openSubscription().consume {
+            for (isReadyUpdate in this) {
+                if (isReadyUpdate && isReady) return
+            }
+        }
+    }
+
+    /**
+     * Binds the observer of the call once its writer has started. The writer is notified
+     * through [sendListener] of every message sent, which lets it wake from hibernation.
+     */
+    fun onWriterStarted(callStreamObserver: CallStreamObserver<*>, sendListener: (() -> Unit)? = null) {
+        streamObserver = callStreamObserver
+        this.sendListener = sendListener
+    }
+
+    /**
+     * Whether a producer is in the middle of a send.
+     * Only tracked while a send listener is bound.
+     */
+    val hasActiveSends: Boolean
+        get() = activeSendCount.get() > 0
+
+    /**
+     * Publishes the readiness of the call, if it has changed.
+     */
+    fun onReadinessChanged(isReady: Boolean) {
+        // The transport can still signal readiness after the writer has completed
+        synchronized(readinessState) {
+            if (!readinessState.isClosedForSend && readinessState.valueOrNull != isReady) {
+                readinessState.offer(isReady)
+            }
+        }
+    }
+
+    /**
+     * Completes the readiness of the call, releasing any producer waiting for it.
+     */
+    fun onWriterCompleted() {
+        synchronized(readinessState) {
+            readinessState.close()
+        }
+    }
+
+    // Both sending paths are tail calls, so this does not need a continuation of its own
+    override suspend fun send(element: E) {
+        val sendListener = sendListener ?: return sendCounted(element)
+        return sendNotifying(sendListener, element)
+    }
+
+    override fun offer(element: E): Boolean =
+        offerCounted(element).also { sendListener?.invoke() }
+
+    override val onSend: SelectClause2<E, SendChannel<E>>
+        get() = SendingSelectClause(delegate.onSend)
+
+    private suspend fun sendNotifying(sendListener: () -> Unit, element: E) {
+        // The send is counted before the listener is notified, so that a
+        // writer going into hibernation either sees it or is woken by it
+        activeSendCount.incrementAndGet()
+        try {
+            sendListener()
+            sendCounted(element)
+        } finally {
+            activeSendCount.decrementAndGet()
+        }
+    }
+
+    private suspend fun sendCounted(element: E) {
+        if (!isCountingMessages) return delegate.send(element)
+
+        pendingMessageCount.incrementAndGet()
+        try {
+            delegate.send(element)
+        } catch (e: Throwable) {
+            pendingMessageCount.decrementAndGet()
+            throw e
+        }
+    }
+
+    private fun offerCounted(element: E): Boolean {
+        if (!isCountingMessages) return delegate.offer(element)
+
+        pendingMessageCount.incrementAndGet()
+        try {
+            if (delegate.offer(element)) return true
+        } catch (e: Throwable) {
+            pendingMessageCount.decrementAndGet()
+            throw e
+        }
+        pendingMessageCount.decrementAndGet()
+        return false
+    }
+
+    override fun poll(): E? = delegate.poll()?.also { onReceived() }
+
+    override suspend fun receive(): E = delegate.receive().also { onReceived() }
+
+    override suspend fun receiveOrNull(): E? = delegate.receiveOrNull()?.also { onReceived() }
+
+    override suspend fun receiveOrClosed(): ValueOrClosed<E> =
+        delegate.receiveOrClosed().also { if (!it.isClosed) onReceived() }
+
+    override val onReceive: SelectClause1<E>
+        get() = ReceivingSelectClause(delegate.onReceive) { true }
+
+    override val onReceiveOrNull: SelectClause1<E?>
+        get() = ReceivingSelectClause(delegate.onReceiveOrNull) { it != null }
+
+    override val onReceiveOrClosed: SelectClause1<ValueOrClosed<E>>
+        get() = ReceivingSelectClause(delegate.onReceiveOrClosed) { !it.isClosed }
+
+    override fun iterator(): ChannelIterator<E> {
+        val iterator = delegate.iterator()
+        return object : ChannelIterator<E> {
+            override suspend fun hasNext(): Boolean = iterator.hasNext()
+            override fun next(): E = iterator.next().also { onReceived() }
+        }
+    }
+
+    private fun onReceived() {
+        if (isCountingMessages) pendingMessageCount.decrementAndGet()
+    }
+
+    private inner class SendingSelectClause(
+        private val clause: SelectClause2<E, SendChannel<E>>
+    ) : SelectClause2<E, SendChannel<E>> {
+
+        override fun <R> registerSelectClause2(select: SelectInstance<R>, param: E, block: suspend (SendChannel<E>) -> R) {
+            val sendListener = sendListener
+            if (sendListener != null) {
+                // As with send, the select counts as an active send until it completes,
+                // so that a writer going into hibernation meanwhile wakes straight away
+                activeSendCount.incrementAndGet()
+                select.disposeOnSelect(object : DisposableHandle {
+                    override fun dispose() {
+                        activeSendCount.decrementAndGet()
+                    }
+                })
+            }
+            clause.registerSelectClause2(select, param) {
+                // The message has already been handed over once the clause is selected. Like
+                // a message handed directly to the writer, it can be received before it is counted.
+                if (isCountingMessages) pendingMessageCount.incrementAndGet()
+                // A buffered message can land after the select stopped counting as an active
+                // send, so a writer that has just gone into hibernation is woken again
+                sendListener?.invoke()
+                block(this@OutboundCallChannel)
+            }
+            // A hibernating writer is only woken once the select is registered. It then takes the
+            // message from the waiting select rather than having the select resume its receive.
+            sendListener?.invoke()
+        }
+    }
+
+    private inner class ReceivingSelectClause<Q>(
+        private val clause: SelectClause1<Q>,
+        private val isElement: (Q) -> Boolean
+    ) : SelectClause1<Q> {
+
+        override fun <R> registerSelectClause1(select: SelectInstance<R>, block: suspend (Q) -> R) {
+            clause.registerSelectClause1(select) { value ->
+                if (isElement(value)) onReceived()
+                block(value)
+            }
+        }
+    }
+}
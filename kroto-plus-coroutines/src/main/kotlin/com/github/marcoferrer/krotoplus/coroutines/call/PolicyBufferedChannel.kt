@@ -0,0 +1,312 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferOverflow
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferPolicy
+import io.grpc.MethodDescriptor
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.DisposableHandle
+import kotlinx.coroutines.InternalCoroutinesApi
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.ChannelIterator
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.ValueOrClosed
+import kotlinx.coroutines.selects.SelectClause1
+import kotlinx.coroutines.selects.SelectClause2
+import kotlinx.coroutines.selects.SelectInstance
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.startCoroutine
+
+/**
+ * Creates the channel used for buffering the outbound messages of a call according to the receiver policy.
+ * The default policy results in a plain rendezvous channel, and a conflated policy in a plain conflated channel.
+ */
+internal fun <T> CallBufferPolicy.newOutboundChannel(marshaller: MethodDescriptor.Marshaller<T>): Channel<T> =
+    when {
+        onBufferOverflow == CallBufferOverflow.SUSPEND && !isByteBounded -> Channel(capacity)
+        isConflated -> Channel(Channel.CONFLATED)
+        else -> PolicyBufferedChannel(this, marshaller)
+    }
+
+/**
+ * A channel applying the overflow behavior and byte bound of a [CallBufferPolicy].
+ *
+ * The serialized size of each message is taken from the [InputStream.available][java.io.InputStream.available]
+ * value of its marshalled stream. For protobuf messages this is the memoized serialized size, so no
+ * serialization takes place until the message is written to the transport. The size is computed once,
+ * when the message is sent, and is buffered along with it so that receiving the message releases exactly
+ * the bytes that were reserved for it.
+ *
+ * Every receiving operation releases the bytes of the message it removes. The [onSend] clause applies the
+ * policy as well. Under a drop policy it is always selected straight away, dropping a message like [offer]
+ * does, while under the suspending policy it waits until the message fits within the byte bound.
+ */
+@UseExperimental(InternalCoroutinesApi::class)
+internal class PolicyBufferedChannel<E>(
+    private val policy: CallBufferPolicy,
+    private val marshaller: MethodDescriptor.Marshaller<E>
+) : Channel<E> {
+
+    private class BufferedMessage<E>(val element: E, val size: Long)
+
+    // A rendezvous buffer holds nothing that could be dropped,
+    // so drop policies always buffer at least one message.
+    private val delegate = Channel<BufferedMessage<E>>(
+        if (policy.onBufferOverflow == CallBufferOverflow.SUSPEND)
+            policy.capacity else maxOf(policy.capacity, 1)
+    )
+
+    private val bufferedBytes = AtomicLong()
+
+    private val bufferedMessages = AtomicInteger()
+
+    /**
+     * The number of messages sent to this channel that have yet to be received.
+     */
+    val bufferedMessageCount: Int
+        get() = bufferedMessages.get()
+
+    private val drainSignal = Channel<Unit>(Channel.CONFLATED)
+
+    override val isClosedForSend: Boolean
+        get() = delegate.isClosedForSend
+
+    @Suppress("OverridingDeprecatedMember", "DEPRECATION_ERROR")
+    override val isFull: Boolean
+        get() = delegate.isFull
+
+    override val isClosedForReceive: Boolean
+        get() = delegate.isClosedForReceive
+
+    override val isEmpty: Boolean
+        get() = delegate.isEmpty
+
+    override suspend fun send(element: E) {
+        if (policy.onBufferOverflow != CallBufferOverflow.SUSPEND) {
+            offer(element)
+            return
+        }
+
+        val message = BufferedMessage(element, sizeOf(element))
+        while (!tryReserve(message.size)) {
+            // Once the channel is closed we let the
+            // delegate surface the appropriate exception
+            if (delegate.isClosedForSend) return delegate.send(message)
+            drainSignal.receive()
+        }
+
+        try {
+            delegate.send(message)
+        } catch (e: Throwable) {
+            unreserve(message.size)
+            throw e
+        }
+    }
+
+    override fun offer(element: E): Boolean {
+        val message = BufferedMessage(element, sizeOf(element))
+        return when (policy.onBufferOverflow) {
+            CallBufferOverflow.SUSPEND -> enqueue(message)
+            CallBufferOverflow.DROP_LATEST -> {
+                enqueue(message)
+                true
+            }
+            CallBufferOverflow.DROP_OLDEST -> {
+                while (!enqueue(message)) {
+                    // Polling releases the bytes of the dropped message.
+                    // If there is nothing left to drop, the new message is dropped instead.
+                    poll() ?: break
+                }
+                true
+            }
+        }
+    }
+
+    override val onSend: SelectClause2<E, SendChannel<E>>
+        get() = ReservingSelectClause()
+
+    override fun poll(): E? = delegate.poll()?.let { onDequeued(it) }
+
+    override suspend fun receive(): E = onDequeued(delegate.receive())
+
+    override suspend fun receiveOrNull(): E? = delegate.receiveOrNull()?.let { onDequeued(it) }
+
+    override suspend fun receiveOrClosed(): ValueOrClosed<E> = delegate.receiveOrClosed().dequeued()
+
+    override fun iterator(): ChannelIterator<E> {
+        val iterator = delegate.iterator()
+        return object : ChannelIterator<E> {
+            override suspend fun hasNext(): Boolean = iterator.hasNext()
+            override fun next(): E = onDequeued(iterator.next())
+        }
+    }
+
+    override val onReceive: SelectClause1<E>
+        get() = DequeuingSelectClause(delegate.onReceive) { onDequeued(it) }
+
+    override val onReceiveOrNull: SelectClause1<E?>
+        get() = DequeuingSelectClause(delegate.onReceiveOrNull) { it?.let { message -> onDequeued(message) } }
+
+    override val onReceiveOrClosed: SelectClause1<ValueOrClosed<E>>
+        get() = DequeuingOrClosedSelectClause()
+
+    override fun invokeOnClose(handler: (cause: Throwable?) -> Unit) = delegate.invokeOnClose(handler)
+
+    // Closing wakes a suspended sender. Its failed send releases
+    // its reservation, which in turn wakes the next sender.
+    override fun close(cause: Throwable?): Boolean =
+        delegate.close(cause).also { drainSignal.offer(Unit) }
+
+    override fun cancel(cause: CancellationException?) {
+        delegate.cancel(cause)
+        drainSignal.offer(Unit)
+    }
+
+    @Deprecated(level = DeprecationLevel.HIDDEN, message = "Since 1.2.0, binary compatibility with versions <= 1.1.x")
+    override fun cancel(cause: Throwable?): Boolean {
+        cancel(cause as? CancellationException ?: CancellationException(cause?.message).apply { initCause(cause) })
+        return true
+    }
+
+    private fun sizeOf(element: E): Long =
+        if (policy.isByteBounded) marshaller.stream(element).available().toLong() else 0L
+
+    /**
+     * Reserves room for a message of [size] bytes, unless doing so would exceed the byte bound.
+     * A message larger than the bound is still admitted into an empty buffer.
+     */
+    private fun tryReserve(size: Long): Boolean {
+        if (policy.isByteBounded) {
+            while (true) {
+                val buffered = bufferedBytes.get()
+                if (buffered != 0L && buffered + size > policy.maxBufferedBytes) return false
+                if (bufferedBytes.compareAndSet(buffered, buffered + size)) break
+            }
+        }
+        bufferedMessages.incrementAndGet()
+        return true
+    }
+
+    /**
+     * Reserves room for a message of [size] bytes regardless of the byte bound.
+     */
+    private fun reserve(size: Long) {
+        if (size > 0) {
+            bufferedBytes.addAndGet(size)
+        }
+        bufferedMessages.incrementAndGet()
+    }
+
+    private fun enqueue(message: BufferedMessage<E>): Boolean {
+        if (!tryReserve(message.size)) return false
+        try {
+            if (delegate.offer(message)) return true
+        } catch (e: Throwable) {
+            unreserve(message.size)
+            throw e
+        }
+        unreserve(message.size)
+        return false
+    }
+
+    private fun onDequeued(message: BufferedMessage<E>): E {
+        unreserve(message.size)
+        return message.element
+    }
+
+    // Only the coroutines library can create a ValueOrClosed
+    @Suppress("INVISIBLE_MEMBER", "INVISIBLE_REFERENCE")
+    private fun ValueOrClosed<BufferedMessage<E>>.dequeued(): ValueOrClosed<E> =
+        if (isClosed) ValueOrClosed.closed(closeCause) else ValueOrClosed.value(onDequeued(value))
+
+    private fun unreserve(size: Long) {
+        bufferedMessages.decrementAndGet()
+        if (size > 0) {
+            bufferedBytes.addAndGet(-size)
+            drainSignal.offer(Unit)
+        }
+    }
+
+    /**
+     * Registers on the onSend clause of the delegate once room has been reserved for the message. A select does
+     * not tell its clauses which of them was selected, so the reservation is given back once the select completes,
+     * and taken again by the block of this clause if it was the one selected.
+     */
+    private inner class ReservingSelectClause : SelectClause2<E, SendChannel<E>> {
+
+        override fun <R> registerSelectClause2(select: SelectInstance<R>, param: E, block: suspend (SendChannel<E>) -> R) {
+            if (select.isSelected) return
+
+            if (policy.onBufferOverflow != CallBufferOverflow.SUSPEND) {
+                // Sending never suspends under a drop policy
+                if (select.trySelect()) {
+                    offer(param)
+                    block.startCoroutine(this@PolicyBufferedChannel, select.completion)
+                }
+                return
+            }
+
+            val message = BufferedMessage(param, sizeOf(param))
+            if (!tryReserve(message.size)) {
+                // Once the channel is closed we let the
+                // delegate surface the appropriate exception
+                if (delegate.isClosedForSend) {
+                    delegate.onSend.registerSelectClause2(select, message) { block(this@PolicyBufferedChannel) }
+                    return
+                }
+                // Waits for received messages to release their bytes. Once selected,
+                // the send can still suspend if another sender has taken the room first.
+                drainSignal.onReceive.registerSelectClause1(select) {
+                    send(param)
+                    block(this@PolicyBufferedChannel)
+                }
+                return
+            }
+
+            select.disposeOnSelect(object : DisposableHandle {
+                override fun dispose() {
+                    unreserve(message.size)
+                }
+            })
+            delegate.onSend.registerSelectClause2(select, message) {
+                reserve(message.size)
+                block(this@PolicyBufferedChannel)
+            }
+        }
+    }
+
+    // Passing a ValueOrClosed through a generic lambda loses its boxing, so
+    // unlike the other receiving clauses this one does not take a mapping.
+    private inner class DequeuingOrClosedSelectClause : SelectClause1<ValueOrClosed<E>> {
+
+        override fun <R> registerSelectClause1(select: SelectInstance<R>, block: suspend (ValueOrClosed<E>) -> R) {
+            delegate.onReceiveOrClosed.registerSelectClause1(select) { result -> block(result.dequeued()) }
+        }
+    }
+
+    private inner class DequeuingSelectClause<Q, R>(
+        private val clause: SelectClause1<Q>,
+        private val dequeue: (Q) -> R
+    ) : SelectClause1<R> {
+
+        override fun <T> registerSelectClause1(select: SelectInstance<T>, block: suspend (R) -> T) {
+            clause.registerSelectClause1(select) { value -> block(dequeue(value)) }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.client
+
+import io.grpc.ClientCall
+import io.grpc.Metadata
+import io.grpc.Status
+import kotlinx.coroutines.channels.SendChannel
+
+/**
+ * A [ClientCall.Listener] which submits response messages directly to [inboundChannel] and
+ * closes it once the call has completed. The channel is closed with a [io.grpc.StatusRuntimeException]
+ * if the call does not complete successfully.
+ *
+ * The listener never suspends, so [inboundChannel] must be able to hold every message requested from the call.
+ */
+internal class ChannelResponseListener<RespT>(
+    private val inboundChannel: SendChannel<RespT>
+) : ClientCall.Listener<RespT>() {
+
+    val isCallClosed: Boolean
+        get() = inboundChannel.isClosedForSend
+
+    override fun onMessage(message: RespT) {
+        inboundChannel.offer(message)
+    }
+
+    override fun onClose(status: Status, trailers: Metadata) {
+        if (status.isOk) {
+            inboundChannel.close()
+        } else {
+            inboundChannel.close(status.asRuntimeException(trailers))
+        }
+    }
+}
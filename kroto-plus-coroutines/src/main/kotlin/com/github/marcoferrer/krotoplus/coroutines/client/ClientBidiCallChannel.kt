@@ -17,9 +17,9 @@
 package com.github.marcoferrer.krotoplus.coroutines.client
 
 import com.github.marcoferrer.krotoplus.coroutines.call.FlowControlledInboundStreamObserver
-import com.github.marcoferrer.krotoplus.coroutines.call.MessageHandler
-import com.github.marcoferrer.krotoplus.coroutines.call.applyOutboundFlowControl
-import com.github.marcoferrer.krotoplus.coroutines.call.attachOutboundChannelCompletionHandler
+import com.github.marcoferrer.krotoplus.coroutines.call.InboundRequestWindow
+import com.github.marcoferrer.krotoplus.coroutines.call.LazyMessageParser
+import com.github.marcoferrer.krotoplus.coroutines.call.OutboundCallWriter
 import io.grpc.Status
 import io.grpc.stub.ClientCallStreamObserver
 import io.grpc.stub.ClientResponseObserver
@@ -42,9 +42,14 @@ import kotlin.coroutines.CoroutineContext
  * messages, or the call becomes cancelled.
  *
  * The client will consume responses from the server via this channel. For every message consumed, the client
- * will signal to the server that it is ready to receive another message. This channel will buffer at most one message
- * before signaling to the server that it is not ready to receive any additional messages. This will cause the
- * server implementation to suspend on attempts to send.
+ * will signal to the server that it is ready to receive another message. By default this channel will buffer at most
+ * one message before signaling to the server that it is not ready to receive any additional messages. This will cause
+ * the server implementation to suspend on attempts to send. A larger window can be configured with
+ * [com.github.marcoferrer.krotoplus.coroutines.withInboundPrefetch].
+ *
+ * When the server fails the call, its error is surfaced on the next receive and any responses that have not been
+ * consumed yet are discarded, whether or not the request channel was closed. When the client cancels the call, by
+ * closing the request channel with an error or by cancelling its scope, responses received so far remain consumable.
  *
  * Example:
  * ```
@@ -82,37 +87,37 @@ public interface ClientBidiCallChannel<ReqT, RespT> : SendChannel<ReqT>, Receive
 
 internal class ClientBidiCallChannelImpl<ReqT,RespT>(
     override val coroutineContext: CoroutineContext,
-    override val inboundChannel: Channel<RespT> = Channel(),
-    private val outboundChannel: Channel<ReqT> = Channel()
+    override val inboundRequestWindow: InboundRequestWindow = InboundRequestWindow(InboundRequestWindow.DEFAULT_PREFETCH),
+    override val inboundChannel: Channel<RespT> = inboundRequestWindow.newInboundChannel(),
+    private val outboundChannel: Channel<ReqT> = Channel(),
+    override val responseChannel: ReceiveChannel<RespT> = inboundRequestWindow.creditOnConsumption(inboundChannel),
+    private val callListener: ClientCallListener = ClientCallListener.NONE
 ) : FlowControlledInboundStreamObserver<RespT>,
     ClientResponseObserver<ReqT, RespT>,
     ClientBidiCallChannel<ReqT, RespT>,
     SendChannel<ReqT> by outboundChannel,
-    ReceiveChannel<RespT> by inboundChannel
+    ReceiveChannel<RespT> by responseChannel
 {
     override val requestChannel: SendChannel<ReqT>
         get() = outboundChannel
 
-    override val responseChannel: ReceiveChannel<RespT>
-        get() = inboundChannel
-
     override val isInboundCompleted = AtomicBoolean()
 
     private var aborted: Boolean = false
 
     override val transientInboundMessageCount: AtomicInteger = AtomicInteger()
 
+    override var lazyMessageParser: LazyMessageParser<RespT>? = null
+
     override lateinit var callStreamObserver: ClientCallStreamObserver<ReqT>
 
-    private lateinit var outboundMessageHandler: SendChannel<MessageHandler>
+    private lateinit var outboundCallWriter: OutboundCallWriter<ReqT>
 
     override fun beforeStart(requestStream: ClientCallStreamObserver<ReqT>) {
         callStreamObserver = requestStream.apply { disableAutoInboundFlowControl() }
-        outboundMessageHandler = applyOutboundFlowControl(requestStream,outboundChannel)
-
-        attachOutboundChannelCompletionHandler(
-            callStreamObserver, outboundChannel,
-            onSuccess = { outboundMessageHandler.close() },
+        inboundRequestWindow.bind(requestStream)
+        outboundCallWriter = launchOutboundWriter(
+            requestStream, outboundChannel, callListener,
             onError = { error -> inboundChannel.close(error) }
         )
 
@@ -130,18 +135,30 @@ internal class ClientBidiCallChannelImpl<ReqT,RespT>(
 
     override fun onNext(value: RespT): Unit = onNextWithBackPressure(value)
 
+    override fun onInboundMessage(bufferedCount: Int, transientCount: Int) {
+        callListener.onResponseBuffered(bufferedCount)
+    }
+
     override fun onError(t: Throwable) {
         aborted = true
+        // Which responses survive depends only on where the failure originated, never on
+        // whether the request stream was half closed. When the client cancelled the call,
+        // either by closing the request channel with an error or by cancelling its scope,
+        // responses received so far remain consumable. An error delivered by the server
+        // takes precedence over responses that have not been consumed yet.
+        val isLocalFailure = outboundCallWriter.hasFailedCall || coroutineContext[Job]?.isCancelled == true
         outboundChannel.close(t)
         outboundChannel.cancel(CancellationException(t.message,t))
-        inboundChannel.close(t)
-        outboundMessageHandler.close(t)
+        if (isLocalFailure)
+            inboundChannel.close(t) else
+            closeInboundWithError(t)
+        outboundCallWriter.close(t)
     }
 
     override fun onCompleted() {
         super.onCompleted()
         if (isChannelReadyForClose) {
-            outboundMessageHandler.close()
+            outboundCallWriter.close()
         }
     }
 }
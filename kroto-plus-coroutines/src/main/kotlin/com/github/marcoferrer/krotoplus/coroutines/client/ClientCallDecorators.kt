@@ -16,8 +16,16 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.client
 
+import com.github.marcoferrer.krotoplus.coroutines.call.OutboundCallWriter
+import com.github.marcoferrer.krotoplus.coroutines.call.launchOutboundWriter
 import io.grpc.ClientCall
 import io.grpc.ForwardingClientCall
+import io.grpc.ForwardingClientCallListener
+import io.grpc.Metadata
+import io.grpc.Status
+import io.grpc.stub.CallStreamObserver
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
 
 internal inline fun <ReqT, RespT, C : ClientCall<ReqT, RespT>> C.beforeCancellation(
     crossinline block: C.(message: String?, cause: Throwable?) -> Unit
@@ -28,4 +36,74 @@ internal inline fun <ReqT, RespT, C : ClientCall<ReqT, RespT>> C.beforeCancellat
             super.cancel(message, cause)
         }
     }
-}
\ No newline at end of file
+}
+
+/**
+ * Reports the lifecycle of the receiver call to [callListener]. The call is returned as is when
+ * [callListener] is [ClientCallListener.NONE].
+ */
+internal fun <ReqT, RespT> ClientCall<ReqT, RespT>.withCallListener(
+    callListener: ClientCallListener
+): ClientCall<ReqT, RespT> {
+    if (callListener === ClientCallListener.NONE) return this
+
+    return object : ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(this) {
+
+        // Calls to sendMessage are serialized by the caller, but not always made from the same thread
+        @Volatile
+        private var isRequestSent = false
+
+        override fun start(responseListener: Listener<RespT>, headers: Metadata) {
+            callListener.onCallStarted()
+            super.start(responseListener.withCallListener(callListener), headers)
+        }
+
+        override fun sendMessage(message: ReqT) {
+            if (!isRequestSent) {
+                isRequestSent = true
+                callListener.onFirstRequestSent()
+            }
+            super.sendMessage(message)
+        }
+    }
+}
+
+private fun <RespT> ClientCall.Listener<RespT>.withCallListener(
+    callListener: ClientCallListener
+): ClientCall.Listener<RespT> =
+    object : ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(this) {
+
+        // Listener callbacks are serialized by the transport
+        private var isResponseReceived = false
+
+        override fun onMessage(message: RespT) {
+            if (!isResponseReceived) {
+                isResponseReceived = true
+                callListener.onFirstResponse()
+            }
+            super.onMessage(message)
+        }
+
+        override fun onClose(status: Status, trailers: Metadata) {
+            callListener.onCallClosed(status)
+            super.onClose(status, trailers)
+        }
+    }
+
+/**
+ * Launches the outbound writer of a client call, reporting its stalls to [callListener].
+ */
+internal fun <T> CoroutineScope.launchOutboundWriter(
+    streamObserver: CallStreamObserver<T>,
+    targetChannel: Channel<T>,
+    callListener: ClientCallListener,
+    onError: (Throwable) -> Unit = {}
+): OutboundCallWriter<T> =
+    if (callListener === ClientCallListener.NONE)
+        launchOutboundWriter(streamObserver, targetChannel, onError = onError) else
+        launchOutboundWriter(
+            streamObserver, targetChannel,
+            onStallStarted = callListener::onOutboundStalled,
+            onStall = callListener::onOutboundResumed,
+            onError = onError
+        )
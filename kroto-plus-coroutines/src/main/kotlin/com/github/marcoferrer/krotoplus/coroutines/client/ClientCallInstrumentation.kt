@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.client
+
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+
+/**
+ * Service provider interface for observing the coroutine layer of outgoing rpcs. Instrumentation is attached
+ * to a stub with [com.github.marcoferrer.krotoplus.coroutines.withCallInstrumentation], and a new
+ * [ClientCallListener] is created for every call made with it.
+ *
+ * Implementations are invoked from transport and coroutine threads alike, so they must be thread safe and
+ * should never block.
+ *
+ * @see InMemoryClientCallInstrumentation
+ */
+public interface ClientCallInstrumentation {
+
+    /**
+     * Invoked once for every call, before it is started.
+     */
+    fun newCallListener(methodDescriptor: MethodDescriptor<*, *>): ClientCallListener
+
+    public companion object {
+
+        /**
+         * Instrumentation that records nothing. This is the default for every stub.
+         */
+        @JvmField
+        public val NONE: ClientCallInstrumentation = object : ClientCallInstrumentation {
+            override fun newCallListener(methodDescriptor: MethodDescriptor<*, *>): ClientCallListener =
+                ClientCallListener.NONE
+        }
+    }
+}
+
+/**
+ * Receives the events of a single client call.
+ */
+public interface ClientCallListener {
+
+    /**
+     * Invoked when the call is started on the transport.
+     */
+    fun onCallStarted() {}
+
+    /**
+     * Invoked when the first request message is handed to the transport.
+     */
+    fun onFirstRequestSent() {}
+
+    /**
+     * Invoked when the first response message is received from the transport.
+     */
+    fun onFirstResponse() {}
+
+    /**
+     * Invoked after a response message of a streaming call has been buffered for consumption.
+     *
+     * @param bufferedCount The number of messages received but not yet consumed, including this one.
+     */
+    fun onResponseBuffered(bufferedCount: Int) {}
+
+    /**
+     * Invoked when the outbound writer of the call stalls, because the transport is not ready to accept
+     * the messages waiting to be written. Senders are not necessarily suspended, since they only suspend
+     * once the outbound buffer of the call is full.
+     */
+    fun onOutboundStalled() {}
+
+    /**
+     * Invoked when the transport becomes ready again after [onOutboundStalled].
+     *
+     * @param stalledNanos The time the outbound writer spent waiting for the call to become ready, in nanoseconds.
+     */
+    fun onOutboundResumed(stalledNanos: Long) {}
+
+    /**
+     * Invoked once the call has been closed by the transport.
+     */
+    fun onCallClosed(status: Status) {}
+
+    public companion object {
+
+        /**
+         * A listener that ignores every event.
+         */
+        @JvmField
+        public val NONE: ClientCallListener = object : ClientCallListener {}
+    }
+}
@@ -16,11 +16,20 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.client
 
+import com.github.marcoferrer.krotoplus.coroutines.CALL_OPTION_BUFFER_POLICY
+import com.github.marcoferrer.krotoplus.coroutines.CALL_OPTION_CALL_INSTRUMENTATION
+import com.github.marcoferrer.krotoplus.coroutines.CALL_OPTION_CALL_PRIORITY
 import com.github.marcoferrer.krotoplus.coroutines.CALL_OPTION_COROUTINE_CONTEXT
+import com.github.marcoferrer.krotoplus.coroutines.CALL_OPTION_INBOUND_PREFETCH
+import com.github.marcoferrer.krotoplus.coroutines.call.InboundRequestWindow
 import com.github.marcoferrer.krotoplus.coroutines.call.bindScopeCancellationToCall
+import com.github.marcoferrer.krotoplus.coroutines.call.newOutboundCallChannel
 import com.github.marcoferrer.krotoplus.coroutines.call.newRpcScope
+import com.github.marcoferrer.krotoplus.coroutines.call.parseIfLazy
+import com.github.marcoferrer.krotoplus.coroutines.withCallDeadline
 import com.github.marcoferrer.krotoplus.coroutines.withCoroutineContext
 import io.grpc.CallOptions
+import io.grpc.Metadata
 import io.grpc.MethodDescriptor
 import io.grpc.Status
 import io.grpc.stub.AbstractStub
@@ -32,19 +41,23 @@ import io.grpc.stub.ClientCalls.asyncUnaryCall
 import io.grpc.stub.ClientResponseObserver
 import kotlinx.coroutines.CancellableContinuation
 import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ProducerScope
 import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.callbackFlow
 import kotlinx.coroutines.flow.emitAll
 import kotlinx.coroutines.flow.flow
-import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.produceIn
 import kotlinx.coroutines.suspendCancellableCoroutine
 import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
 
@@ -81,8 +94,9 @@ public suspend fun <ReqT, RespT> clientCallUnary(
 ): RespT = suspendCancellableCoroutine { cont: CancellableContinuation<RespT> ->
 
     val initialContext = cont.context + callOptions.getOption(CALL_OPTION_COROUTINE_CONTEXT)
-    with(newRpcScope(initialContext, method)) {
-        val call = channel.newCall(method, callOptions.withCoroutineContext(coroutineContext))
+    with(callOptions.newPrioritizedRpcScope(initialContext, method)) {
+        val call = channel.newCall(method, callOptions.withRpcContext(coroutineContext))
+            .withCallListener(callOptions.newCallListener(method))
         asyncUnaryCall<ReqT, RespT>(call, request, SuspendingUnaryObserver(cont))
         cont.invokeOnCancellation { call.cancel(it?.message, it) }
         bindScopeCancellationToCall(call)
@@ -121,13 +135,16 @@ public fun <ReqT, RespT> clientCallServerStreaming(
     callOptions: CallOptions = CallOptions.DEFAULT
 ): ReceiveChannel<RespT> {
 
-    val observerAdapter = ResponseObserverChannelAdapter<ReqT, RespT>()
-    val rpcScope = newRpcScope(callOptions.getOption(CALL_OPTION_COROUTINE_CONTEXT), method)
+    val inboundRequestWindow = InboundRequestWindow(callOptions.getOption(CALL_OPTION_INBOUND_PREFETCH))
+    val callListener = callOptions.newCallListener(method)
+    val observerAdapter = ResponseObserverChannelAdapter<ReqT, RespT>(inboundRequestWindow, callListener)
+    val rpcScope = callOptions.newPrioritizedRpcScope(callOptions.getOption(CALL_OPTION_COROUTINE_CONTEXT), method)
     val responseFlow = callbackFlow<RespT> flow@ {
         observerAdapter.scope = this
 
         val call = grpcChannel
-            .newCall(method, callOptions.withCoroutineContext(coroutineContext))
+            .newCall(method, callOptions.withRpcContext(coroutineContext))
+            .withCallListener(callListener)
             .beforeCancellation { message, cause ->
                 observerAdapter.beforeCallCancellation(message, cause)
             }
@@ -136,6 +153,7 @@ public fun <ReqT, RespT> clientCallServerStreaming(
 
         // Start the RPC Call
         asyncServerStreamingCall<ReqT, RespT>(call, request, observerAdapter)
+        inboundRequestWindow.requestInitial(call)
 
         // If our parent job is cancelled before we can
         // start the call then we need to propagate the
@@ -169,13 +187,14 @@ public fun <ReqT, RespT> clientCallServerStreaming(
 
     // Use buffer UNLIMITED so that we dont drop any inbound messages
     return flow { emitAll(responseFlow.buffer(Channel.UNLIMITED)) }
-        .onEach {
+        .map { message ->
             if(observerAdapter.isActive){
-                observerAdapter.callStreamObserver.request(1)
+                inboundRequestWindow.onMessageConsumed()
             }
+            message.parseIfLazy()
         }
         // We use buffer RENDEZVOUS on the outer flow so that our
-        // `onEach` operator is only invoked each time a message is
+        // `map` operator is only invoked each time a message is
         // collected instead of each time a message is received from
         // from the underlying call.
         .buffer(Channel.RENDEZVOUS)
@@ -183,6 +202,61 @@ public fun <ReqT, RespT> clientCallServerStreaming(
 
 }
 
+/**
+ * Executes a server streaming rpc call using the [io.grpc.Channel] and [io.grpc.CallOptions] attached to the
+ * receiver [AbstractStub], exposing its responses as a cold [Flow].
+ *
+ * A new call is started each time the resulting flow is collected, and its lifecycle is bound to the collector.
+ * Response messages are handed to the collector as they are emitted, with no intermediate producer coroutine.
+ * Messages are only requested from the transport as the collector consumes them, in batches sized by the inbound
+ * prefetch configured with [com.github.marcoferrer.krotoplus.coroutines.withInboundPrefetch].
+ *
+ * In the event of the server returning an [error][io.grpc.StatusRuntimeException], it will be thrown from the
+ * collecting coroutine. If the collector is cancelled, or stops collecting before the call has completed,
+ * the call is cancelled with a status code of [io.grpc.Status.CANCELLED].
+ *
+ */
+public fun <ReqT, RespT, T : AbstractStub<T>> T.clientCallServerStreamingFlow(
+    request: ReqT,
+    method: MethodDescriptor<ReqT, RespT>
+): Flow<RespT> =
+    clientCallServerStreamingFlow(request, method, channel, callOptions)
+
+public fun <ReqT, RespT> clientCallServerStreamingFlow(
+    request: ReqT,
+    method: MethodDescriptor<ReqT, RespT>,
+    grpcChannel: io.grpc.Channel,
+    callOptions: CallOptions = CallOptions.DEFAULT
+): Flow<RespT> = flow {
+
+    val inboundRequestWindow = InboundRequestWindow(callOptions.getOption(CALL_OPTION_INBOUND_PREFETCH))
+    // The window bounds how many messages are buffered for a well behaved transport. An unlimited
+    // channel only allocates for messages actually buffered, and never drops one delivered in excess.
+    val inboundChannel = Channel<RespT>(Channel.UNLIMITED)
+    val listener = ChannelResponseListener(inboundChannel)
+    val call = grpcChannel.newCall(method, callOptions.withRpcContext(coroutineContext))
+        .withCallListener(callOptions.newCallListener(method))
+
+    try {
+        call.start(listener, Metadata())
+        call.sendMessage(request)
+        call.halfClose()
+        call.request(inboundRequestWindow.prefetch)
+
+        for (message in inboundChannel) {
+            emit(message.parseIfLazy())
+            if (!listener.isCallClosed) {
+                inboundRequestWindow.onMessageConsumed(call)
+            }
+        }
+    } catch (e: Throwable) {
+        if (!listener.isCallClosed) {
+            call.cancel(MESSAGE_CLIENT_CANCELLED_CALL, e)
+        }
+        throw e
+    }
+}
+
 public fun <ReqT, RespT, T : AbstractStub<T>> T.clientCallBidiStreaming(
     method: MethodDescriptor<ReqT, RespT>
 ): ClientBidiCallChannel<ReqT, RespT> =
@@ -195,11 +269,21 @@ public fun <ReqT, RespT> clientCallBidiStreaming(
 ): ClientBidiCallChannel<ReqT, RespT> {
 
     val initialContext = callOptions.getOption(CALL_OPTION_COROUTINE_CONTEXT)
-    with(newRpcScope(initialContext, method)) {
+    with(callOptions.newPrioritizedRpcScope(initialContext, method)) {
 
-        val call = channel.newCall(method, callOptions.withCoroutineContext(coroutineContext))
-        val callChannel = ClientBidiCallChannelImpl<ReqT, RespT>(coroutineContext)
+        val callListener = callOptions.newCallListener(method)
+        val call = channel.newCall(method, callOptions.withRpcContext(coroutineContext))
+            .withCallListener(callListener)
+        val inboundRequestWindow = InboundRequestWindow(callOptions.getOption(CALL_OPTION_INBOUND_PREFETCH))
+        val callChannel = ClientBidiCallChannelImpl<ReqT, RespT>(
+            coroutineContext = coroutineContext,
+            inboundRequestWindow = inboundRequestWindow,
+            outboundChannel = callOptions.getOption(CALL_OPTION_BUFFER_POLICY)
+                .newOutboundCallChannel(method.requestMarshaller),
+            callListener = callListener
+        )
         asyncBidiStreamingCall<ReqT, RespT>(call, callChannel)
+        inboundRequestWindow.requestInitial(call)
         bindScopeCancellationToCall(call)
 
         return callChannel
@@ -217,9 +301,16 @@ public fun <ReqT, RespT> clientCallClientStreaming(
     callOptions: CallOptions = CallOptions.DEFAULT
 ): ClientStreamingCallChannel<ReqT, RespT> {
     val initialContext = callOptions.getOption(CALL_OPTION_COROUTINE_CONTEXT)
-    with(newRpcScope(initialContext, method)) {
-        val call = channel.newCall(method, callOptions.withCoroutineContext(coroutineContext))
-        val callChannel = ClientStreamingCallChannelImpl<ReqT, RespT>(coroutineContext)
+    with(callOptions.newPrioritizedRpcScope(initialContext, method)) {
+        val callListener = callOptions.newCallListener(method)
+        val call = channel.newCall(method, callOptions.withRpcContext(coroutineContext))
+            .withCallListener(callListener)
+        val callChannel = ClientStreamingCallChannelImpl<ReqT, RespT>(
+            coroutineContext = coroutineContext,
+            outboundChannel = callOptions.getOption(CALL_OPTION_BUFFER_POLICY)
+                .newOutboundCallChannel(method.requestMarshaller),
+            callListener = callListener
+        )
         asyncClientStreamingCall<ReqT, RespT>(call, callChannel)
         bindScopeCancellationToCall(call)
 
@@ -227,3 +318,21 @@ public fun <ReqT, RespT> clientCallClientStreaming(
     }
 }
 
+private fun CallOptions.newCallListener(method: MethodDescriptor<*, *>): ClientCallListener =
+    getOption(CALL_OPTION_CALL_INSTRUMENTATION).newCallListener(method)
+
+/**
+ * Returns the options of a call made within [coroutineContext], carrying the context
+ * itself as well as the nearest deadline of the call.
+ */
+private fun CallOptions.withRpcContext(coroutineContext: CoroutineContext): CallOptions =
+    withCoroutineContext(coroutineContext).withCallDeadline(coroutineContext)
+
+/**
+ * Returns the scope of a call made with these options, running at their [CALL_OPTION_CALL_PRIORITY].
+ */
+private fun CallOptions.newPrioritizedRpcScope(
+    initialContext: CoroutineContext,
+    method: MethodDescriptor<*, *>
+): CoroutineScope =
+    newRpcScope(initialContext, method, callPriority = getOption(CALL_OPTION_CALL_PRIORITY))
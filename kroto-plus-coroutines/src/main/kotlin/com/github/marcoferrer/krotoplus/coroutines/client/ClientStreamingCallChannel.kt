@@ -16,9 +16,7 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.client
 
-import com.github.marcoferrer.krotoplus.coroutines.call.MessageHandler
-import com.github.marcoferrer.krotoplus.coroutines.call.applyOutboundFlowControl
-import com.github.marcoferrer.krotoplus.coroutines.call.attachOutboundChannelCompletionHandler
+import com.github.marcoferrer.krotoplus.coroutines.call.OutboundCallWriter
 import io.grpc.stub.ClientCallStreamObserver
 import io.grpc.stub.ClientResponseObserver
 import kotlinx.coroutines.CancellationException
@@ -51,7 +49,9 @@ internal class ClientStreamingCallChannelImpl<ReqT,RespT>(
 
     private val outboundChannel: Channel<ReqT> = Channel(),
 
-    private val completableResponse: CompletableDeferred<RespT> = CompletableDeferred(parent = coroutineContext[Job])
+    private val completableResponse: CompletableDeferred<RespT> = CompletableDeferred(parent = coroutineContext[Job]),
+
+    private val callListener: ClientCallListener = ClientCallListener.NONE
 
 ) : ClientResponseObserver<ReqT, RespT>,
     ClientStreamingCallChannel<ReqT, RespT>,
@@ -66,16 +66,11 @@ internal class ClientStreamingCallChannelImpl<ReqT,RespT>(
 
     private lateinit var callStreamObserver: ClientCallStreamObserver<ReqT>
 
-    private lateinit var outboundMessageHandler: SendChannel<MessageHandler>
+    private lateinit var outboundCallWriter: OutboundCallWriter<ReqT>
 
     override fun beforeStart(requestStream: ClientCallStreamObserver<ReqT>) {
         callStreamObserver = requestStream
-        outboundMessageHandler = applyOutboundFlowControl(requestStream, outboundChannel)
-
-        attachOutboundChannelCompletionHandler(
-            callStreamObserver, outboundChannel,
-            onSuccess = { outboundMessageHandler.close() }
-        )
+        outboundCallWriter = launchOutboundWriter(requestStream, outboundChannel, callListener)
         completableResponse.invokeOnCompletion {
             // If the client prematurely cancels the response
             // we need to propagate this as a cancellation to the underlying call
@@ -93,7 +88,7 @@ internal class ClientStreamingCallChannelImpl<ReqT,RespT>(
         outboundChannel.close(t)
         outboundChannel.cancel(CancellationException(t.message,t))
         completableResponse.completeExceptionally(t)
-        outboundMessageHandler.close(t)
+        outboundCallWriter.close(t)
     }
 
     override fun onCompleted() {
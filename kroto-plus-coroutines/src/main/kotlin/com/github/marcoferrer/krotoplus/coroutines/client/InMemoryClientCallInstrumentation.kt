@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.client
+
+import com.github.marcoferrer.krotoplus.coroutines.CallHistogram
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * A [ClientCallInstrumentation] that aggregates call events in memory, keyed by
+ * [MethodDescriptor.getFullMethodName].
+ *
+ * Every event is recorded with a few atomic increments, and the only allocation made per call is
+ * the listener holding its start time.
+ *
+ * ```
+ * val instrumentation = InMemoryClientCallInstrumentation()
+ * val stub = GreeterCoroutineGrpc.newStub(channel).withCallInstrumentation(instrumentation)
+ *
+ * // Later, from a metrics endpoint
+ * val latency = instrumentation["helloworld.Greeter/SayHello"]?.timeToFirstResponseNanos
+ * ```
+ */
+public class InMemoryClientCallInstrumentation : ClientCallInstrumentation {
+
+    private val metricsByMethod = ConcurrentHashMap<String, MethodMetrics>()
+
+    /**
+     * The metrics of every method that has been called at least once.
+     */
+    public val methods: Map<String, MethodMetrics>
+        get() = HashMap(metricsByMethod)
+
+    /**
+     * Returns the metrics recorded for [fullMethodName], or `null` if the method has not been called.
+     */
+    public operator fun get(fullMethodName: String): MethodMetrics? = metricsByMethod[fullMethodName]
+
+    override fun newCallListener(methodDescriptor: MethodDescriptor<*, *>): ClientCallListener {
+        val fullMethodName = methodDescriptor.fullMethodName
+        val metrics = metricsByMethod[fullMethodName]
+            ?: metricsByMethod.putIfAbsent(fullMethodName, MethodMetrics(fullMethodName))
+            ?: metricsByMethod.getValue(fullMethodName)
+
+        return CallRecorder(metrics)
+    }
+
+    /**
+     * Call metrics for a single method, aggregated across all of its calls.
+     */
+    public class MethodMetrics internal constructor(
+        public val fullMethodName: String
+    ) {
+
+        private val activeCallCount = AtomicInteger()
+
+        private val closedCallCounts = AtomicLongArray(Status.Code.values().size)
+
+        /**
+         * The number of calls that have been started but not closed.
+         *
+         * Closes are recorded when the call listener is notified, which for unary calls can happen after the
+         * stub has already returned the response. The count can therefore still include a call that has just
+         * returned.
+         */
+        public val activeCalls: Int
+            get() = activeCallCount.get()
+
+        /**
+         * Time from the start of a call until its first request message was sent, in nanoseconds.
+         */
+        public val timeToFirstRequestNanos: CallHistogram = CallHistogram()
+
+        /**
+         * Time from the start of a call until its first response message was received, in nanoseconds.
+         */
+        public val timeToFirstResponseNanos: CallHistogram = CallHistogram()
+
+        /**
+         * Time the outbound writer spent stalled on a transport that was not ready, in nanoseconds.
+         * This is not the time senders spent suspended, which only happens once the outbound buffer is full.
+         */
+        public val outboundStalledNanos: CallHistogram = CallHistogram()
+
+        /**
+         * The number of response messages waiting to be consumed, sampled as each one is received.
+         */
+        public val bufferedResponses: CallHistogram = CallHistogram()
+
+        /**
+         * Time from the start of a call until it was closed, in nanoseconds.
+         */
+        public val callDurationNanos: CallHistogram = CallHistogram()
+
+        /**
+         * Returns the number of calls that were closed with [code].
+         */
+        public fun closedCalls(code: Status.Code): Long = closedCallCounts.get(code.ordinal)
+
+        internal fun onCallStarted() {
+            activeCallCount.incrementAndGet()
+        }
+
+        internal fun onCallClosed(code: Status.Code, durationNanos: Long) {
+            activeCallCount.decrementAndGet()
+            closedCallCounts.incrementAndGet(code.ordinal)
+            callDurationNanos.record(durationNanos)
+        }
+
+        override fun toString(): String =
+            "MethodMetrics(fullMethodName=$fullMethodName, activeCalls=$activeCalls, " +
+                "okCalls=${closedCalls(Status.Code.OK)}, timeToFirstResponseNanos=$timeToFirstResponseNanos, " +
+                "outboundStalledNanos=$outboundStalledNanos, bufferedResponses=$bufferedResponses, " +
+                "callDurationNanos=$callDurationNanos)"
+    }
+
+    private class CallRecorder(private val metrics: MethodMetrics) : ClientCallListener {
+
+        @Volatile
+        private var startedAt = 0L
+
+        override fun onCallStarted() {
+            startedAt = System.nanoTime()
+            metrics.onCallStarted()
+        }
+
+        override fun onFirstRequestSent() {
+            metrics.timeToFirstRequestNanos.record(System.nanoTime() - startedAt)
+        }
+
+        override fun onFirstResponse() {
+            metrics.timeToFirstResponseNanos.record(System.nanoTime() - startedAt)
+        }
+
+        override fun onResponseBuffered(bufferedCount: Int) {
+            metrics.bufferedResponses.record(bufferedCount.toLong())
+        }
+
+        override fun onOutboundResumed(stalledNanos: Long) {
+            metrics.outboundStalledNanos.record(stalledNanos)
+        }
+
+        override fun onCallClosed(status: Status) {
+            metrics.onCallClosed(status.code, System.nanoTime() - startedAt)
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.client
 
+import com.github.marcoferrer.krotoplus.coroutines.call.InboundRequestWindow
 import io.grpc.Status
 import io.grpc.stub.ClientCallStreamObserver
 import io.grpc.stub.ClientResponseObserver
@@ -24,7 +25,10 @@ import kotlinx.coroutines.cancel
 import kotlinx.coroutines.channels.ProducerScope
 import java.util.concurrent.atomic.AtomicBoolean
 
-internal class ResponseObserverChannelAdapter<ReqT, RespT>: ClientResponseObserver<ReqT, RespT> {
+internal class ResponseObserverChannelAdapter<ReqT, RespT>(
+    private val inboundRequestWindow: InboundRequestWindow? = null,
+    private val callListener: ClientCallListener = ClientCallListener.NONE
+): ClientResponseObserver<ReqT, RespT> {
 
     private val isAborted = AtomicBoolean()
     private val isCompleted = AtomicBoolean()
@@ -40,6 +44,9 @@ internal class ResponseObserverChannelAdapter<ReqT, RespT>: ClientResponseObserv
     override fun beforeStart(requestStream: ClientCallStreamObserver<ReqT>) {
         require(::scope.isInitialized){ "Producer scope was not initialized" }
         callStreamObserver = requestStream.apply { disableAutoInboundFlowControl() }
+        // Bind before the call starts so that credit can be returned for
+        // responses that are consumed before the start method returns.
+        inboundRequestWindow?.bind(requestStream)
     }
 
     fun beforeCallCancellation(message: String?, cause: Throwable?){
@@ -54,6 +61,7 @@ internal class ResponseObserverChannelAdapter<ReqT, RespT>: ClientResponseObserv
     }
 
     override fun onNext(value: RespT) {
+        inboundRequestWindow?.onMessageDelivered()?.let(callListener::onResponseBuffered)
         scope.offer(value)
     }
 
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferOverflow
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferPolicy
+import com.github.marcoferrer.krotoplus.coroutines.call.mapMethods
+import com.github.marcoferrer.krotoplus.coroutines.call.newOutboundChannel
+import com.github.marcoferrer.krotoplus.coroutines.call.withResponseMarshaller
+import io.grpc.Drainable
+import io.grpc.KnownLength
+import io.grpc.MethodDescriptor
+import io.grpc.ServerServiceDefinition
+import io.grpc.Status
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.coroutineScope
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.IdentityHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Fans messages out to the response channels of many server streaming calls, serializing each message only once.
+ *
+ * Every published message is serialized as it is published, and the bytes are shared by all subscribers. This only
+ * takes effect for methods whose service definition was rewritten with [bindService], since gRPC always marshals
+ * responses with the marshaller of the method being called. Messages must not be mutated once they are published.
+ *
+ * Example:
+ * ```
+ * val hub = BroadcastHub(GreeterGrpc.getSayHelloServerStreamingMethod().responseMarshaller)
+ *
+ * val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+ *     override suspend fun sayHelloServerStreaming(request: HelloRequest, responseChannel: SendChannel<HelloReply>) {
+ *         hub.subscribe(responseChannel, SlowConsumerPolicy.DropOldest(16))
+ *     }
+ * }
+ *
+ * serverBuilder.addService(hub.bindService(service.bindService(), GreeterGrpc.getSayHelloServerStreamingMethod()))
+ * ```
+ *
+ * @param marshaller The marshaller of the broadcast message type, usually taken from the method descriptor.
+ * @param cachedMessageCount The minimum number of recently published messages whose bytes are kept. The cache grows
+ * to cover the buffer of every subscriber's [SlowConsumerPolicy], up to [MAX_CACHED_MESSAGE_COUNT] messages. A
+ * subscriber lagging further behind than the cache still receives every message, but its messages are serialized again.
+ */
+public class BroadcastHub<T>(
+    private val marshaller: MethodDescriptor.Marshaller<T>,
+    cachedMessageCount: Int = DEFAULT_CACHED_MESSAGE_COUNT
+) {
+
+    init {
+        require(cachedMessageCount > 0) { "Cached message count must be greater than zero, but was $cachedMessageCount" }
+    }
+
+    private val serializedMessages = SerializedMessageCache<T>(cachedMessageCount)
+
+    private val subscriptions = CopyOnWriteArrayList<Subscription<T>>()
+
+    @Volatile
+    private var closeCause: Throwable? = null
+
+    @Volatile
+    private var isClosed = false
+
+    /**
+     * Marshals published messages from their shared serialized form, and
+     * every other message with the marshaller the hub was created with.
+     *
+     * Streams of published messages implement [KnownLength] and [Drainable], so that
+     * gRPC writes the shared bytes to the transport without copying them per subscriber.
+     */
+    public val serializingMarshaller: MethodDescriptor.Marshaller<T> = object : MethodDescriptor.Marshaller<T> {
+        override fun stream(value: T): InputStream =
+            serializedMessages[value]?.let { SerializedMessageStream(it) } ?: marshaller.stream(value)
+
+        override fun parse(stream: InputStream): T = marshaller.parse(stream)
+    }
+
+    /**
+     * The number of calls currently subscribed to this hub.
+     */
+    public val subscriberCount: Int
+        get() = subscriptions.size
+
+    /**
+     * Serializes [message] once and delivers it to every current subscriber according to its [SlowConsumerPolicy].
+     * This only suspends while a subscriber using [SlowConsumerPolicy.Buffer] has a full buffer.
+     */
+    public suspend fun publish(message: T) {
+        check(!isClosed) { "Broadcast hub has been closed" }
+        if (subscriptions.isEmpty()) return
+
+        if (serializedMessages[message] == null) {
+            serializedMessages.put(message, marshaller.stream(message).use { it.readBytes() })
+        }
+        for (subscription in subscriptions) {
+            subscription.deliver(message)
+        }
+    }
+
+    /**
+     * Forwards every message published from now on to [responseChannel], until the hub is closed or the calling
+     * coroutine is cancelled. This is meant to be called from the handler of a server streaming method.
+     *
+     * If the hub is closed with a cause, or [policy] disconnects the subscriber, this throws the corresponding
+     * exception so that the call fails with its status.
+     */
+    public suspend fun subscribe(
+        responseChannel: SendChannel<T>,
+        policy: SlowConsumerPolicy = SlowConsumerPolicy.DEFAULT
+    ) {
+        val subscription = Subscription(policy, policy.newSubscriptionChannel(marshaller))
+        serializedMessages.ensureCapacity(policy.cachedMessageCount)
+        try {
+            // Forwarding runs in its own scope so that disconnecting a subscriber
+            // also interrupts a send suspended on a call that is not ready
+            coroutineScope {
+                subscription.forwarder = coroutineContext[Job]!!
+                subscriptions.add(subscription)
+                // A hub closed while we were subscribing would
+                // otherwise never close this subscription
+                if (isClosed) {
+                    subscription.channel.close(closeCause)
+                }
+                for (message in subscription.channel) {
+                    responseChannel.send(message)
+                }
+            }
+        } catch (e: CancellationException) {
+            throw subscription.disconnectCause ?: e
+        } finally {
+            subscriptions.remove(subscription)
+            subscription.channel.cancel()
+        }
+    }
+
+    /**
+     * Closes the hub. Subscribers return from [subscribe] once they have forwarded the messages they have buffered,
+     * or fail with [cause] if one is given.
+     */
+    public fun close(cause: Throwable? = null) {
+        closeCause = cause
+        isClosed = true
+        for (subscription in subscriptions) {
+            subscription.channel.close(cause)
+        }
+    }
+
+    /**
+     * Rewrites the given methods of [serviceDefinition] to marshal their responses
+     * with [serializingMarshaller]. All other methods are left as they are.
+     */
+    public fun bindService(
+        serviceDefinition: ServerServiceDefinition,
+        vararg methodDescriptors: MethodDescriptor<*, T>
+    ): ServerServiceDefinition {
+        val methodNames = methodDescriptors.mapTo(hashSetOf()) { it.fullMethodName }
+        return serviceDefinition.mapMethods { method ->
+            if (method.methodDescriptor.fullMethodName in methodNames)
+                method.withResponseMarshaller(serializingMarshaller) else
+                method
+        }
+    }
+
+    public companion object {
+        public const val DEFAULT_CACHED_MESSAGE_COUNT: Int = 16
+
+        /**
+         * The number of cached messages the cache of a hub stops growing at, whatever the policies of its subscribers.
+         */
+        public const val MAX_CACHED_MESSAGE_COUNT: Int = 1024
+    }
+}
+
+/**
+ * Describes what a [BroadcastHub] does when a subscriber cannot keep up with the messages being published.
+ */
+public sealed class SlowConsumerPolicy {
+
+    /**
+     * Buffers up to [capacity] messages, after which publishing suspends until the subscriber catches up.
+     * A single slow subscriber using this policy slows down delivery to every subscriber.
+     */
+    public class Buffer(public val capacity: Int) : SlowConsumerPolicy() {
+        init {
+            requireCapacity(capacity)
+        }
+    }
+
+    /**
+     * Buffers up to [capacity] messages, after which the oldest buffered message is dropped.
+     */
+    public class DropOldest(public val capacity: Int) : SlowConsumerPolicy() {
+        init {
+            requireCapacity(capacity)
+        }
+    }
+
+    /**
+     * Only keeps the latest message that has not been forwarded yet.
+     */
+    public object Conflate : SlowConsumerPolicy()
+
+    /**
+     * Buffers up to [capacity] messages. Once a message does not fit, the subscriber
+     * is disconnected and its call fails with [Status.RESOURCE_EXHAUSTED].
+     */
+    public class Disconnect(public val capacity: Int) : SlowConsumerPolicy() {
+        init {
+            requireCapacity(capacity)
+        }
+    }
+
+    public companion object {
+
+        /**
+         * The policy used when none is given, buffering up to 64 messages before dropping the oldest.
+         */
+        @JvmField
+        public val DEFAULT: SlowConsumerPolicy = DropOldest(64)
+    }
+}
+
+/**
+ * Besides the messages buffered by its policy, a subscriber holds one message while forwarding
+ * it and may have handed one more to its response channel that has not been marshalled yet.
+ */
+private const val IN_FLIGHT_MESSAGE_COUNT = 2
+
+private val SlowConsumerPolicy.cachedMessageCount: Int
+    get() {
+        val bufferedMessageCount = when (this) {
+            is SlowConsumerPolicy.Buffer -> capacity
+            is SlowConsumerPolicy.DropOldest -> capacity
+            is SlowConsumerPolicy.Conflate -> 1
+            is SlowConsumerPolicy.Disconnect -> capacity
+        }
+        val maxBufferedMessageCount = BroadcastHub.MAX_CACHED_MESSAGE_COUNT - IN_FLIGHT_MESSAGE_COUNT
+        return minOf(bufferedMessageCount, maxBufferedMessageCount) + IN_FLIGHT_MESSAGE_COUNT
+    }
+
+private fun requireCapacity(capacity: Int) {
+    require(capacity >= 0) { "Capacity must be zero or greater, but was $capacity" }
+}
+
+private class Subscription<T>(val policy: SlowConsumerPolicy, val channel: Channel<T>) {
+
+    lateinit var forwarder: Job
+
+    @Volatile
+    var disconnectCause: Throwable? = null
+
+    suspend fun deliver(message: T) {
+        if (channel.isClosedForSend) return
+        try {
+            when (policy) {
+                is SlowConsumerPolicy.Buffer -> channel.send(message)
+                is SlowConsumerPolicy.Disconnect -> if (!channel.offer(message)) {
+                    disconnect(Status.RESOURCE_EXHAUSTED
+                        .withDescription("Subscriber could not keep up with the broadcast")
+                        .asRuntimeException())
+                }
+                else -> channel.offer(message)
+            }
+        } catch (e: Throwable) {
+            // The subscriber was closed while we were delivering to it
+            if (!channel.isClosedForSend) throw e
+        }
+    }
+
+    private fun disconnect(cause: Throwable) {
+        disconnectCause = cause
+        channel.close(cause)
+        forwarder.cancel()
+    }
+}
+
+private fun <T> SlowConsumerPolicy.newSubscriptionChannel(marshaller: MethodDescriptor.Marshaller<T>): Channel<T> =
+    when (this) {
+        is SlowConsumerPolicy.Buffer -> Channel(capacity)
+        is SlowConsumerPolicy.DropOldest ->
+            CallBufferPolicy(capacity, CallBufferOverflow.DROP_OLDEST).newOutboundChannel(marshaller)
+        is SlowConsumerPolicy.Conflate -> Channel(Channel.CONFLATED)
+        is SlowConsumerPolicy.Disconnect -> Channel(capacity)
+    }
+
+/**
+ * Reads the shared serialized form of a published message, letting gRPC drain it straight to the transport.
+ */
+private class SerializedMessageStream(bytes: ByteArray) : ByteArrayInputStream(bytes), KnownLength, Drainable {
+
+    override fun drainTo(target: OutputStream): Int {
+        val length = count - pos
+        target.write(buf, pos, length)
+        pos = count
+        return length
+    }
+}
+
+/**
+ * Keeps the serialized form of the most recently published messages. Every message is given the next sequence
+ * number and stored in the slot of that sequence, evicting the message published a full cache earlier. Since
+ * subscribers hand the marshaller the message itself, it is resolved to its sequence by identity.
+ */
+private class SerializedMessageCache<T>(capacity: Int) {
+
+    private class Entry<T>(val sequence: Long, val message: T, val bytes: ByteArray)
+
+    private val lock = Any()
+
+    private var entries = arrayOfNulls<Entry<T>>(capacity)
+
+    private val sequences = IdentityHashMap<T, Long>()
+
+    private var nextSequence = 0L
+
+    operator fun get(message: T): ByteArray? = synchronized(lock) {
+        val sequence = sequences[message] ?: return null
+        entries[slotOf(sequence)]?.takeIf { it.sequence == sequence }?.bytes
+    }
+
+    fun put(message: T, bytes: ByteArray): Unit = synchronized(lock) {
+        if (message in sequences) return
+
+        val sequence = nextSequence++
+        val slot = slotOf(sequence)
+        entries[slot]?.let { sequences.remove(it.message) }
+        entries[slot] = Entry(sequence, message, bytes)
+        sequences[message] = sequence
+    }
+
+    /**
+     * Grows the cache to hold at least [capacity] messages, keeping the messages it already holds.
+     */
+    fun ensureCapacity(capacity: Int): Unit = synchronized(lock) {
+        if (capacity <= entries.size) return
+
+        val resized = arrayOfNulls<Entry<T>>(capacity)
+        for (entry in entries) {
+            if (entry != null) resized[(entry.sequence % capacity).toInt()] = entry
+        }
+        entries = resized
+    }
+
+    private fun slotOf(sequence: Long): Int = (sequence % entries.size).toInt()
+}
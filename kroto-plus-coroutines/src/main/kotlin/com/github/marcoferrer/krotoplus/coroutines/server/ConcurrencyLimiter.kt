@@ -0,0 +1,177 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import io.grpc.Status
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Bounds the number of calls a service, or one of its methods, executes at the same time. A [ServiceScope] supplies
+ * a limiter for each method through [ServiceScope.concurrencyLimiter]. Returning the same instance for several
+ * methods makes them share a single limit.
+ *
+ * Calls are admitted before any coroutine is created for them. Calls that are not admitted are closed with
+ * [Status.RESOURCE_EXHAUSTED].
+ *
+ * Implementations must be thread safe and should never block.
+ */
+public interface ConcurrencyLimiter {
+
+    /**
+     * Returns `true` if a new call can start, reserving a slot for it. Every admitted call
+     * is followed by exactly one invocation of [release].
+     */
+    fun tryAcquire(): Boolean
+
+    /**
+     * Releases the slot of a completed call.
+     *
+     * @param latencyNanos The time a unary call spent executing, in nanoseconds. This is `null` for streaming calls,
+     * which can stay open for as long as their peers keep them open, so their duration says nothing about load.
+     * @param cause The exception the call completed with, or `null` if it completed successfully.
+     */
+    fun release(latencyNanos: Long?, cause: Throwable?)
+
+    public companion object {
+
+        /**
+         * A limiter that admits every call. This is the default for every [ServiceScope].
+         */
+        @JvmField
+        public val NONE: ConcurrencyLimiter = object : ConcurrencyLimiter {
+            override fun tryAcquire(): Boolean = true
+            override fun release(latencyNanos: Long?, cause: Throwable?) {}
+        }
+    }
+}
+
+/**
+ * A [ConcurrencyLimiter] with a fixed [limit].
+ */
+public class StaticConcurrencyLimiter(public val limit: Int) : ConcurrencyLimiter {
+
+    init {
+        require(limit > 0) { "Limit must be greater than zero, but was $limit" }
+    }
+
+    private val inFlightCount = AtomicInteger()
+
+    /**
+     * The number of calls currently admitted.
+     */
+    public val inFlight: Int
+        get() = inFlightCount.get()
+
+    override fun tryAcquire(): Boolean = inFlightCount.tryIncrementBelow(limit)
+
+    override fun release(latencyNanos: Long?, cause: Throwable?) {
+        inFlightCount.decrementAndGet()
+    }
+
+    override fun toString(): String = "StaticConcurrencyLimiter(limit=$limit, inFlight=$inFlight)"
+}
+
+/**
+ * A [ConcurrencyLimiter] whose limit adapts to the observed behaviour of the service using additive increase,
+ * multiplicative decrease.
+ *
+ * The limit grows by one for every successful call completed while at least half of the limit is in use,
+ * and shrinks by [backoffRatio] whenever a call is overloaded. A call is considered overloaded when it fails with
+ * [Status.Code.DEADLINE_EXCEEDED], [Status.Code.RESOURCE_EXHAUSTED] or [Status.Code.UNAVAILABLE], or when it is
+ * a unary call that takes longer than [timeoutMillis]. Streaming calls are only judged by their status.
+ */
+public class AimdConcurrencyLimiter @JvmOverloads constructor(
+    initialLimit: Int = 20,
+    public val minLimit: Int = 1,
+    public val maxLimit: Int = 1000,
+    public val backoffRatio: Double = 0.9,
+    public val timeoutMillis: Long = 5000
+) : ConcurrencyLimiter {
+
+    init {
+        require(minLimit > 0) { "Min limit must be greater than zero, but was $minLimit" }
+        require(maxLimit >= minLimit) { "Max limit must not be less than min limit $minLimit, but was $maxLimit" }
+        require(initialLimit in minLimit..maxLimit) {
+            "Initial limit must be between $minLimit and $maxLimit, but was $initialLimit"
+        }
+        require(backoffRatio > 0.0 && backoffRatio < 1.0) {
+            "Backoff ratio must be between 0 and 1, but was $backoffRatio"
+        }
+    }
+
+    private val timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+
+    private val currentLimit = AtomicInteger(initialLimit)
+
+    private val inFlightCount = AtomicInteger()
+
+    /**
+     * The current limit.
+     */
+    public val limit: Int
+        get() = currentLimit.get()
+
+    /**
+     * The number of calls currently admitted.
+     */
+    public val inFlight: Int
+        get() = inFlightCount.get()
+
+    override fun tryAcquire(): Boolean = inFlightCount.tryIncrementBelow(currentLimit.get())
+
+    override fun release(latencyNanos: Long?, cause: Throwable?) {
+        val inFlight = inFlightCount.getAndDecrement()
+
+        while (true) {
+            val limit = currentLimit.get()
+            val newLimit = when {
+                isOverloaded(latencyNanos, cause) ->
+                    maxOf(minLimit, (limit * backoffRatio).toInt())
+
+                // Only grow the limit while it is actually being used.
+                cause == null && inFlight * 2 >= limit ->
+                    minOf(maxLimit, limit + 1)
+
+                else -> return
+            }
+
+            if (newLimit == limit || currentLimit.compareAndSet(limit, newLimit)) return
+        }
+    }
+
+    private fun isOverloaded(latencyNanos: Long?, cause: Throwable?): Boolean =
+        (latencyNanos != null && latencyNanos > timeoutNanos) || (cause != null && Status.fromThrowable(cause).code in OVERLOAD_CODES)
+
+    override fun toString(): String = "AimdConcurrencyLimiter(limit=$limit, inFlight=$inFlight)"
+
+    private companion object {
+        val OVERLOAD_CODES = setOf(
+            Status.Code.DEADLINE_EXCEEDED,
+            Status.Code.RESOURCE_EXHAUSTED,
+            Status.Code.UNAVAILABLE
+        )
+    }
+}
+
+private fun AtomicInteger.tryIncrementBelow(limit: Int): Boolean {
+    while (true) {
+        val current = get()
+        if (current >= limit) return false
+        if (compareAndSet(current, current + 1)) return true
+    }
+}
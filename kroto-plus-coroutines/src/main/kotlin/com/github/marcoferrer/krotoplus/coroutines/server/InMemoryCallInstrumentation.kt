@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.CallHistogram
+import io.grpc.MethodDescriptor
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A [ServerCallInstrumentation] that aggregates call events in memory, keyed by
+ * [MethodDescriptor.getFullMethodName].
+ *
+ * ```
+ * class GreeterServiceImpl : GreeterCoroutineGrpc.GreeterImplBase() {
+ *
+ *     override val callInstrumentation = InMemoryCallInstrumentation()
+ * }
+ *
+ * // Later, from a metrics endpoint
+ * val stalls = service.callInstrumentation["helloworld.Greeter/SayHelloStreaming"]?.outboundStallNanos
+ * ```
+ */
+public class InMemoryCallInstrumentation : ServerCallInstrumentation {
+
+    private val metricsByMethod = ConcurrentHashMap<String, MethodMetrics>()
+
+    /**
+     * The metrics of every method that has received at least one call.
+     */
+    public val methods: Map<String, MethodMetrics>
+        get() = HashMap(metricsByMethod)
+
+    /**
+     * Returns the metrics recorded for [fullMethodName], or `null` if the method has not received any calls.
+     */
+    public operator fun get(fullMethodName: String): MethodMetrics? = metricsByMethod[fullMethodName]
+
+    override fun newCallTracer(methodDescriptor: MethodDescriptor<*, *>): ServerCallTracer {
+        val fullMethodName = methodDescriptor.fullMethodName
+        val metrics = metricsByMethod[fullMethodName]
+            ?: metricsByMethod.putIfAbsent(fullMethodName, MethodMetrics(fullMethodName))
+            ?: metricsByMethod.getValue(fullMethodName)
+
+        metrics.onCallStarted()
+        return metrics
+    }
+
+    /**
+     * Call metrics for a single method. Every call of the method reports to the same instance.
+     */
+    public class MethodMetrics internal constructor(
+        public val fullMethodName: String
+    ) : ServerCallTracer {
+
+        private val activeCallCount = AtomicInteger()
+
+        private val completedCallCount = AtomicLong()
+
+        private val failedCallCount = AtomicLong()
+
+        /**
+         * The number of calls whose coroutine scope is still active.
+         */
+        public val activeCalls: Int
+            get() = activeCallCount.get()
+
+        public val completedCalls: Long
+            get() = completedCallCount.get()
+
+        public val failedCalls: Long
+            get() = failedCallCount.get()
+
+        /**
+         * Time writers spent waiting for the transport to become ready, in nanoseconds.
+         */
+        public val outboundStallNanos: CallHistogram = CallHistogram()
+
+        /**
+         * The number of request messages waiting to be consumed, sampled as each one is delivered.
+         */
+        public val inboundBufferedMessages: CallHistogram = CallHistogram()
+
+        /**
+         * The number of request messages parked in a suspended send, sampled whenever one is parked.
+         */
+        public val transientInboundMessages: CallHistogram = CallHistogram()
+
+        internal fun onCallStarted() {
+            activeCallCount.incrementAndGet()
+        }
+
+        override fun onInboundMessage(bufferedCount: Int, transientCount: Int) {
+            inboundBufferedMessages.record(bufferedCount.toLong())
+            if (transientCount > 0) {
+                transientInboundMessages.record(transientCount.toLong())
+            }
+        }
+
+        override fun onOutboundStall(stallNanos: Long) {
+            outboundStallNanos.record(stallNanos)
+        }
+
+        override fun onCallClosed(cause: Throwable?) {
+            activeCallCount.decrementAndGet()
+            if (cause == null) {
+                completedCallCount.incrementAndGet()
+            } else {
+                failedCallCount.incrementAndGet()
+            }
+        }
+
+        override fun toString(): String =
+            "MethodMetrics(fullMethodName=$fullMethodName, activeCalls=$activeCalls, " +
+                "completedCalls=$completedCalls, failedCalls=$failedCalls, " +
+                "outboundStallNanos=$outboundStallNanos, inboundBufferedMessages=$inboundBufferedMessages, " +
+                "transientInboundMessages=$transientInboundMessages)"
+    }
+}
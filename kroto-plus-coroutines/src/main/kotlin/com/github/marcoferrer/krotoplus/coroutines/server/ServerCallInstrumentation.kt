@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import io.grpc.MethodDescriptor
+
+/**
+ * Service provider interface for observing the coroutine layer of incoming rpcs. A [ServiceScope] supplies
+ * its instrumentation through [ServiceScope.callInstrumentation], and a new [ServerCallTracer] is created
+ * for every call before its handler is launched.
+ *
+ * Implementations are invoked from transport and coroutine threads alike, so they must be thread safe and
+ * should never block.
+ *
+ * @see InMemoryCallInstrumentation
+ */
+public interface ServerCallInstrumentation {
+
+    /**
+     * Invoked once an incoming call has been dispatched to the service, before its coroutine scope is created.
+     */
+    fun newCallTracer(methodDescriptor: MethodDescriptor<*, *>): ServerCallTracer
+
+    public companion object {
+
+        /**
+         * Instrumentation that records nothing. This is the default for every [ServiceScope].
+         */
+        @JvmField
+        public val NONE: ServerCallInstrumentation = object : ServerCallInstrumentation {
+            override fun newCallTracer(methodDescriptor: MethodDescriptor<*, *>): ServerCallTracer =
+                ServerCallTracer.NONE
+        }
+    }
+}
+
+/**
+ * Receives the events of a single server call.
+ */
+public interface ServerCallTracer {
+
+    /**
+     * Invoked after a request message has been delivered to the inbound channel of a streaming call.
+     *
+     * @param bufferedCount The number of messages delivered but not yet consumed by the service, including this one.
+     * @param transientCount The number of those messages that did not fit in the inbound channel and are
+     * parked in a suspended send.
+     */
+    fun onInboundMessage(bufferedCount: Int, transientCount: Int) {}
+
+    /**
+     * Invoked when the transport becomes ready again after a writer had to wait for it.
+     *
+     * @param stallNanos The time spent waiting for the call to become ready, in nanoseconds.
+     */
+    fun onOutboundStall(stallNanos: Long) {}
+
+    /**
+     * Invoked once the coroutine scope of the call has completed.
+     *
+     * @param cause The exception the scope completed with, or `null` if it completed successfully.
+     */
+    fun onCallClosed(cause: Throwable?) {}
+
+    public companion object {
+
+        @JvmField
+        public val NONE: ServerCallTracer = object : ServerCallTracer {}
+    }
+}
@@ -16,28 +16,46 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.server
 
+import com.github.marcoferrer.krotoplus.coroutines.CallPriority
+import com.github.marcoferrer.krotoplus.coroutines.call.CallReadiness
+import com.github.marcoferrer.krotoplus.coroutines.call.InboundRequestWindow
 import com.github.marcoferrer.krotoplus.coroutines.call.applyInboundFlowControl
-import com.github.marcoferrer.krotoplus.coroutines.call.applyOutboundFlowControl
-import com.github.marcoferrer.krotoplus.coroutines.call.attachOutboundChannelCompletionHandler
 import com.github.marcoferrer.krotoplus.coroutines.call.bindToClientCancellation
 import com.github.marcoferrer.krotoplus.coroutines.call.completeSafely
+import com.github.marcoferrer.krotoplus.coroutines.call.launchOutboundWriter
+import com.github.marcoferrer.krotoplus.coroutines.call.newOutboundCallChannel
+import com.github.marcoferrer.krotoplus.coroutines.call.newMethodRpcContext
 import com.github.marcoferrer.krotoplus.coroutines.call.newRpcScope
 import com.github.marcoferrer.krotoplus.coroutines.call.toRpcException
+import com.github.marcoferrer.krotoplus.coroutines.call.withGrpcContext
+import io.grpc.Context
 import io.grpc.MethodDescriptor
 import io.grpc.Status
 import io.grpc.StatusRuntimeException
+import io.grpc.stub.CallStreamObserver
 import io.grpc.stub.ServerCallStreamObserver
 import io.grpc.stub.StreamObserver
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.ThreadContextElement
 import kotlinx.coroutines.cancel
-import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.consumeAsFlow
+import kotlinx.coroutines.flow.flow
 import kotlinx.coroutines.launch
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.Continuation
+import kotlin.coroutines.ContinuationInterceptor
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.intrinsics.COROUTINE_SUSPENDED
+import kotlin.coroutines.intrinsics.startCoroutineUninterceptedOrReturn
 
 
 public fun <ReqT, RespT> ServiceScope.serverCallUnary(
@@ -45,49 +63,247 @@ public fun <ReqT, RespT> ServiceScope.serverCallUnary(
     responseObserver: StreamObserver<RespT>,
     block: suspend () -> RespT
 ) {
-    with(newRpcScope(initialContext, methodDescriptor)) rpcScope@ {
-        bindToClientCancellation(responseObserver as ServerCallStreamObserver<*>)
-        launch(start = CoroutineStart.ATOMIC) {
-            try{
-                responseObserver.onNext(block())
-                responseObserver.onCompleted()
-            }catch (e: Throwable){
-                responseObserver.completeSafely(e)
+    startUnaryCall(methodDescriptor, block, responseObserver, invokeBlock())
+}
+
+/**
+ * Executes a unary rpc by invoking [handler] with [request].
+ *
+ * Unlike the overload accepting a block, [handler] does not need to capture the request. Generated
+ * services create it once per instance, so that dispatching a call does not allocate a lambda.
+ *
+ * If [ServiceScope.startUndispatched] is enabled for the method, the handler is started inline on the calling
+ * transport thread, against a context built once for the method. Each call only adds its gRPC context and a job
+ * to it. A handler that returns without suspending completes the call before this method returns, without an rpc
+ * scope or a launched coroutine being created for it. Cancellation is only bound to the call once the handler has
+ * suspended, and the handler is then resumed by the dispatcher of [ServiceScope.methodContext].
+ *
+ * Methods whose context holds a [Job] or a [ThreadContextElement] start their handler undispatched within a
+ * launched coroutine instead, since only a coroutine makes the handler a child of that job, or installs those
+ * elements on the transport thread.
+ */
+public fun <ReqT, RespT> ServiceScope.serverCallUnary(
+    methodDescriptor: MethodDescriptor<ReqT, RespT>,
+    request: ReqT,
+    responseObserver: StreamObserver<RespT>,
+    handler: suspend (ReqT) -> RespT
+) {
+    startUnaryCall(methodDescriptor, request, responseObserver, handler)
+}
+
+private fun <ReqT, RespT, T> ServiceScope.startUnaryCall(
+    methodDescriptor: MethodDescriptor<ReqT, RespT>,
+    input: T,
+    responseObserver: StreamObserver<RespT>,
+    handler: suspend (T) -> RespT
+) {
+    val concurrencyLimiter = concurrencyLimiter(methodDescriptor)
+    if (!concurrencyLimiter.tryAdmit(methodDescriptor, responseObserver)) return
+
+    val startedAt = System.nanoTime()
+    concurrencyLimiter.setUpAdmittedCall { onHandlerLaunched ->
+        val callTracer = callInstrumentation.newCallTracer(methodDescriptor)
+        val serverCallObserver = responseObserver as ServerCallStreamObserver<RespT>
+        val isUndispatched = startUndispatched(methodDescriptor)
+        val inlineContext = if (isUndispatched) inlineStartContext(methodDescriptor) else null
+        if (inlineContext != null) {
+            val call = InlineUnaryCall(inlineContext, serverCallObserver, callTracer, concurrencyLimiter, startedAt)
+            onHandlerLaunched()
+            call.start(handler, input)
+            return
+        }
+        with(newServerRpcScope(methodDescriptor)) rpcScope@ {
+            if (!isUndispatched) {
+                bindToClientCancellation(serverCallObserver)
+            }
+            val job = launch(start = if (isUndispatched) CoroutineStart.UNDISPATCHED else CoroutineStart.ATOMIC) {
+                var failure: Throwable? = null
+                try{
+                    responseObserver.onNext(handler(input))
+                    responseObserver.onCompleted()
+                }catch (e: Throwable){
+                    failure = e
+                    responseObserver.completeSafely(e)
+                }finally {
+                    callTracer.onCallClosed(failure)
+                    concurrencyLimiter.release(System.nanoTime() - startedAt, failure)
+                }
+            }
+            onHandlerLaunched()
+
+            // A handler that completed without suspending has nothing left to cancel. Otherwise we are
+            // still on the transport thread, which serializes call events, so a cancellation cannot have
+            // been delivered between the suspension and binding to it here.
+            if (isUndispatched && !job.isCompleted) {
+                bindToClientCancellation(serverCallObserver)
+                if (serverCallObserver.isCancelled) {
+                    this@rpcScope.cancel()
+                }
             }
         }
     }
 }
 
+/**
+ * A unary call whose handler is started inline, rather than by launching a coroutine. The call is the
+ * completion of its handler, and its [context] only differs from the prebuilt context of the method by
+ * the gRPC context and the job of the call.
+ */
+private class InlineUnaryCall<RespT>(
+    methodContext: CoroutineContext,
+    private val responseObserver: ServerCallStreamObserver<RespT>,
+    private val callTracer: ServerCallTracer,
+    private val concurrencyLimiter: ConcurrencyLimiter,
+    private val startedAt: Long
+) : Continuation<RespT> {
+
+    private val job = Job()
+
+    override val context: CoroutineContext = methodContext.withGrpcContext(Context.current()) + job
+
+    fun <T> start(handler: suspend (T) -> RespT, input: T) {
+        val result = try {
+            handler.startCoroutineUninterceptedOrReturn(input, this)
+        } catch (e: Throwable) {
+            onFailure(e)
+            return
+        }
+
+        if (result !== COROUTINE_SUSPENDED) {
+            @Suppress("UNCHECKED_CAST")
+            onResponse(result as RespT)
+            return
+        }
+
+        // We are still on the transport thread, which serializes call events, so a cancellation
+        // cannot have been delivered between the suspension and binding to it here.
+        val rpcScope = CoroutineScope(context)
+        rpcScope.bindToClientCancellation(responseObserver)
+        if (responseObserver.isCancelled) {
+            rpcScope.cancel()
+        }
+    }
+
+    override fun resumeWith(result: Result<RespT>) {
+        val failure = result.exceptionOrNull()
+        if (failure == null) {
+            @Suppress("UNCHECKED_CAST")
+            onResponse(result.getOrNull() as RespT)
+        } else {
+            onFailure(failure)
+        }
+    }
+
+    private fun onResponse(response: RespT) {
+        var failure: Throwable? = null
+        try {
+            responseObserver.onNext(response)
+            responseObserver.onCompleted()
+        } catch (e: Throwable) {
+            failure = e
+            responseObserver.completeSafely(e)
+        } finally {
+            onClosed(failure)
+        }
+    }
+
+    private fun onFailure(failure: Throwable) {
+        try {
+            responseObserver.completeSafely(failure)
+        } finally {
+            onClosed(failure)
+        }
+    }
+
+    private fun onClosed(failure: Throwable?) {
+        callTracer.onCallClosed(failure)
+        concurrencyLimiter.release(System.nanoTime() - startedAt, failure)
+        job.complete()
+    }
+}
+
+private class InlineStartContext(
+    val methodContext: CoroutineContext,
+    val callPriority: CallPriority,
+    val context: CoroutineContext?
+)
+
+private val inlineStartContexts = ConcurrentHashMap<MethodDescriptor<*, *>, InlineStartContext>()
+
+/**
+ * Returns the context that handlers of the method described by [methodDescriptor] are started inline against,
+ * or `null` if they need to be launched as a coroutine. It is built again whenever the method is given another
+ * [ServiceScope.methodContext] or [ServiceScope.callPriority].
+ */
+private fun ServiceScope.inlineStartContext(methodDescriptor: MethodDescriptor<*, *>): CoroutineContext? {
+    val methodContext = methodContext(methodDescriptor)
+    val callPriority = callPriority(methodDescriptor)
+    val cached = inlineStartContexts[methodDescriptor]
+    if (cached != null && cached.methodContext === methodContext && cached.callPriority == callPriority) {
+        return cached.context
+    }
+
+    var context = newMethodRpcContext(methodContext, methodDescriptor, callPriority)
+    // Launched coroutines run on the default dispatcher unless their context has one
+    if (context[ContinuationInterceptor] == null) {
+        context += Dispatchers.Default
+    }
+    val canStartInline = context[Job] == null &&
+        context.fold(true) { canStart, element -> canStart && element !is ThreadContextElement<*> }
+
+    val startContext = InlineStartContext(methodContext, callPriority, if (canStartInline) context else null)
+    inlineStartContexts[methodDescriptor] = startContext
+    return startContext.context
+}
+
+@Suppress("UNCHECKED_CAST")
+private fun <RespT> invokeBlock(): suspend (suspend () -> RespT) -> RespT =
+    InvokeBlock as suspend (suspend () -> RespT) -> RespT
+
+private val InvokeBlock: suspend (suspend () -> Any?) -> Any? = { block -> block() }
+
 public fun <ReqT, RespT> ServiceScope.serverCallServerStreaming(
     methodDescriptor: MethodDescriptor<ReqT, RespT>,
     responseObserver: StreamObserver<RespT>,
     block: suspend (SendChannel<RespT>) -> Unit
 ) {
-    val responseChannel = Channel<RespT>()
-    val serverCallObserver = responseObserver as ServerCallStreamObserver<RespT>
-    with(newRpcScope(initialContext, methodDescriptor)) {
-        bindToClientCancellation(serverCallObserver)
-        val outboundMessageHandler = applyOutboundFlowControl(serverCallObserver,responseChannel)
-
-        attachOutboundChannelCompletionHandler(
-            serverCallObserver, responseChannel,
-            onSuccess = { outboundMessageHandler.close() }
-        )
+    val concurrencyLimiter = concurrencyLimiter(methodDescriptor)
+    if (!concurrencyLimiter.tryAdmit(methodDescriptor, responseObserver)) return
+
+    concurrencyLimiter.setUpAdmittedCall { onHandlerLaunched ->
+        val responseChannel = callBufferPolicy(methodDescriptor)
+            .newOutboundCallChannel(methodDescriptor.responseMarshaller)
+        val serverCallObserver = responseObserver as ServerCallStreamObserver<RespT>
+        val callTracer = callInstrumentation.newCallTracer(methodDescriptor)
+        val callRelease = OutboundStreamRelease(concurrencyLimiter)
+        with(newServerRpcScope(methodDescriptor)) {
+            bindToClientCancellation(serverCallObserver)
+            launchOutboundWriter(
+                serverCallObserver, responseChannel,
+                onStall = callTracer::onOutboundStall,
+                idleTimeoutMillis = idleStreamTimeoutMillis(methodDescriptor),
+                onCompleted = callRelease::onWriterCompleted
+            )
 
-        launch(start = CoroutineStart.ATOMIC) {
-            try{
-                block(responseChannel)
-                responseChannel.close()
-            }catch (e: Throwable){
-                val rpcError = e.toRpcException()
-                serverCallObserver.completeSafely(rpcError)
-                responseChannel.close(rpcError)
-            }finally {
-                outboundMessageHandler.close()
+            launch(start = CoroutineStart.ATOMIC) {
+                var failure: Throwable? = null
+                try{
+                    block(responseChannel)
+                    responseChannel.close()
+                }catch (e: Throwable){
+                    failure = e
+                    val rpcError = e.toRpcException()
+                    serverCallObserver.completeSafely(rpcError)
+                    responseChannel.close(rpcError)
+                }finally {
+                    callTracer.onCallClosed(failure)
+                    callRelease.onHandlerCompleted(failure)
+                }
             }
-        }
+            onHandlerLaunched()
 
-        bindScopeCompletionToObserver(serverCallObserver)
+            bindScopeCompletionToObserver(serverCallObserver)
+        }
     }
 }
 
@@ -97,45 +313,56 @@ public fun <ReqT, RespT> ServiceScope.serverCallClientStreaming(
     responseObserver: StreamObserver<RespT>,
     block: suspend (ReceiveChannel<ReqT>) -> RespT
 ): StreamObserver<ReqT> {
+    val concurrencyLimiter = concurrencyLimiter(methodDescriptor)
+    if (!concurrencyLimiter.tryAdmit(methodDescriptor, responseObserver)) return rejectedCallObserver()
 
-    val activeInboundJobCount = AtomicInteger()
-    val inboundChannel = Channel<ReqT>()
-    val serverCallObserver = (responseObserver as ServerCallStreamObserver<RespT>)
-        .apply { applyInboundFlowControl(inboundChannel, activeInboundJobCount) }
-
-    with(newRpcScope(initialContext, methodDescriptor)) rpcScope@ {
-        bindToClientCancellation(serverCallObserver)
-
-        val requestChannel = ServerRequestStreamChannel(
-            coroutineContext = coroutineContext,
-            inboundChannel = inboundChannel,
-            transientInboundMessageCount = activeInboundJobCount,
-            callStreamObserver = serverCallObserver,
-            onErrorHandler = {
-                // Call cancellation already cancels the coroutine scope
-                // and closes the response stream. So we dont need to
-                // do anything in this case.
-                if(!serverCallObserver.isCancelled) {
-                    this@rpcScope.cancel()
-                    responseObserver.completeSafely(it)
+    concurrencyLimiter.setUpAdmittedCall { onHandlerLaunched ->
+        val inboundRequestWindow = newServerRequestWindow(methodDescriptor)
+        val inboundChannel = inboundRequestWindow.newInboundChannel<ReqT>()
+        val serverCallObserver = (responseObserver as ServerCallStreamObserver<RespT>)
+            .apply { applyInboundFlowControl(inboundChannel, inboundRequestWindow) }
+        val callTracer = callInstrumentation.newCallTracer(methodDescriptor)
+
+        with(newServerRpcScope(methodDescriptor)) rpcScope@ {
+            bindToClientCancellation(serverCallObserver)
+
+            val requestChannel = ServerRequestStreamChannel(
+                coroutineContext = coroutineContext,
+                inboundRequestWindow = inboundRequestWindow,
+                inboundChannel = inboundChannel,
+                callStreamObserver = serverCallObserver,
+                callTracer = callTracer,
+                onErrorHandler = {
+                    // Call cancellation already cancels the coroutine scope
+                    // and closes the response stream. So we dont need to
+                    // do anything in this case.
+                    if(!serverCallObserver.isCancelled) {
+                        this@rpcScope.cancel()
+                        responseObserver.completeSafely(it)
+                    }
                 }
-            }
-        )
+            )
 
-        launch(start = CoroutineStart.ATOMIC) {
-            try {
-                responseObserver.onNext(block(requestChannel))
-                responseObserver.onCompleted()
-            } catch (e: Throwable) {
-                responseObserver.completeSafely(e)
-            } finally {
-                if (!requestChannel.isClosedForReceive) {
-                    requestChannel.cancel()
+            launch(start = CoroutineStart.ATOMIC) {
+                var failure: Throwable? = null
+                try {
+                    responseObserver.onNext(block(requestChannel))
+                    responseObserver.onCompleted()
+                } catch (e: Throwable) {
+                    failure = e
+                    responseObserver.completeSafely(e)
+                } finally {
+                    if (!requestChannel.isClosedForReceive) {
+                        requestChannel.cancel()
+                    }
+                    callTracer.onCallClosed(failure)
+                    concurrencyLimiter.release(null, failure)
                 }
             }
-        }
+            onHandlerLaunched()
 
-        return requestChannel
+            return requestChannel
+        }
     }
 }
 
@@ -146,57 +373,284 @@ public fun <ReqT, RespT> ServiceScope.serverCallBidiStreaming(
     responseObserver: StreamObserver<RespT>,
     block: suspend (ReceiveChannel<ReqT>, SendChannel<RespT>) -> Unit
 ): StreamObserver<ReqT> {
+    val concurrencyLimiter = concurrencyLimiter(methodDescriptor)
+    if (!concurrencyLimiter.tryAdmit(methodDescriptor, responseObserver)) return rejectedCallObserver()
 
-    val responseChannel = Channel<RespT>()
-    val serverCallObserver = (responseObserver as ServerCallStreamObserver<RespT>)
-        .apply { disableAutoInboundFlowControl() }
-
-    with(newRpcScope(initialContext, methodDescriptor)) rpcScope@ {
-        bindToClientCancellation(serverCallObserver)
-        val outboundMessageHandler = applyOutboundFlowControl(serverCallObserver,responseChannel)
-        val requestChannel = ServerRequestStreamChannel<ReqT>(
-            coroutineContext = coroutineContext,
-            callStreamObserver = serverCallObserver,
-            onErrorHandler = {
-                // Call cancellation already cancels the coroutine scope
-                // and closes the response stream. So we dont need to
-                // do anything in this case.
-                if(!serverCallObserver.isCancelled) {
-                    // In the event of a request error, we
-                    // need to close the responseChannel before
-                    // cancelling the rpcScope.
-                    responseObserver.completeSafely(it)
-                    responseChannel.close(it)
-                    this@rpcScope.cancel()
+    concurrencyLimiter.setUpAdmittedCall { onHandlerLaunched ->
+
+        val responseChannel = callBufferPolicy(methodDescriptor)
+            .newOutboundCallChannel(methodDescriptor.responseMarshaller)
+        val inboundRequestWindow = newServerRequestWindow(methodDescriptor)
+        val serverCallObserver = (responseObserver as ServerCallStreamObserver<RespT>)
+            .apply { disableAutoInboundFlowControl() }
+        val callTracer = callInstrumentation.newCallTracer(methodDescriptor)
+        val callRelease = OutboundStreamRelease(concurrencyLimiter)
+
+        with(newServerRpcScope(methodDescriptor)) rpcScope@ {
+            bindToClientCancellation(serverCallObserver)
+            launchOutboundWriter(
+                serverCallObserver, responseChannel,
+                onStall = callTracer::onOutboundStall,
+                idleTimeoutMillis = idleStreamTimeoutMillis(methodDescriptor),
+                onCompleted = callRelease::onWriterCompleted
+            )
+            val requestChannel = ServerRequestStreamChannel<ReqT>(
+                coroutineContext = coroutineContext,
+                inboundRequestWindow = inboundRequestWindow,
+                callStreamObserver = serverCallObserver,
+                callTracer = callTracer,
+                onErrorHandler = {
+                    // Call cancellation already cancels the coroutine scope
+                    // and closes the response stream. So we dont need to
+                    // do anything in this case.
+                    if(!serverCallObserver.isCancelled) {
+                        // In the event of a request error, we
+                        // need to close the responseChannel before
+                        // cancelling the rpcScope.
+                        responseObserver.completeSafely(it)
+                        responseChannel.close(it)
+                        this@rpcScope.cancel()
+                    }
+                }
+            )
+
+            launch(start = CoroutineStart.ATOMIC) {
+                serverCallObserver.request(inboundRequestWindow.prefetch)
+                var failure: Throwable? = null
+                try {
+                    block(requestChannel, responseChannel)
+                    responseChannel.close()
+                } catch (e: Throwable) {
+                    failure = e
+                    val rpcError = e.toRpcException()
+                    serverCallObserver.completeSafely(rpcError)
+                    responseChannel.close(rpcError)
+                } finally {
+                    if (!requestChannel.isClosedForReceive) {
+                        requestChannel.cancel()
+                    }
+                    callTracer.onCallClosed(failure)
+                    callRelease.onHandlerCompleted(failure)
                 }
             }
-        )
+            onHandlerLaunched()
 
-        attachOutboundChannelCompletionHandler(
-            serverCallObserver, responseChannel,
-            onSuccess = { outboundMessageHandler.close() }
-        )
+            bindScopeCompletionToObserver(serverCallObserver)
+            return requestChannel
+        }
+    }
+}
+
+/**
+ * Executes a server streaming rpc whose responses are produced by the [Flow] returned from [block].
+ *
+ * The flow is collected directly into the call, suspending whenever the transport is not ready to
+ * accept another message. Completion of the flow completes the call, while any exception thrown during
+ * collection is returned to the client as an error.
+ */
+public fun <ReqT, RespT> ServiceScope.serverCallServerStreamingFlow(
+    methodDescriptor: MethodDescriptor<ReqT, RespT>,
+    responseObserver: StreamObserver<RespT>,
+    block: () -> Flow<RespT>
+) {
+    val concurrencyLimiter = concurrencyLimiter(methodDescriptor)
+    if (!concurrencyLimiter.tryAdmit(methodDescriptor, responseObserver)) return
+
+    concurrencyLimiter.setUpAdmittedCall { onHandlerLaunched ->
+        val serverCallObserver = responseObserver as ServerCallStreamObserver<RespT>
+        val callTracer = callInstrumentation.newCallTracer(methodDescriptor)
+        val readiness = CallReadiness(serverCallObserver, onStall = callTracer::onOutboundStall)
+        with(newServerRpcScope(methodDescriptor)) {
+            bindToClientCancellation(serverCallObserver)
+            launch(start = CoroutineStart.ATOMIC) {
+                var failure: Throwable? = null
+                try {
+                    serverCallObserver.sendAll(block(), readiness)
+                    serverCallObserver.onCompleted()
+                } catch (e: Throwable) {
+                    failure = e
+                    serverCallObserver.completeSafely(e)
+                } finally {
+                    callTracer.onCallClosed(failure)
+                    concurrencyLimiter.release(null, failure)
+                }
+            }
+            onHandlerLaunched()
+        }
+    }
+}
 
-        launch(start = CoroutineStart.ATOMIC) {
-            serverCallObserver.request(1)
-            try {
-                block(requestChannel, responseChannel)
-                responseChannel.close()
-            } catch (e: Throwable) {
-                val rpcError = e.toRpcException()
-                serverCallObserver.completeSafely(rpcError)
-                responseChannel.close(rpcError)
-            } finally {
-                if (!requestChannel.isClosedForReceive) {
-                    requestChannel.cancel()
+/**
+ * Executes a bidi streaming rpc whose responses are produced by the [Flow] returned from [block].
+ *
+ * The request flow passed to [block] can only be collected once. Request messages are fetched from
+ * the client as the flow is collected, while responses are written to the call as described
+ * in [serverCallServerStreamingFlow].
+ */
+@UseExperimental(ExperimentalCoroutinesApi::class)
+public fun <ReqT, RespT> ServiceScope.serverCallBidiStreamingFlow(
+    methodDescriptor: MethodDescriptor<ReqT, RespT>,
+    responseObserver: StreamObserver<RespT>,
+    block: (Flow<ReqT>) -> Flow<RespT>
+): StreamObserver<ReqT> {
+    val concurrencyLimiter = concurrencyLimiter(methodDescriptor)
+    if (!concurrencyLimiter.tryAdmit(methodDescriptor, responseObserver)) return rejectedCallObserver()
+
+    concurrencyLimiter.setUpAdmittedCall { onHandlerLaunched ->
+
+        val inboundRequestWindow = newServerRequestWindow(methodDescriptor)
+        val serverCallObserver = (responseObserver as ServerCallStreamObserver<RespT>)
+            .apply { disableAutoInboundFlowControl() }
+        val callTracer = callInstrumentation.newCallTracer(methodDescriptor)
+        val readiness = CallReadiness(serverCallObserver, onStall = callTracer::onOutboundStall)
+
+        with(newServerRpcScope(methodDescriptor)) rpcScope@ {
+            bindToClientCancellation(serverCallObserver)
+            val requestChannel = ServerRequestStreamChannel<ReqT>(
+                coroutineContext = coroutineContext,
+                inboundRequestWindow = inboundRequestWindow,
+                callStreamObserver = serverCallObserver,
+                callTracer = callTracer,
+                onErrorHandler = {
+                    // Call cancellation already cancels the coroutine scope
+                    // and closes the response stream. So we dont need to
+                    // do anything in this case.
+                    if(!serverCallObserver.isCancelled) {
+                        responseObserver.completeSafely(it)
+                        this@rpcScope.cancel()
+                    }
+                }
+            )
+
+            launch(start = CoroutineStart.ATOMIC) {
+                serverCallObserver.request(inboundRequestWindow.prefetch)
+                var failure: Throwable? = null
+                try {
+                    serverCallObserver.sendAll(block(requestChannel.consumeAsFlow()), readiness)
+                    serverCallObserver.onCompleted()
+                } catch (e: Throwable) {
+                    failure = e
+                    serverCallObserver.completeSafely(e)
+                } finally {
+                    if (!requestChannel.isClosedForReceive) {
+                        requestChannel.cancel()
+                    }
+                    callTracer.onCallClosed(failure)
+                    concurrencyLimiter.release(null, failure)
                 }
-                outboundMessageHandler.close()
             }
+            onHandlerLaunched()
+
+            return requestChannel
+        }
+    }
+}
+
+private suspend fun <T> CallStreamObserver<T>.sendAll(messages: Flow<T>, readiness: CallReadiness) {
+    messages.collect { message ->
+        readiness.awaitReady()
+        onNext(message)
+    }
+}
+
+/**
+ * Reserves a slot for a new call in the receiver limiter, closing [responseObserver]
+ * with [Status.RESOURCE_EXHAUSTED] if the call is not admitted.
+ *
+ * Calls whose deadline expired while they were queued are closed with [Status.DEADLINE_EXCEEDED]
+ * without taking a slot, since nobody is waiting for their response anymore.
+ */
+private fun ConcurrencyLimiter.tryAdmit(
+    methodDescriptor: MethodDescriptor<*, *>,
+    responseObserver: StreamObserver<*>
+): Boolean {
+    if (Context.current().deadline?.isExpired == true) {
+        responseObserver.onError(
+            Status.DEADLINE_EXCEEDED
+                .withDescription("Deadline expired before method ${methodDescriptor.fullMethodName} was started")
+                .asRuntimeException()
+        )
+        return false
+    }
+
+    if (tryAcquire()) return true
+
+    responseObserver.onError(
+        Status.RESOURCE_EXHAUSTED
+            .withDescription("Concurrency limit reached for method ${methodDescriptor.fullMethodName}")
+            .asRuntimeException()
+    )
+    return false
+}
+
+/**
+ * Runs the [setup] of a call admitted by the receiver limiter. Once the handler launched by [setup] is running,
+ * the call releases its own slot when it completes, and [setup] reports that launch by invoking the function it is given.
+ * If [setup] fails before then, the slot is released here instead, so that it is not leaked.
+ */
+private inline fun <R> ConcurrencyLimiter.setUpAdmittedCall(setup: (onHandlerLaunched: () -> Unit) -> R): R {
+    var isHandlerLaunched = false
+    try {
+        return setup { isHandlerLaunched = true }
+    } catch (e: Throwable) {
+        if (!isHandlerLaunched) {
+            release(null, e)
+        }
+        throw e
+    }
+}
+
+/**
+ * Releases the slot of a call with an outbound writer once both its handler and its writer have completed,
+ * since the writer can still be draining buffered responses after the handler has returned.
+ */
+private class OutboundStreamRelease(private val concurrencyLimiter: ConcurrencyLimiter) {
+
+    private val pendingCount = AtomicInteger(2)
+
+    @Volatile
+    private var failure: Throwable? = null
+
+    fun onHandlerCompleted(failure: Throwable?) {
+        this.failure = failure
+        onCompleted()
+    }
+
+    fun onWriterCompleted() {
+        onCompleted()
+    }
+
+    private fun onCompleted() {
+        if (pendingCount.decrementAndGet() == 0) {
+            concurrencyLimiter.release(null, failure)
         }
+    }
+}
 
-        bindScopeCompletionToObserver(serverCallObserver)
-        return requestChannel
+/**
+ * Request observer for calls rejected before they were started. Any
+ * request messages still delivered by the transport are dropped.
+ */
+@Suppress("UNCHECKED_CAST")
+private fun <ReqT> rejectedCallObserver(): StreamObserver<ReqT> =
+    RejectedCallObserver as StreamObserver<ReqT>
+
+private object RejectedCallObserver : StreamObserver<Any?> {
+    override fun onNext(value: Any?) {}
+    override fun onError(t: Throwable) {}
+    override fun onCompleted() {}
+}
+
+/**
+ * The server call handler has already requested the first message by the time a call is dispatched
+ * to the service, so the inbound channel needs room for one message more than the window itself.
+ */
+private fun ServiceScope.newServerRequestWindow(methodDescriptor: MethodDescriptor<*, *>): InboundRequestWindow {
+    val prefetch = inboundPrefetch(methodDescriptor)
+    require(prefetch > 0) {
+        "Inbound prefetch of ${methodDescriptor.fullMethodName} must be greater than zero, but was $prefetch"
     }
+    return InboundRequestWindow(prefetch = prefetch, capacity = prefetch + 1)
 }
 
 public fun <T> serverCallUnimplementedUnary(methodDescriptor: MethodDescriptor<*, *>): T =
@@ -206,6 +660,9 @@ public fun serverCallUnimplementedStream(methodDescriptor: MethodDescriptor<*, *
     responseChannel.close(methodDescriptor.getUnimplementedException())
 }
 
+public fun <T> serverCallUnimplementedFlow(methodDescriptor: MethodDescriptor<*, *>): Flow<T> =
+    flow { throw methodDescriptor.getUnimplementedException() }
+
 private fun MethodDescriptor<*, *>.getUnimplementedException(): StatusRuntimeException =
     Status.UNIMPLEMENTED
         .withDescription("Method $fullMethodName is unimplemented")
@@ -224,3 +681,9 @@ private fun CoroutineScope.bindScopeCompletionToObserver(streamObserver: StreamO
         streamObserver.completeSafely(it)
     }
 }
+
+/**
+ * Returns the scope of an incoming call of the method described by [methodDescriptor].
+ */
+private fun ServiceScope.newServerRpcScope(methodDescriptor: MethodDescriptor<*, *>): CoroutineScope =
+    newRpcScope(methodContext(methodDescriptor), methodDescriptor, callPriority = callPriority(methodDescriptor))
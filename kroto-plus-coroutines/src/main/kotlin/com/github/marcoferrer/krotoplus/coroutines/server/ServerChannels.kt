@@ -17,6 +17,8 @@
 package com.github.marcoferrer.krotoplus.coroutines.server
 
 import com.github.marcoferrer.krotoplus.coroutines.call.FlowControlledInboundStreamObserver
+import com.github.marcoferrer.krotoplus.coroutines.call.InboundRequestWindow
+import com.github.marcoferrer.krotoplus.coroutines.call.LazyMessageParser
 import io.grpc.stub.ServerCallStreamObserver
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.channels.Channel
@@ -27,20 +29,32 @@ import kotlin.coroutines.CoroutineContext
 
 internal class ServerRequestStreamChannel<ReqT>(
     override val coroutineContext: CoroutineContext,
-    override val inboundChannel: Channel<ReqT> = Channel(),
+    override val inboundRequestWindow: InboundRequestWindow = InboundRequestWindow(InboundRequestWindow.DEFAULT_PREFETCH),
+    override val inboundChannel: Channel<ReqT> = inboundRequestWindow.newInboundChannel(),
     override val transientInboundMessageCount: AtomicInteger = AtomicInteger(),
     override val callStreamObserver: ServerCallStreamObserver<*>,
+    private val callTracer: ServerCallTracer = ServerCallTracer.NONE,
     private val onErrorHandler: ((Throwable) -> Unit)? = null
-) : ReceiveChannel<ReqT> by inboundChannel,
+) : ReceiveChannel<ReqT> by inboundRequestWindow.creditOnConsumption(inboundChannel),
     FlowControlledInboundStreamObserver<ReqT>,
     CoroutineScope {
 
     override val isInboundCompleted: AtomicBoolean = AtomicBoolean()
 
+    override var lazyMessageParser: LazyMessageParser<ReqT>? = null
+
+    init {
+        inboundRequestWindow.bind(callStreamObserver)
+    }
+
     override fun onNext(value: ReqT) = onNextWithBackPressure(value)
 
+    override fun onInboundMessage(bufferedCount: Int, transientCount: Int) {
+        callTracer.onInboundMessage(bufferedCount, transientCount)
+    }
+
     override fun onError(t: Throwable) {
-        inboundChannel.close(t)
+        closeInboundWithError(t)
         onErrorHandler?.invoke(t)
     }
 }
\ No newline at end of file
@@ -16,6 +16,9 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.server
 
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferPolicy
+import com.github.marcoferrer.krotoplus.coroutines.CallPriority
+import io.grpc.MethodDescriptor
 import kotlinx.coroutines.CoroutineScope
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.EmptyCoroutineContext
@@ -62,4 +65,122 @@ interface ServiceScope {
     val initialContext: CoroutineContext
         get() = EmptyCoroutineContext
 
+    /**
+     * The context that will be used to create a new [CoroutineScope] for every incoming
+     * request of the rpc described by [methodDescriptor]. Overriding this allows individual
+     * methods to run on their own dispatcher, so that a slow method cannot starve the
+     * threads used by the rest of the service.
+     *
+     * ```
+     * class GreeterServiceImpl : GreeterCoroutineGrpc.GreeterImplBase() {
+     *
+     *     private val cpuBoundDispatcher = Dispatchers.Default.limitParallelism(2)
+     *
+     *     override fun methodContext(methodDescriptor: MethodDescriptor<*, *>): CoroutineContext =
+     *         when (methodDescriptor) {
+     *             GreeterGrpc.getSayHelloMethod() -> cpuBoundDispatcher
+     *             GreeterGrpc.getSayHelloStreamingMethod() -> Dispatchers.IO
+     *             else -> initialContext
+     *         }
+     * }
+     * ```
+     *
+     * This value defaults to [initialContext]
+     */
+    fun methodContext(methodDescriptor: MethodDescriptor<*, *>): CoroutineContext =
+        initialContext
+
+    /**
+     * The number of request messages every incoming streaming rpc will request
+     * ahead of their consumption by the service implementation.
+     *
+     * This value defaults to `1`
+     */
+    val inboundPrefetch: Int
+        get() = 1
+
+    /**
+     * The number of request messages each incoming streaming request of the rpc described by [methodDescriptor]
+     * will request ahead of their consumption by the service implementation. Overriding this allows methods
+     * receiving many small messages to use a larger window than the rest of the service. Must be greater than zero.
+     *
+     * This value defaults to [inboundPrefetch]
+     */
+    fun inboundPrefetch(methodDescriptor: MethodDescriptor<*, *>): Int =
+        inboundPrefetch
+
+    /**
+     * The [CallBufferPolicy] applied to response messages of the server and bidi streaming
+     * rpc described by [methodDescriptor]. Overriding this allows individual methods to
+     * let their producers run ahead of the network writer. Methods streaming state snapshots
+     * can use [CallBufferPolicy.CONFLATED], so that slow clients only receive the latest one.
+     *
+     * This value defaults to [CallBufferPolicy.DEFAULT]
+     */
+    fun callBufferPolicy(methodDescriptor: MethodDescriptor<*, *>): CallBufferPolicy =
+        CallBufferPolicy.DEFAULT
+
+    /**
+     * The [CallPriority] of incoming requests of the rpc described by [methodDescriptor]. It is added to the
+     * context of each call, and determines how many responses a streaming call writes before yielding to
+     * other calls. Returning [CallPriority.BULK] for methods streaming large exports keeps them from
+     * holding threads that latency sensitive methods are waiting on.
+     *
+     * A priority added to [methodContext] is used for methods returning [CallPriority.DEFAULT].
+     *
+     * This value defaults to [CallPriority.DEFAULT]
+     */
+    fun callPriority(methodDescriptor: MethodDescriptor<*, *>): CallPriority =
+        CallPriority.DEFAULT
+
+    /**
+     * The time, in milliseconds, after which the response writer of an idle server or bidi streaming rpc described
+     * by [methodDescriptor] hibernates. A stream is idle once nothing has been written to it for that long and no
+     * responses are buffered. Hibernating streams hold no writer coroutine until their next response, readiness
+     * signal or completion, which suits services holding many long lived subscriptions that rarely send.
+     *
+     * This value defaults to `0`, which disables hibernation
+     */
+    fun idleStreamTimeoutMillis(methodDescriptor: MethodDescriptor<*, *>): Long = 0L
+
+    /**
+     * The [ServerCallInstrumentation] notified of the lifecycle, inbound buffering and
+     * outbound back-pressure of every incoming rpc.
+     *
+     * This value defaults to [ServerCallInstrumentation.NONE]
+     */
+    val callInstrumentation: ServerCallInstrumentation
+        get() = ServerCallInstrumentation.NONE
+
+    /**
+     * The [ConcurrencyLimiter] admitting incoming requests of the rpc described by [methodDescriptor].
+     * Requests beyond its limit are rejected with [io.grpc.Status.RESOURCE_EXHAUSTED] before a coroutine is
+     * created for them. Return the same limiter for several methods to give them a shared limit.
+     *
+     * ```
+     * private val serviceLimiter = AimdConcurrencyLimiter(initialLimit = 50)
+     *
+     * override fun concurrencyLimiter(methodDescriptor: MethodDescriptor<*, *>): ConcurrencyLimiter =
+     *     serviceLimiter
+     * ```
+     *
+     * This value defaults to [ConcurrencyLimiter.NONE]
+     */
+    fun concurrencyLimiter(methodDescriptor: MethodDescriptor<*, *>): ConcurrencyLimiter =
+        ConcurrencyLimiter.NONE
+
+    /**
+     * Whether unary requests of the rpc described by [methodDescriptor] start their handler inline, on the
+     * transport thread that received them. Handlers that complete without suspending, such as those answering
+     * from a cache, then complete the call without a dispatch, and without an rpc scope or coroutine being
+     * created for it. Handlers that do suspend are resumed by the dispatcher of [methodContext].
+     *
+     * See [serverCallUnary] for the contexts that still need a coroutine to be launched for each call.
+     *
+     * Only enable this for methods whose handlers do not block before their first suspension.
+     *
+     * This value defaults to `false`
+     */
+    fun startUndispatched(methodDescriptor: MethodDescriptor<*, *>): Boolean = false
+
 }
\ No newline at end of file
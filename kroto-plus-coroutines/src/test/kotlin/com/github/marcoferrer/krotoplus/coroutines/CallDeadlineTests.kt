@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import io.grpc.Context
+import io.grpc.Deadline
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import org.junit.Rule
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.coroutineContext
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class CallDeadlineTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    private var serverDeadline: Deadline? = null
+
+    private val stub by lazy {
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override suspend fun sayHello(request: HelloRequest): HelloReply {
+                serverDeadline = Context.current().deadline
+                return HelloReply.getDefaultInstance()
+            }
+        })
+        GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+    }
+
+    @Test
+    fun `Call deadline is sent to the server`() {
+        runBlocking {
+            withCallDeadline(10, TimeUnit.SECONDS) {
+                stub.sayHello(HelloRequest.getDefaultInstance())
+            }
+        }
+
+        val deadline = assertNotNull(serverDeadline)
+        assertTrue(deadline.timeRemaining(TimeUnit.SECONDS) in 5..10, deadline.toString())
+    }
+
+    @Test
+    fun `Calls without a call deadline are unchanged`() {
+        runBlocking { stub.sayHello(HelloRequest.getDefaultInstance()) }
+
+        assertNull(serverDeadline)
+    }
+
+    @Test
+    fun `Nearer call options deadline is used`() {
+        runBlocking {
+            withCallDeadline(10, TimeUnit.SECONDS) {
+                stub.withDeadlineAfter(1, TimeUnit.SECONDS).sayHello(HelloRequest.getDefaultInstance())
+            }
+        }
+
+        val deadline = assertNotNull(serverDeadline)
+        assertTrue(deadline.timeRemaining(TimeUnit.SECONDS) <= 1, deadline.toString())
+    }
+
+    @Test
+    fun `Nested call deadlines keep the nearer deadline`() {
+        runBlocking {
+            withCallDeadline(1, TimeUnit.SECONDS) {
+                val outer = coroutineContext[CallDeadlineElement]!!.deadline
+                withCallDeadline(10, TimeUnit.SECONDS) {
+                    assertEquals(outer, coroutineContext[CallDeadlineElement]!!.deadline)
+                    stub.sayHello(HelloRequest.getDefaultInstance())
+                }
+            }
+        }
+
+        val deadline = assertNotNull(serverDeadline)
+        assertTrue(deadline.timeRemaining(TimeUnit.SECONDS) <= 1, deadline.toString())
+    }
+
+    @Test
+    fun `Call deadline times out the block`() {
+        assertFailsWith<TimeoutCancellationException> {
+            runBlocking {
+                withCallDeadline(50) { delay(10_000) }
+            }
+        }
+    }
+}
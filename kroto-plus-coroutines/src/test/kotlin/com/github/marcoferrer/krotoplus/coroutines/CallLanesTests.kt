@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.examples.helloworld.send
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.CoroutineContext
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class CallLanesTests {
+
+    @Test
+    fun `Coroutines resumed on their lane are not dispatched`() {
+        val lanes = CallLanes.newFixedLanes(2)
+        try {
+            runBlocking {
+                val lane = lanes.currentLane()
+                val resumed = CompletableDeferred<Unit>()
+                val threadNames = Collections.synchronizedList(mutableListOf<String>())
+
+                val job = launch(lane) {
+                    threadNames += Thread.currentThread().name
+                    resumed.await()
+                    threadNames += Thread.currentThread().name
+                }
+                withContext(lane) {
+                    // Completing the deferred resumes the coroutine before this call returns
+                    resumed.complete(Unit)
+                    assertEquals(2, threadNames.size)
+                }
+                job.join()
+
+                assertEquals(1, threadNames.toSet().size)
+                assertTrue(threadNames.first().startsWith("grpc-call-lane"), threadNames.first())
+            }
+        } finally {
+            lanes.close()
+        }
+    }
+
+    @Test
+    fun `Threads outside of the lanes keep their assigned lane`() {
+        val lanes = CallLanes.newFixedLanes(4)
+        try {
+            val lane = lanes.currentLane()
+            assertSame(lane, lanes.currentLane())
+
+            runBlocking {
+                withContext(lane) {
+                    assertSame(lane, lanes.currentLane())
+                }
+            }
+
+            val executedOn = CompletableDeferred<String>()
+            lanes.execute { executedOn.complete(Thread.currentThread().name) }
+            val laneThread = runBlocking { withContext(lane) { Thread.currentThread().name } }
+            assertEquals(laneThread, runBlocking { executedOn.await() })
+        } finally {
+            lanes.close()
+        }
+    }
+
+    @Test
+    fun `Lanes can be backed by existing executors`() {
+        val executors = List(2) { Executors.newSingleThreadExecutor() }
+        val lanes = CallLanes.fromSingleThreadExecutors(executors)
+        try {
+            assertEquals(2, lanes.size)
+            val threadName = runBlocking {
+                withContext(lanes.currentLane()) { Thread.currentThread().name }
+            }
+            assertTrue(threadName.startsWith("pool-"), threadName)
+
+            lanes.close()
+            executors.forEach { assertFalse(it.isShutdown) }
+        } finally {
+            executors.forEach { it.shutdown() }
+        }
+    }
+
+    @Test
+    fun `Lanes can be created from one of their own executors`() {
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val lanes = executor.submit(Callable { CallLanes.fromSingleThreadExecutors(listOf(executor)) })
+                .get(5, TimeUnit.SECONDS)
+            val lane = executor.submit(Callable { lanes.currentLane() }).get(5, TimeUnit.SECONDS)
+            val isDispatchNeeded = executor
+                .submit(Callable { lane.isDispatchNeeded(lane) })
+                .get(5, TimeUnit.SECONDS)
+
+            assertSame(lanes.currentLane(), lane)
+            assertFalse(isDispatchNeeded)
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    fun `Rpc events and coroutines share the lane of their call`() {
+        val lanes = CallLanes.newFixedLanes(2)
+        val serverName = InProcessServerBuilder.generateName()
+        val handlerThreads = Collections.synchronizedSet(mutableSetOf<String>())
+        val server = InProcessServerBuilder.forName(serverName)
+            .executor(lanes)
+            .addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+                override val initialContext: CoroutineContext
+                    get() = lanes.currentLane()
+
+                override suspend fun sayHelloStreaming(
+                    requestChannel: ReceiveChannel<HelloRequest>,
+                    responseChannel: SendChannel<HelloReply>
+                ) {
+                    for (request in requestChannel) {
+                        handlerThreads += Thread.currentThread().name
+                        responseChannel.send { message = request.name }
+                    }
+                }
+            })
+            .build()
+            .start()
+        val channel = InProcessChannelBuilder.forName(serverName).build()
+
+        try {
+            val results = runBlocking {
+                val stub = GreeterCoroutineGrpc.newStub(channel).withCoroutineContext()
+                val (requestChannel, responseChannel) = stub.sayHelloStreaming()
+                launch {
+                    repeat(5) { requestChannel.send { name = "name $it" } }
+                    requestChannel.close()
+                }
+                responseChannel.toList()
+            }
+
+            assertEquals((0 until 5).map { "name $it" }, results.map { it.message })
+            assertEquals(1, handlerThreads.size)
+            assertTrue(handlerThreads.first().startsWith("grpc-call-lane"), handlerThreads.first())
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS)
+            lanes.close()
+        }
+    }
+
+    @Test
+    fun `Lane count must be positive`() {
+        assertFailsWith<IllegalArgumentException> {
+            CallLanes.newFixedLanes(0)
+        }
+    }
+}
@@ -26,6 +26,7 @@ import kotlin.coroutines.ContinuationInterceptor
 import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
 import kotlin.test.assertNotEquals
 
 @Suppress("DEPRECATION")
@@ -36,6 +37,41 @@ class CallOptionsTest {
         assertEquals(EmptyCoroutineContext, CallOptions.DEFAULT.getOption(CALL_OPTION_COROUTINE_CONTEXT))
     }
 
+    @Test
+    fun `Inbound prefetch call option defaults to one`(){
+        assertEquals(1, CallOptions.DEFAULT.getOption(CALL_OPTION_INBOUND_PREFETCH))
+    }
+
+    @Test
+    fun `Attaching inbound prefetch to stub`(){
+        val channel = mockk<Channel>()
+        val stub = TestStub(channel).withInboundPrefetch(16)
+        assertEquals(16, stub.callOptions.getOption(CALL_OPTION_INBOUND_PREFETCH))
+        assertFailsWith<IllegalArgumentException> { stub.withInboundPrefetch(0) }
+    }
+
+    @Test
+    fun `Buffer policy call option defaults to rendezvous`(){
+        assertEquals(CallBufferPolicy.DEFAULT, CallOptions.DEFAULT.getOption(CALL_OPTION_BUFFER_POLICY))
+        assertEquals(0, CallBufferPolicy.DEFAULT.capacity)
+    }
+
+    @Test
+    fun `Attaching buffer policy to stub`(){
+        val channel = mockk<Channel>()
+        val policy = CallBufferPolicy(capacity = 16, onBufferOverflow = CallBufferOverflow.DROP_OLDEST)
+        val stub = TestStub(channel).withBufferPolicy(policy)
+        assertEquals(policy, stub.callOptions.getOption(CALL_OPTION_BUFFER_POLICY))
+    }
+
+    @Test
+    fun `Attaching call priority to stub`(){
+        val channel = mockk<Channel>()
+        assertEquals(CallPriority.DEFAULT, CallOptions.DEFAULT.getOption(CALL_OPTION_CALL_PRIORITY))
+        val stub = TestStub(channel).withCallPriority(CallPriority.BULK)
+        assertEquals(CallPriority.BULK, stub.callOptions.getOption(CALL_OPTION_CALL_PRIORITY))
+    }
+
     @Test
     fun `Stub coroutineContext is populated via call option value`(){
         val channel = mockk<Channel>()
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import io.grpc.MethodDescriptor
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Rule
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import kotlin.coroutines.coroutineContext
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class CallPriorityTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    @Test
+    fun `Prioritized dispatcher runs interactive calls first without starving bulk calls`() {
+        val executor = Executors.newSingleThreadExecutor()
+        val dispatcher = executor.asCoroutineDispatcher().prioritizeCalls(1)
+        val order = Collections.synchronizedList(mutableListOf<CallPriority>())
+        val blocked = CountDownLatch(1)
+
+        try {
+            runBlocking {
+                // Keeps the only worker busy until every coroutine has been queued
+                launch(dispatcher) { blocked.await() }
+                repeat(10) { launch(dispatcher + CallPriority.BULK) { order += CallPriority.BULK } }
+                repeat(10) { launch(dispatcher + CallPriority.INTERACTIVE) { order += CallPriority.INTERACTIVE } }
+                blocked.countDown()
+            }
+        } finally {
+            executor.shutdown()
+        }
+
+        assertEquals(20, order.size)
+        assertEquals(CallPriority.INTERACTIVE, order.first())
+        val firstBulk = order.indexOf(CallPriority.BULK)
+        assertTrue(firstBulk in 1 until 10, "First bulk coroutine ran at $firstBulk")
+    }
+
+    @Test
+    fun `Service calls run at the priority of their method`() {
+        val priorities = Collections.synchronizedList(mutableListOf<CallPriority?>())
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+            override val initialContext = Dispatchers.Default
+
+            override fun callPriority(methodDescriptor: MethodDescriptor<*, *>): CallPriority =
+                if (methodDescriptor == GreeterGrpc.getSayHelloMethod())
+                    CallPriority.INTERACTIVE else CallPriority.DEFAULT
+
+            override suspend fun sayHello(request: HelloRequest): HelloReply {
+                priorities += coroutineContext[CallPriority]
+                return HelloReply.getDefaultInstance()
+            }
+        })
+
+        runBlocking {
+            GreeterCoroutineGrpc.newStub(grpcServerRule.channel).withCoroutineContext().sayHello { name = "name" }
+        }
+
+        assertEquals(listOf<CallPriority?>(CallPriority.INTERACTIVE), priorities)
+    }
+
+    @Test
+    fun `Parallelism must be positive`() {
+        assertFailsWith<IllegalArgumentException> {
+            Dispatchers.Default.prioritizeCalls(0)
+        }
+    }
+}
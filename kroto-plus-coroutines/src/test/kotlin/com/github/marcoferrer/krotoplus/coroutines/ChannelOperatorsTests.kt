@@ -0,0 +1,125 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.produce
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class ChannelOperatorsTests {
+
+    @Test
+    fun `Ordered results are sent in the order of their elements`() {
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+
+        val results = runBlocking(Dispatchers.Default) {
+            val destination = Channel<Int>(Channel.UNLIMITED)
+            produce { repeat(10) { send(it) } }
+                .mapParallelTo(destination, parallelism = 4) {
+                    val current = running.incrementAndGet()
+                    synchronized(maxRunning) {
+                        if (current > maxRunning.get()) maxRunning.set(current)
+                    }
+                    // Later elements complete first
+                    delay((10L - it) * 5)
+                    running.decrementAndGet()
+                    it * 2
+                }
+                .apply { close() }
+                .toList()
+        }
+
+        assertEquals((0 until 10).map { it * 2 }, results)
+        assertTrue(maxRunning.get() in 2..4, "Max parallelism was ${maxRunning.get()}")
+    }
+
+    @Test
+    fun `Unordered results are sent as they complete`() {
+        val results = runBlocking {
+            val destination = Channel<Int>(Channel.UNLIMITED)
+            produce { repeat(2) { send(it) } }
+                .mapParallelTo(destination, parallelism = 2, ordered = false) {
+                    if (it == 0) delay(100)
+                    it
+                }
+                .apply { close() }
+                .toList()
+        }
+
+        assertEquals(listOf(1, 0), results)
+    }
+
+    @Test
+    fun `Elements are not received while every slot is waiting on the destination`() {
+        val receivedCount = AtomicInteger()
+
+        runBlocking {
+            val source = produce {
+                repeat(10) {
+                    send(it)
+                    receivedCount.incrementAndGet()
+                }
+            }
+            val destination = Channel<Int>()
+            val job = launch {
+                source.mapParallelTo(destination, parallelism = 3) { it }
+                destination.close()
+            }
+
+            delay(100)
+            assertEquals(3, receivedCount.get())
+
+            assertEquals((0 until 10).toList(), destination.toList())
+            job.join()
+        }
+    }
+
+    @Test
+    fun `Failed transform cancels the receiver channel`() {
+        val source = Channel<Int>(Channel.UNLIMITED)
+        repeat(5) { source.offer(it) }
+
+        assertFailsWith<IllegalStateException> {
+            runBlocking {
+                source.mapParallelTo(Channel<Int>(Channel.UNLIMITED), parallelism = 2) {
+                    check(it != 2) { "Failed on $it" }
+                    it
+                }
+            }
+        }
+        assertTrue(source.isClosedForReceive)
+    }
+
+    @Test
+    fun `Parallelism must be positive`() {
+        assertFailsWith<IllegalArgumentException> {
+            runBlocking {
+                Channel<Int>().mapParallelTo(Channel(), parallelism = 0) { it }
+            }
+        }
+    }
+}
@@ -19,9 +19,11 @@ package com.github.marcoferrer.krotoplus.coroutines
 import io.grpc.Context
 import kotlinx.coroutines.*
 import org.junit.Test
+import kotlin.coroutines.EmptyCoroutineContext
 import kotlin.test.assertEquals
 import kotlin.test.assertNotEquals
 import kotlin.test.assertNull
+import kotlin.test.assertSame
 
 class GrpcContextElementTest {
 
@@ -72,4 +74,23 @@ class GrpcContextElementTest {
             }
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `Element skips attaching a context that is already current`() {
+        val previousContext = Context.current()
+        val ctx = previousContext.withValue(KEY_DATA, data)
+
+        val state = ctx.asContextElement().updateThreadContext(EmptyCoroutineContext)
+        assertSame(previousContext, state)
+        assertSame(ctx, Context.current())
+
+        val nestedElement = ctx.asContextElement()
+        val nestedState = nestedElement.updateThreadContext(EmptyCoroutineContext)
+        assertSame(ctx, nestedState)
+        nestedElement.restoreThreadContext(EmptyCoroutineContext, nestedState)
+        assertSame(ctx, Context.current())
+
+        ctx.asContextElement().restoreThreadContext(EmptyCoroutineContext, state)
+        assertSame(previousContext, Context.current())
+    }
+}
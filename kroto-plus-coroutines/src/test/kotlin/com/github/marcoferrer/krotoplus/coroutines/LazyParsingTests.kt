@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import com.github.marcoferrer.krotoplus.coroutines.call.mapMethods
+import com.github.marcoferrer.krotoplus.coroutines.call.withRequestMarshaller
+import com.github.marcoferrer.krotoplus.coroutines.client.clientCallBidiStreaming
+import com.github.marcoferrer.krotoplus.coroutines.client.clientCallServerStreamingFlow
+import io.grpc.CallOptions
+import io.grpc.MethodDescriptor
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import java.io.InputStream
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import kotlin.coroutines.CoroutineContext
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class LazyParsingTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    private val consumerDispatcher = Executors
+        .newSingleThreadExecutor { Thread(it, CONSUMER_THREAD_NAME) }
+        .asCoroutineDispatcher()
+
+    private val parsingThreads = ConcurrentLinkedQueue<String>()
+
+    private fun <T> MethodDescriptor.Marshaller<T>.recordingParsingThreads() =
+        object : MethodDescriptor.Marshaller<T> {
+            override fun stream(value: T): InputStream = this@recordingParsingThreads.stream(value)
+
+            override fun parse(stream: InputStream): T {
+                parsingThreads.add(Thread.currentThread().name)
+                return this@recordingParsingThreads.parse(stream)
+            }
+        }
+
+    private fun registerEchoService(initialContext: CoroutineContext) {
+        val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override val initialContext: CoroutineContext = initialContext
+
+            override suspend fun sayHelloStreaming(
+                requestChannel: ReceiveChannel<HelloRequest>,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                for (request in requestChannel) {
+                    responseChannel.send(HelloReply.newBuilder().setMessage(request.name).build())
+                }
+            }
+
+            override suspend fun sayHelloServerStreaming(
+                request: HelloRequest,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                repeat(3) {
+                    responseChannel.send(HelloReply.newBuilder().setMessage("${request.name} $it").build())
+                }
+            }
+        }
+        grpcServerRule.serviceRegistry.addService(service.bindService().withLazyRequestParsing())
+    }
+
+    private fun request(name: String) = HelloRequest.newBuilder().setName(name).build()
+
+    @After
+    fun closeDispatcher() {
+        consumerDispatcher.close()
+    }
+
+    @Test
+    fun `Bidi responses are parsed on the dispatcher of the call`() {
+        registerEchoService(Dispatchers.Default)
+
+        val method = GreeterGrpc.getSayHelloStreamingMethod().toBuilder()
+            .setResponseMarshaller(GreeterGrpc.getSayHelloStreamingMethod().responseMarshaller.recordingParsingThreads())
+            .build()
+            .withLazyResponseParsing()
+
+        val replies = runBlocking(consumerDispatcher) {
+            val callOptions = CallOptions.DEFAULT.withOption(CALL_OPTION_COROUTINE_CONTEXT, consumerDispatcher)
+            val (requestChannel, responseChannel) = clientCallBidiStreaming(method, grpcServerRule.channel, callOptions)
+            launch {
+                repeat(5) { requestChannel.send(request("$it")) }
+                requestChannel.close()
+            }
+            responseChannel.toList().map { it.message }
+        }
+
+        assertEquals(listOf("0", "1", "2", "3", "4"), replies)
+        assertEquals(List(5) { CONSUMER_THREAD_NAME }, parsingThreads.toList())
+    }
+
+    @Test
+    fun `Server streaming responses are parsed by the collector`() {
+        registerEchoService(Dispatchers.Default)
+
+        val method = GreeterGrpc.getSayHelloServerStreamingMethod().toBuilder()
+            .setResponseMarshaller(GreeterGrpc.getSayHelloServerStreamingMethod().responseMarshaller.recordingParsingThreads())
+            .build()
+            .withLazyResponseParsing()
+
+        val replies = runBlocking(consumerDispatcher) {
+            clientCallServerStreamingFlow(request("hello"), method, grpcServerRule.channel)
+                .toList()
+                .map { it.message }
+        }
+
+        assertEquals(listOf("hello 0", "hello 1", "hello 2"), replies)
+        assertEquals(List(3) { CONSUMER_THREAD_NAME }, parsingThreads.toList())
+    }
+
+    @Test
+    fun `Bidi requests are parsed on the dispatcher of the handler`() {
+        val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override val initialContext: CoroutineContext = consumerDispatcher
+
+            override suspend fun sayHelloStreaming(
+                requestChannel: ReceiveChannel<HelloRequest>,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                for (request in requestChannel) {
+                    responseChannel.send(HelloReply.newBuilder().setMessage(request.name).build())
+                }
+            }
+        }
+        val serviceDefinition = service.bindService()
+            .mapMethods { method ->
+                if (method.methodDescriptor.type == MethodDescriptor.MethodType.BIDI_STREAMING)
+                    method.withRequestMarshaller(method.methodDescriptor.requestMarshaller.recordingParsingThreads()) else
+                    method
+            }
+            .withLazyRequestParsing()
+        grpcServerRule.serviceRegistry.addService(serviceDefinition)
+
+        val replies = runBlocking(Dispatchers.Default) {
+            val (requestChannel, responseChannel) =
+                clientCallBidiStreaming(GreeterGrpc.getSayHelloStreamingMethod(), grpcServerRule.channel)
+            launch {
+                repeat(5) { requestChannel.send(request("$it")) }
+                requestChannel.close()
+            }
+            responseChannel.toList().map { it.message }
+        }
+
+        assertEquals(listOf("0", "1", "2", "3", "4"), replies)
+        assertEquals(List(5) { CONSUMER_THREAD_NAME }, parsingThreads.toList())
+    }
+
+    @Test
+    fun `Methods with a single inbound message are left as they are`() {
+        val serviceDefinition = object : GreeterCoroutineGrpc.GreeterImplBase() {}
+            .bindService()
+            .withLazyRequestParsing()
+
+        for (method in listOf(GreeterGrpc.getSayHelloMethod(), GreeterGrpc.getSayHelloServerStreamingMethod())) {
+            val methodDefinition = serviceDefinition.getMethod(method.fullMethodName)
+            assertTrue(methodDefinition.methodDescriptor.requestMarshaller === method.requestMarshaller)
+        }
+
+        assertFailsWith<IllegalArgumentException> {
+            GreeterGrpc.getSayHelloMethod().withLazyResponseParsing()
+        }
+        assertFailsWith<IllegalArgumentException> {
+            GreeterGrpc.getSayHelloClientStreamingMethod().withLazyResponseParsing()
+        }
+    }
+
+    companion object {
+        private const val CONSUMER_THREAD_NAME = "lazy-parsing-consumer"
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import kotlinx.coroutines.yield
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class LimitedParallelismDispatcherTests {
+
+    @Test
+    fun `Dispatcher never exceeds its parallelism`() {
+        val dispatcher = Dispatchers.Default.limitParallelism(2)
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val completed = AtomicInteger()
+
+        runBlocking {
+            repeat(100) {
+                launch(dispatcher) {
+                    repeat(3) {
+                        val current = running.incrementAndGet()
+                        synchronized(maxRunning) {
+                            if (current > maxRunning.get()) maxRunning.set(current)
+                        }
+                        Thread.sleep(1)
+                        running.decrementAndGet()
+                        yield()
+                    }
+                    completed.incrementAndGet()
+                }
+            }
+        }
+
+        assertEquals(100, completed.get())
+        assertTrue(maxRunning.get() in 1..2, "Max parallelism was ${maxRunning.get()}")
+    }
+
+    @Test
+    fun `Dispatcher runs work on the underlying dispatcher`() {
+        val dispatcher = Dispatchers.Default.limitParallelism(1)
+        val threadName = runBlocking {
+            withContext(dispatcher) { Thread.currentThread().name }
+        }
+
+        assertTrue(threadName.startsWith("DefaultDispatcher"), threadName)
+    }
+
+    @Test
+    fun `Parallelism must be positive`() {
+        assertFailsWith<IllegalArgumentException> {
+            Dispatchers.Default.limitParallelism(0)
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines
+
+import com.github.marcoferrer.krotoplus.coroutines.client.clientCallUnary
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import com.google.protobuf.ByteString
+import io.grpc.KnownLength
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.protobuf.ProtoUtils
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.runBlocking
+import org.junit.Rule
+import org.junit.Test
+import test.message.TestMessages
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertSame
+
+class ZeroCopyMarshallingTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    private val protoMarshaller = ProtoUtils.marshaller(TestMessages.TestRepeated.getDefaultInstance())
+
+    private val method = MethodDescriptor.newBuilder(protoMarshaller, protoMarshaller)
+        .setType(MethodDescriptor.MethodType.UNARY)
+        .setFullMethodName(MethodDescriptor.generateFullMethodName("test.ZeroCopy", "Echo"))
+        .build()
+
+    private val message = TestMessages.TestRepeated.newBuilder()
+        .addBytesField(ByteString.copyFromUtf8("first payload"))
+        .addBytesField(ByteString.copyFromUtf8("second payload"))
+        .addStringField("name")
+        .build()
+
+    // Mirrors the streams handed to marshallers by network transports
+    private class TransportInputStream(bytes: ByteArray) : ByteArrayInputStream(bytes), KnownLength
+
+    private fun MethodDescriptor.Marshaller<TestMessages.TestRepeated>.parseFromTransport(
+        message: TestMessages.TestRepeated
+    ): TestMessages.TestRepeated = parse(TransportInputStream(message.toByteArray()))
+
+    @Test
+    fun `Bytes fields reference the buffer read from the transport`() {
+        val marshaller = method.withZeroCopyMarshallers().responseMarshaller
+
+        val parsed = marshaller.parseFromTransport(message)
+        assertEquals(message, parsed)
+        assertEquals("BoundedByteString", parsed.getBytesField(0).javaClass.simpleName)
+
+        val copied = protoMarshaller.parseFromTransport(message)
+        assertNotEquals("BoundedByteString", copied.getBytesField(0).javaClass.simpleName)
+    }
+
+    @Test
+    fun `Empty messages are parsed as the default instance`() {
+        val marshaller = method.withZeroCopyMarshallers().requestMarshaller
+
+        assertSame(
+            TestMessages.TestRepeated.getDefaultInstance(),
+            marshaller.parse(TransportInputStream(ByteArray(0)))
+        )
+    }
+
+    @Test
+    fun `Streams without a known length are parsed`() {
+        val marshaller = method.withZeroCopyMarshallers().requestMarshaller
+
+        val stream: InputStream = ByteArrayInputStream(message.toByteArray())
+        assertEquals(message, marshaller.parse(stream))
+    }
+
+    @Test
+    fun `Invalid messages fail with an internal status`() {
+        val marshaller = method.withZeroCopyMarshallers().requestMarshaller
+
+        assertFailsWithStatus(Status.INTERNAL) {
+            marshaller.parse(TransportInputStream(byteArrayOf(0x0A, 0x7F, 0x01)))
+        }
+    }
+
+    @Test
+    fun `Rewritten services and methods complete calls`() {
+        val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override suspend fun sayHello(request: HelloRequest): HelloReply =
+                HelloReply.newBuilder().setMessage("Hello ${request.name}").build()
+        }
+        grpcServerRule.serviceRegistry.addService(service.bindService().withZeroCopyMarshallers())
+
+        val reply = runBlocking {
+            clientCallUnary(
+                HelloRequest.newBuilder().setName("zero copy").build(),
+                GreeterGrpc.getSayHelloMethod().withZeroCopyMarshallers(),
+                grpcServerRule.channel
+            )
+        }
+        assertEquals("Hello zero copy", reply.message)
+    }
+}
@@ -35,6 +35,7 @@ import java.lang.IllegalArgumentException
 import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.test.BeforeTest
 import kotlin.test.assertEquals
+import kotlin.test.assertSame
 import kotlin.test.assertTrue
 import kotlin.test.fail
 
@@ -50,6 +51,14 @@ class MethodDescriptorExtTests {
         val coroutineName = descriptor.getCoroutineName()
         assertEquals(methodName, coroutineName.name)
     }
+
+    @Test
+    fun `Test CoroutineName is cached per method`(){
+        val descriptor = mockk<MethodDescriptor<Unit,Unit>>().apply {
+            every { fullMethodName } returns "test_cached_method_name"
+        }
+        assertSame(descriptor.getCoroutineName(), descriptor.getCoroutineName())
+    }
 }
 
 class BindToClientCancellationTests {
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import io.grpc.stub.CallStreamObserver
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Test
+import kotlin.test.assertTrue
+
+class CallReadinessTests {
+
+    private val onReadyHandler = slot<Runnable>()
+
+    private var isReady = false
+
+    private val callStreamObserver = mockk<CallStreamObserver<*>>().apply {
+        every { setOnReadyHandler(capture(onReadyHandler)) } answers { Unit }
+        every { isReady } answers { this@CallReadinessTests.isReady }
+    }
+
+    @Test
+    fun `Await ready returns immediately when the call is ready`() = runBlocking {
+        isReady = true
+        CallReadiness(callStreamObserver).awaitReady()
+    }
+
+    @Test
+    fun `Await ready suspends until the call becomes ready`() = runBlocking {
+        val readiness = CallReadiness(callStreamObserver)
+        val job = launch(start = CoroutineStart.UNDISPATCHED) {
+            readiness.awaitReady()
+        }
+        assertTrue(job.isActive)
+
+        // A readiness signal is not enough on its own if the call is still not ready
+        onReadyHandler.captured.run()
+        repeat(3) { yield() }
+        assertTrue(job.isActive)
+
+        isReady = true
+        onReadyHandler.captured.run()
+        job.join()
+        assertTrue(job.isCompleted)
+    }
+}
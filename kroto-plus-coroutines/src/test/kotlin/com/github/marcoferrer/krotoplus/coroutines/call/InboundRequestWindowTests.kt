@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import io.grpc.stub.CallStreamObserver
+import io.mockk.Runs
+import io.mockk.every
+import io.mockk.just
+import io.mockk.mockk
+import io.mockk.verify
+import kotlinx.coroutines.channels.consumeEach
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.selects.select
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+
+class InboundRequestWindowTests {
+
+    private val callStreamObserver = mockk<CallStreamObserver<*>>().apply {
+        every { request(any()) } just Runs
+    }
+
+    private fun newWindow(prefetch: Int) = InboundRequestWindow(prefetch).also {
+        it.bind(callStreamObserver)
+    }
+
+    @Test
+    fun `Window of one requests a message for every consumed message`() {
+        val window = newWindow(1)
+        repeat(3) { window.onMessageConsumed() }
+        verify(exactly = 3) { callStreamObserver.request(1) }
+    }
+
+    @Test
+    fun `Credit is requested in batches once three quarters of the window are consumed`() {
+        val window = newWindow(8)
+        repeat(5) { window.onMessageConsumed() }
+        verify(exactly = 0) { callStreamObserver.request(any()) }
+
+        window.onMessageConsumed()
+        verify(exactly = 1) { callStreamObserver.request(6) }
+
+        repeat(6) { window.onMessageConsumed() }
+        verify(exactly = 2) { callStreamObserver.request(6) }
+    }
+
+    @Test
+    fun `Credit returned before the observer is bound is requested once it is`() {
+        val window = InboundRequestWindow(1)
+        repeat(2) { window.onMessageConsumed() }
+
+        window.bind(callStreamObserver)
+        verify(exactly = 1) { callStreamObserver.request(2) }
+
+        window.onMessageConsumed()
+        verify(exactly = 1) { callStreamObserver.request(1) }
+    }
+
+    @Test
+    fun `Window rejects non positive prefetch`() {
+        assertFailsWith<IllegalArgumentException> { InboundRequestWindow(0) }
+    }
+}
+
+class CreditingReceiveChannelTests {
+
+    private val callStreamObserver = mockk<CallStreamObserver<*>>().apply {
+        every { request(any()) } just Runs
+    }
+
+    private val window = InboundRequestWindow(prefetch = 4, capacity = 8).also {
+        it.bind(callStreamObserver)
+    }
+
+    private val inboundChannel = window.newInboundChannel<Int>()
+
+    private val receiveChannel = window.creditOnConsumption(inboundChannel)
+
+    @Test
+    fun `Inbound channel holds every message in the window without suspending`() {
+        repeat(8) { assertTrue(inboundChannel.offer(it)) }
+        verify(exactly = 0) { callStreamObserver.request(any()) }
+    }
+
+    @Test
+    fun `Credit is returned when messages are received`() = runBlocking {
+        repeat(3) { inboundChannel.send(it) }
+        repeat(3) { assertEquals(it, receiveChannel.receive()) }
+        verify(exactly = 1) { callStreamObserver.request(3) }
+    }
+
+    @Test
+    fun `Credit is returned when messages are polled`() {
+        repeat(3) { inboundChannel.offer(it) }
+        repeat(3) { assertEquals(it, receiveChannel.poll()) }
+        verify(exactly = 1) { callStreamObserver.request(3) }
+    }
+
+    @Test
+    fun `Credit is returned when messages are iterated`() = runBlocking {
+        repeat(6) { inboundChannel.send(it) }
+        inboundChannel.close()
+
+        val received = mutableListOf<Int>()
+        receiveChannel.consumeEach { received += it }
+
+        assertEquals(listOf(0, 1, 2, 3, 4, 5), received)
+        verify(exactly = 2) { callStreamObserver.request(3) }
+    }
+
+    @Test
+    fun `Credit is returned when messages are selected`() = runBlocking {
+        repeat(3) { inboundChannel.send(it) }
+        repeat(3) {
+            val value = select<Int> { receiveChannel.onReceive { it } }
+            assertEquals(it, value)
+        }
+        verify(exactly = 1) { callStreamObserver.request(3) }
+    }
+
+    @Test
+    fun `Closing the channel does not return credit`() = runBlocking {
+        inboundChannel.close()
+        assertEquals(null, receiveChannel.receiveOrNull())
+        assertEquals(null, select<Int?> { receiveChannel.onReceiveOrNull { it } })
+        verify(exactly = 0) { callStreamObserver.request(any()) }
+    }
+}
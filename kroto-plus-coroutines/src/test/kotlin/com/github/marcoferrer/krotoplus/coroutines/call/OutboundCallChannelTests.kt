@@ -0,0 +1,192 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferOverflow
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferPolicy
+import com.github.marcoferrer.krotoplus.coroutines.outboundReadiness
+import com.github.marcoferrer.krotoplus.coroutines.utils.COROUTINE_TEST_TIMEOUT
+import io.grpc.MethodDescriptor
+import io.grpc.stub.CallStreamObserver
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import io.mockk.verify
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.yield
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class OutboundCallChannelTests {
+
+    private val onReadyHandler = slot<Runnable>()
+
+    private var isReady = false
+
+    private val callStreamObserver = mockk<CallStreamObserver<String>>(relaxed = true).apply {
+        every { setOnReadyHandler(capture(onReadyHandler)) } answers { Unit }
+        every { isReady } answers { this@OutboundCallChannelTests.isReady }
+    }
+
+    private val marshaller = object : MethodDescriptor.Marshaller<String> {
+        override fun stream(value: String): InputStream = ByteArrayInputStream(value.toByteArray())
+        override fun parse(stream: InputStream): String = stream.reader().readText()
+    }
+
+    @Test
+    fun `Readiness follows the on ready signals of the call`() = runBlocking {
+        val outboundChannel = CallBufferPolicy(4).newOutboundCallChannel(marshaller)
+        val writer = launchOutboundWriter(callStreamObserver, outboundChannel)
+        val readiness = outboundChannel.outboundReadiness
+        val updates = async(start = CoroutineStart.UNDISPATCHED) { readiness.readiness.toList() }
+        assertFalse(readiness.isReady)
+
+        isReady = true
+        onReadyHandler.captured.run()
+        yield()
+        assertTrue(readiness.isReady)
+
+        isReady = false
+        onReadyHandler.captured.run()
+        yield()
+        assertFalse(readiness.isReady)
+
+        writer.close()
+        assertEquals(listOf(false, true, false), updates.await())
+    }
+
+    @Test
+    fun `Await ready suspends until the call becomes ready`() = runBlocking {
+        val outboundChannel = CallBufferPolicy(4).newOutboundCallChannel(marshaller)
+        val writer = launchOutboundWriter(callStreamObserver, outboundChannel)
+        val job = launch(start = CoroutineStart.UNDISPATCHED) {
+            outboundChannel.outboundReadiness.awaitReady()
+        }
+        assertTrue(job.isActive)
+
+        // A readiness signal is not enough on its own if the call is still not ready
+        onReadyHandler.captured.run()
+        repeat(3) { yield() }
+        assertTrue(job.isActive)
+
+        isReady = true
+        onReadyHandler.captured.run()
+        job.join()
+        writer.close()
+    }
+
+    @Test
+    fun `Await ready returns once the call has completed`() = runBlocking {
+        val outboundChannel = CallBufferPolicy(4).newOutboundCallChannel(marshaller)
+        val writer = launchOutboundWriter(callStreamObserver, outboundChannel)
+        val job = launch(start = CoroutineStart.UNDISPATCHED) {
+            outboundChannel.outboundReadiness.awaitReady()
+        }
+        assertTrue(job.isActive)
+
+        writer.close()
+        job.join()
+        isReady = true
+        assertFalse(outboundChannel.isReady)
+    }
+
+    @Test
+    fun `Queue depth counts the messages yet to be written`() = runBlocking {
+        val outboundChannel = CallBufferPolicy(4).newOutboundCallChannel(marshaller)
+        val writer = launchOutboundWriter(callStreamObserver, outboundChannel)
+        repeat(3) { outboundChannel.send("message $it") }
+        assertEquals(3, outboundChannel.queueDepth)
+
+        isReady = true
+        onReadyHandler.captured.run()
+        assertEquals(0, outboundChannel.queueDepth)
+        writer.close()
+    }
+
+    @Test
+    fun `Queue depth excludes messages dropped by the buffer policy`() {
+        val dropOldest = CallBufferPolicy(2, CallBufferOverflow.DROP_OLDEST).newOutboundCallChannel(marshaller)
+        repeat(5) { dropOldest.offer("message $it") }
+        assertEquals(2, dropOldest.queueDepth)
+        dropOldest.poll()
+        assertEquals(1, dropOldest.queueDepth)
+
+        val conflated = CallBufferPolicy.CONFLATED.newOutboundCallChannel(marshaller)
+        assertEquals(0, conflated.queueDepth)
+        repeat(5) { conflated.offer("message $it") }
+        assertEquals(1, conflated.queueDepth)
+    }
+
+    @Test
+    fun `Queue depth follows select clauses and every receive operation`() = runBlocking {
+        val outboundChannel = CallBufferPolicy(4).newOutboundCallChannel(marshaller)
+        repeat(4) {
+            select<Unit> { outboundChannel.onSend("message $it") {} }
+        }
+        assertEquals(4, outboundChannel.queueDepth)
+
+        assertEquals("message 0", select<String> { outboundChannel.onReceive { it } })
+        assertEquals("message 1", select<String?> { outboundChannel.onReceiveOrNull { it } })
+        assertEquals("message 2", outboundChannel.receiveOrNull())
+        assertEquals("message 3", outboundChannel.receive())
+        assertEquals(0, outboundChannel.queueDepth)
+
+        outboundChannel.close()
+        assertEquals(null, select<String?> { outboundChannel.onReceiveOrNull { it } })
+        assertEquals(0, outboundChannel.queueDepth)
+    }
+
+    @Test
+    fun `Sending from a select clause wakes a hibernating writer`() = runBlocking {
+        isReady = true
+        val callJob = Job()
+        val outboundChannel = CallBufferPolicy.DEFAULT.newOutboundCallChannel(marshaller)
+        val writer = CoroutineScope(coroutineContext + callJob)
+            .launchOutboundWriter(callStreamObserver, outboundChannel, idleTimeoutMillis = 20)
+        onReadyHandler.captured.run()
+
+        withTimeout(COROUTINE_TEST_TIMEOUT * 1000L) {
+            while (callJob.children.any()) delay(10)
+        }
+        select<Unit> { outboundChannel.onSend("message") {} }
+        verify(exactly = 1) { callStreamObserver.onNext("message") }
+        writer.close()
+        callJob.cancel()
+    }
+
+    @Test
+    fun `Outbound readiness is only available for the outbound channels of calls`() {
+        val outboundChannel = CallBufferPolicy(4).newOutboundCallChannel(marshaller)
+        assertSame<Any>(outboundChannel, outboundChannel.outboundReadiness)
+        assertFailsWith<IllegalArgumentException> { Channel<String>().outboundReadiness }
+    }
+}
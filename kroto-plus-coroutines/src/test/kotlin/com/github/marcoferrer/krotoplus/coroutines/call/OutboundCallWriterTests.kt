@@ -0,0 +1,224 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferPolicy
+import com.github.marcoferrer.krotoplus.coroutines.CallPriority
+import com.github.marcoferrer.krotoplus.coroutines.utils.COROUTINE_TEST_TIMEOUT
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import io.grpc.stub.CallStreamObserver
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import io.mockk.verify
+import io.mockk.verifyOrder
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import kotlinx.coroutines.yield
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class OutboundCallWriterTests {
+
+    private val onReadyHandler = slot<Runnable>()
+
+    private var isReady = false
+
+    private val callStreamObserver = mockk<CallStreamObserver<String>>(relaxed = true).apply {
+        every { setOnReadyHandler(capture(onReadyHandler)) } answers { Unit }
+        every { isReady } answers { this@OutboundCallWriterTests.isReady }
+    }
+
+    @Test
+    fun `Messages are not written before the call signals readiness`() = runBlocking {
+        isReady = true
+        val outboundChannel = Channel<String>(2)
+        val writer = launchOutboundWriter(callStreamObserver, outboundChannel)
+        outboundChannel.offer("message")
+        verify(exactly = 0) { callStreamObserver.onNext(any()) }
+
+        onReadyHandler.captured.run()
+        verify(exactly = 1) { callStreamObserver.onNext("message") }
+        writer.close()
+    }
+
+    @Test
+    fun `Buffered messages are written before the call is completed`() = runBlocking {
+        val outboundChannel = Channel<String>(2)
+        launchOutboundWriter(callStreamObserver, outboundChannel)
+        outboundChannel.offer("message 1")
+        outboundChannel.offer("message 2")
+        outboundChannel.close()
+
+        onReadyHandler.captured.run()
+        verify(exactly = 0) { callStreamObserver.onNext(any()) }
+        verify(exactly = 0) { callStreamObserver.onCompleted() }
+
+        isReady = true
+        onReadyHandler.captured.run()
+        verifyOrder {
+            callStreamObserver.onNext("message 1")
+            callStreamObserver.onNext("message 2")
+            callStreamObserver.onCompleted()
+        }
+    }
+
+    @Test
+    fun `Closing with an error completes the call without waiting for readiness`() = runBlocking {
+        val outboundChannel = Channel<String>(2)
+        val error = Status.INTERNAL.asRuntimeException()
+        var reportedError: Throwable? = null
+        launchOutboundWriter(callStreamObserver, outboundChannel, onError = { reportedError = it })
+        outboundChannel.offer("message")
+        outboundChannel.close(error)
+
+        verify(exactly = 1) { callStreamObserver.onError(error) }
+        verify(exactly = 0) { callStreamObserver.onNext(any()) }
+        assertTrue(reportedError === error)
+    }
+
+    @Test
+    fun `Stalls are reported once the call becomes ready again`() = runBlocking {
+        isReady = true
+        val outboundChannel = Channel<String>(2)
+        var stallsStarted = 0
+        val stalls = mutableListOf<Long>()
+        val writer = launchOutboundWriter(
+            callStreamObserver, outboundChannel,
+            onStallStarted = { stallsStarted++ },
+            onStall = { stalls += it }
+        )
+        every { callStreamObserver.onNext(any()) } answers { isReady = false }
+        onReadyHandler.captured.run()
+        outboundChannel.send("message 1")
+        outboundChannel.send("message 2")
+        assertTrue(stallsStarted == 1 && stalls.isEmpty())
+
+        isReady = true
+        onReadyHandler.captured.run()
+        verify(exactly = 2) { callStreamObserver.onNext(any()) }
+        assertTrue(stalls.size == 1 && stalls.single() >= 0)
+        writer.close()
+    }
+
+    @Test
+    fun `Writer yields to the dispatcher of the call once its drain budget is spent`() = runBlocking {
+        isReady = true
+        val outboundChannel = Channel<String>(64)
+        repeat(40) { outboundChannel.offer("message $it") }
+        val writer = CoroutineScope(coroutineContext + CallPriority.BULK)
+            .launchOutboundWriter(callStreamObserver, outboundChannel)
+
+        onReadyHandler.captured.run()
+        verify(exactly = CallPriority.BULK.drainBudget) { callStreamObserver.onNext(any()) }
+
+        yield()
+        verify(exactly = 40) { callStreamObserver.onNext(any()) }
+        writer.close()
+    }
+
+    @Test
+    fun `Writer of a call without a dispatcher never leaves the thread it is resumed on`() = runBlocking {
+        isReady = true
+        val outboundChannel = Channel<String>(64)
+        repeat(40) { outboundChannel.offer("message $it") }
+        val writerThreads = mutableSetOf<Thread>()
+        every { callStreamObserver.onNext(any()) } answers { writerThreads += Thread.currentThread() }
+        val callJob = Job()
+        val writer = CoroutineScope(callJob + CallPriority.BULK)
+            .launchOutboundWriter(callStreamObserver, outboundChannel)
+
+        onReadyHandler.captured.run()
+        verify(exactly = 40) { callStreamObserver.onNext(any()) }
+        assertEquals(setOf(Thread.currentThread()), writerThreads)
+        writer.close()
+        callJob.cancel()
+    }
+
+    @Test
+    fun `Idle writer hibernates until the next message is sent`() = runBlocking {
+        isReady = true
+        val callJob = Job()
+        val outboundChannel = CallBufferPolicy.DEFAULT.newOutboundCallChannel(stringMarshaller)
+        val writer = CoroutineScope(coroutineContext + callJob)
+            .launchOutboundWriter(callStreamObserver, outboundChannel, idleTimeoutMillis = 20)
+        onReadyHandler.captured.run()
+        outboundChannel.send("message 1")
+        assertTrue(callJob.children.any())
+
+        awaitHibernation(callJob)
+        outboundChannel.send("message 2")
+        assertTrue(callJob.children.any())
+        verifyOrder {
+            callStreamObserver.onNext("message 1")
+            callStreamObserver.onNext("message 2")
+        }
+        writer.close()
+        callJob.cancel()
+    }
+
+    @Test
+    fun `Hibernating writer completes the call once the channel is closed`() = runBlocking {
+        isReady = true
+        val callJob = Job()
+        val outboundChannel = CallBufferPolicy.DEFAULT.newOutboundCallChannel(stringMarshaller)
+        CoroutineScope(coroutineContext + callJob)
+            .launchOutboundWriter(callStreamObserver, outboundChannel, idleTimeoutMillis = 20)
+        onReadyHandler.captured.run()
+
+        awaitHibernation(callJob)
+        outboundChannel.close()
+        verify(exactly = 1) { callStreamObserver.onCompleted() }
+        callJob.cancel()
+    }
+
+    @Test
+    fun `Writer does not hibernate while messages are buffered`() = runBlocking {
+        val callJob = Job()
+        val outboundChannel = CallBufferPolicy(2).newOutboundCallChannel(stringMarshaller)
+        val writer = CoroutineScope(coroutineContext + callJob)
+            .launchOutboundWriter(callStreamObserver, outboundChannel, idleTimeoutMillis = 20)
+        outboundChannel.send("message")
+
+        delay(100)
+        assertTrue(callJob.children.any())
+
+        isReady = true
+        onReadyHandler.captured.run()
+        verify(exactly = 1) { callStreamObserver.onNext("message") }
+        writer.close()
+        callJob.cancel()
+    }
+
+    private suspend fun awaitHibernation(callJob: Job) {
+        withTimeout(COROUTINE_TEST_TIMEOUT * 1000L) {
+            while (callJob.children.any()) delay(10)
+        }
+    }
+
+    private val stringMarshaller = object : MethodDescriptor.Marshaller<String> {
+        override fun stream(value: String): InputStream = ByteArrayInputStream(value.toByteArray())
+        override fun parse(stream: InputStream): String = stream.reader().readText()
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.call
+
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferOverflow
+import com.github.marcoferrer.krotoplus.coroutines.CallBufferPolicy
+import io.grpc.MethodDescriptor
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.InternalCoroutinesApi
+import kotlinx.coroutines.channels.ClosedSendChannelException
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.selects.select
+import kotlinx.coroutines.yield
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.concurrent.thread
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+
+class PolicyBufferedChannelTests {
+
+    // Messages are marshalled to a stream with as many bytes as their value
+    private val marshaller = object : MethodDescriptor.Marshaller<Int> {
+        override fun stream(value: Int): InputStream = ByteArrayInputStream(ByteArray(value))
+        override fun parse(stream: InputStream): Int = stream.available()
+    }
+
+    @Test
+    fun `Default policy does not wrap the outbound channel`() {
+        val channel = CallBufferPolicy.DEFAULT.newOutboundChannel(marshaller)
+        assertFalse(channel is PolicyBufferedChannel)
+        assertFalse(channel.offer(1))
+    }
+
+    @Test
+    fun `Conflated policy keeps only the latest message`() = runBlocking {
+        val channel = CallBufferPolicy.CONFLATED.newOutboundChannel(marshaller)
+        assertFalse(channel is PolicyBufferedChannel)
+
+        repeat(4) { channel.send(it) }
+
+        assertEquals(3, channel.poll())
+        assertNull(channel.poll())
+    }
+
+    @Test
+    fun `Drop latest keeps the buffered messages`() {
+        val channel = CallBufferPolicy(capacity = 2, onBufferOverflow = CallBufferOverflow.DROP_LATEST)
+            .newOutboundChannel(marshaller)
+
+        repeat(4) { assertTrue(channel.offer(it)) }
+
+        assertEquals(0, channel.poll())
+        assertEquals(1, channel.poll())
+        assertNull(channel.poll())
+    }
+
+    @Test
+    fun `Drop oldest keeps the latest messages`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 2, onBufferOverflow = CallBufferOverflow.DROP_OLDEST)
+            .newOutboundChannel(marshaller)
+
+        repeat(4) { channel.send(it) }
+
+        assertEquals(2, channel.poll())
+        assertEquals(3, channel.poll())
+        assertNull(channel.poll())
+    }
+
+    @Test
+    fun `Drop policies buffer at least one message`() {
+        val channel = CallBufferPolicy(onBufferOverflow = CallBufferOverflow.DROP_OLDEST)
+            .newOutboundChannel(marshaller)
+
+        assertTrue(channel.offer(1))
+        assertTrue(channel.offer(2))
+        assertEquals(2, channel.poll())
+    }
+
+    @Test
+    fun `Senders suspend once the byte bound is reached`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller)
+
+        channel.send(6)
+        assertFalse(channel.offer(6))
+
+        val sendJob = launch(start = CoroutineStart.UNDISPATCHED) { channel.send(6) }
+        assertTrue(sendJob.isActive)
+
+        assertEquals(6, channel.receive())
+        sendJob.join()
+        assertEquals(6, channel.poll())
+    }
+
+    @Test
+    fun `Messages larger than the byte bound are admitted into an empty buffer`() {
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller)
+
+        assertTrue(channel.offer(20))
+        assertFalse(channel.offer(1))
+    }
+
+    @Test
+    fun `Closing the channel resumes suspended senders`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller)
+
+        channel.send(10)
+        val sendJob = launch(start = CoroutineStart.UNDISPATCHED) {
+            assertFailsWith<ClosedSendChannelException> { channel.send(10) }
+        }
+
+        channel.close()
+        yield()
+        sendJob.join()
+        assertEquals(10, channel.receive())
+    }
+
+    @Test
+    fun `Message sizes are computed once per message`() = runBlocking {
+        val streamedCount = AtomicInteger()
+        val countingMarshaller = object : MethodDescriptor.Marshaller<Int> {
+            override fun stream(value: Int): InputStream =
+                marshaller.stream(value).also { streamedCount.incrementAndGet() }
+            override fun parse(stream: InputStream): Int = marshaller.parse(stream)
+        }
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(countingMarshaller)
+
+        channel.send(4)
+        assertTrue(channel.offer(4))
+        assertEquals(4, channel.receive())
+        assertEquals(4, channel.poll())
+
+        assertEquals(2, streamedCount.get())
+    }
+
+    @Test
+    fun `Concurrent senders never exceed the byte bound`() {
+        val channel = CallBufferPolicy(capacity = 1000, maxBufferedBytes = 100)
+            .newOutboundChannel(marshaller)
+
+        val startLatch = CountDownLatch(1)
+        val senders = List(8) {
+            thread {
+                startLatch.await()
+                repeat(50) { channel.offer(10) }
+            }
+        }
+        startLatch.countDown()
+        senders.forEach { it.join() }
+
+        var bufferedBytes = 0
+        while (true) bufferedBytes += channel.poll() ?: break
+        assertEquals(100, bufferedBytes)
+    }
+
+    @Test
+    fun `Select clauses release the bytes of received messages`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller)
+
+        assertTrue(channel.offer(10))
+        assertFalse(channel.offer(10))
+
+        assertEquals(10, select<Int> { channel.onReceive { it } })
+        assertTrue(channel.offer(10))
+    }
+
+    @Test
+    fun `Select clauses reserve room for the messages they send`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller)
+
+        select<Unit> { channel.onSend(6) {} }
+        assertFalse(channel.offer(6))
+
+        assertEquals(6, channel.receive())
+        assertTrue(channel.offer(6))
+    }
+
+    @Test
+    fun `Select clauses wait for room within the byte bound`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller)
+
+        channel.send(6)
+        val sendJob = launch(start = CoroutineStart.UNDISPATCHED) {
+            select<Unit> { channel.onSend(6) {} }
+        }
+        assertTrue(sendJob.isActive)
+
+        assertEquals(6, channel.receive())
+        sendJob.join()
+        assertEquals(6, channel.poll())
+        assertNull(channel.poll())
+    }
+
+    @Test
+    fun `Select clauses drop the oldest message`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 2, onBufferOverflow = CallBufferOverflow.DROP_OLDEST)
+            .newOutboundChannel(marshaller)
+
+        repeat(4) { value -> select<Unit> { channel.onSend(value) {} } }
+
+        assertEquals(2, channel.poll())
+        assertEquals(3, channel.poll())
+        assertNull(channel.poll())
+    }
+
+    @Test
+    fun `Select clauses that are not selected release their reservation`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 1, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller) as PolicyBufferedChannel
+        val otherClause = CompletableDeferred<Unit>()
+
+        channel.send(4)
+        val selectJob = launch(start = CoroutineStart.UNDISPATCHED) {
+            val isSent = select<Boolean> {
+                channel.onSend(4) { true }
+                otherClause.onAwait { false }
+            }
+            assertFalse(isSent)
+        }
+        assertEquals(2, channel.bufferedMessageCount)
+
+        otherClause.complete(Unit)
+        selectJob.join()
+        assertEquals(1, channel.bufferedMessageCount)
+        assertEquals(4, channel.poll())
+        assertTrue(channel.offer(10))
+    }
+
+    @Test
+    @UseExperimental(InternalCoroutinesApi::class)
+    fun `Receiving or closed releases the bytes of received messages`() = runBlocking {
+        val channel = CallBufferPolicy(capacity = 10, maxBufferedBytes = 10)
+            .newOutboundChannel(marshaller)
+
+        channel.send(10)
+        assertEquals(10, channel.receiveOrClosed().value)
+        channel.send(10)
+        assertEquals(10, select<Int> { channel.onReceiveOrClosed { it.value } })
+        channel.send(10)
+
+        channel.close()
+        assertEquals(10, channel.receiveOrClosed().value)
+        assertTrue(channel.receiveOrClosed().isClosed)
+    }
+}
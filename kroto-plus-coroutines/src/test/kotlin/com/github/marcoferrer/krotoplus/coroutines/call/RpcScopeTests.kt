@@ -16,7 +16,9 @@
 
 package com.github.marcoferrer.krotoplus.coroutines.call
 
+import com.github.marcoferrer.krotoplus.coroutines.CallPriority
 import com.github.marcoferrer.krotoplus.coroutines.GrpcContextElement
+import com.github.marcoferrer.krotoplus.coroutines.asContextElement
 import io.grpc.Context
 import io.grpc.MethodDescriptor
 import io.mockk.every
@@ -28,6 +30,8 @@ import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertNotEquals
 import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
 
 class RpcScopeTests {
 
@@ -79,4 +83,28 @@ class RpcScopeTests {
         assertEquals(expectedGrpcContext, rpcScopeGrpcContext)
         assertNotEquals(Context.current(), rpcScopeGrpcContext)
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `Rpc scope reuses context elements already in place`(){
+        val grpcContextElement = Context.current().asContextElement()
+        val coroutineName = CoroutineName(mockMethodName)
+        val initialContext = grpcContextElement + coroutineName + Job()
+
+        val newScope = newRpcScope(initialContext, methodDescriptor)
+
+        assertSame(initialContext, newScope.coroutineContext)
+        assertSame(grpcContextElement, newScope.coroutineContext[GrpcContextElement])
+    }
+
+    @Test
+    fun `Rpc scope runs at the priority of the call`(){
+        val defaultScope = newRpcScope(EmptyCoroutineContext, methodDescriptor)
+        assertNull(defaultScope.coroutineContext[CallPriority])
+
+        val bulkScope = newRpcScope(EmptyCoroutineContext, methodDescriptor, callPriority = CallPriority.BULK)
+        assertEquals(CallPriority.BULK, bulkScope.coroutineContext[CallPriority])
+
+        val interactiveScope = newRpcScope(CallPriority.INTERACTIVE, methodDescriptor)
+        assertEquals(CallPriority.INTERACTIVE, interactiveScope.coroutineContext[CallPriority])
+    }
+}
@@ -21,6 +21,7 @@ import com.github.marcoferrer.krotoplus.coroutines.utils.assertFails
 import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
 import com.github.marcoferrer.krotoplus.coroutines.utils.matchThrowable
 import com.github.marcoferrer.krotoplus.coroutines.withCoroutineContext
+import com.github.marcoferrer.krotoplus.coroutines.withInboundPrefetch
 import io.grpc.CallOptions
 import io.grpc.ClientCall
 import io.grpc.Status
@@ -48,6 +49,7 @@ import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.toList
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
 import org.junit.Rule
 import org.junit.Test
 import java.util.concurrent.atomic.AtomicInteger
@@ -110,6 +112,29 @@ class ClientCallBidiStreamingTests {
         }
     }
 
+    private fun setupServerHandlerErrorAfterResponses(failOnHalfClose: Boolean){
+        every { service.sayHelloStreaming(any()) } answers {
+            val responseObserver = firstArg<StreamObserver<HelloReply>>()
+            object : StreamObserver<HelloRequest>{
+                var reqQty = 0
+                override fun onNext(value: HelloRequest) {
+                    responseObserver.onNext(HelloReply.newBuilder()
+                        .setMessage("Req:#${value.name}/Resp:#${reqQty++}")
+                        .build())
+                    if(!failOnHalfClose && reqQty == 3){
+                        responseObserver.onError(Status.INVALID_ARGUMENT.asRuntimeException())
+                    }
+                }
+                override fun onError(t: Throwable?) {}
+                override fun onCompleted() {
+                    if(failOnHalfClose){
+                        responseObserver.onError(Status.INVALID_ARGUMENT.asRuntimeException())
+                    }
+                }
+            }
+        }
+    }
+
     private fun setupServerHandlerSuccess(){
         every { service.sayHelloStreaming(any()) } answers {
             val responseObserver = firstArg<StreamObserver<HelloReply>>()
@@ -512,4 +537,45 @@ class ClientCallBidiStreamingTests {
         assert(responseChannel.isClosedForReceive) { "Response channel should be closed for receive" }
     }
 
-}
\ No newline at end of file
+    @Test
+    fun `Server error discards unconsumed responses while request stream is open`() {
+        assertServerErrorDiscardsUnconsumedResponses(halfClose = false)
+    }
+
+    @Test
+    fun `Server error discards unconsumed responses after request stream is half closed`() {
+        assertServerErrorDiscardsUnconsumedResponses(halfClose = true)
+    }
+
+    private fun assertServerErrorDiscardsUnconsumedResponses(halfClose: Boolean) {
+        val stub = RpcSpy().stub
+
+        setupServerHandlerErrorAfterResponses(failOnHalfClose = halfClose)
+        // Every response is requested up front, so the error is delivered while they are still buffered
+        val (requestChannel, responseChannel) = stub
+            .withInboundPrefetch(3)
+            .clientCallBidiStreaming(methodDescriptor)
+
+        runBlocking(Dispatchers.Default) {
+            repeat(3) {
+                requestChannel.send(
+                    HelloRequest.newBuilder()
+                        .setName(it.toString())
+                        .build()
+                )
+            }
+            if(halfClose) requestChannel.close()
+
+            // Responses are left unconsumed until the server error has been delivered
+            withTimeout(5_000) {
+                while(!responseChannel.isClosedForReceive) delay(10)
+            }
+            assertFailsWithStatus(Status.INVALID_ARGUMENT) {
+                responseChannel.receive()
+            }
+        }
+
+        assert(requestChannel.isClosedForSend) { "Request channel should be closed for send" }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.client
+
+import com.github.marcoferrer.krotoplus.coroutines.RpcCallTest
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import com.github.marcoferrer.krotoplus.coroutines.withInboundPrefetch
+import io.grpc.ServerInterceptors
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.stub.StreamObserver
+import io.mockk.verify
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.launch
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class ClientCallServerStreamingFlowTests :
+    RpcCallTest<HelloRequest, HelloReply>(GreeterGrpc.getSayHelloServerStreamingMethod()) {
+
+    private fun setupUpServerHandler(
+        block: (request: HelloRequest, responseObserver: StreamObserver<HelloReply>) -> Unit
+    ) {
+        val serviceImpl = object : GreeterGrpc.GreeterImplBase() {
+            override fun sayHelloServerStreaming(request: HelloRequest, responseObserver: StreamObserver<HelloReply>) =
+                block(request, responseObserver)
+        }
+
+        val service = ServerInterceptors.intercept(serviceImpl, callState)
+        nonDirectGrpcServerRule.serviceRegistry.addService(service)
+        grpcServerRule.serviceRegistry.addService(service)
+    }
+
+    private fun setupRepeatingServerHandler(count: Int) = setupUpServerHandler { request, responseObserver ->
+        with(responseObserver) {
+            repeat(count) {
+                onNext(
+                    HelloReply.newBuilder()
+                        .setMessage("Request#$it:${request.name}")
+                        .build()
+                )
+            }
+            onCompleted()
+        }
+    }
+
+    @Test
+    fun `Call succeeds on server response`() {
+        val rpcSpy = RpcSpy()
+        setupRepeatingServerHandler(3)
+
+        val result = runTest {
+            rpcSpy.stub
+                .clientCallServerStreamingFlow(expectedRequest, methodDescriptor)
+                .toList()
+        }
+
+        assertEquals(
+            listOf(0, 1, 2).map { "Request#$it:${expectedRequest.name}" },
+            result.map { it.message }
+        )
+        verify(exactly = 0) { rpcSpy.call.cancel(any(), any()) }
+    }
+
+    @Test
+    fun `Call is not started until the flow is collected`() {
+        val rpcSpy = RpcSpy()
+        setupRepeatingServerHandler(3)
+
+        val responseFlow = rpcSpy.stub
+            .clientCallServerStreamingFlow(expectedRequest, methodDescriptor)
+
+        assert(!callState.client.started.isCompleted) { "Call should not be started before collection" }
+
+        runTest {
+            assertEquals(3, responseFlow.toList().size)
+            assertEquals(3, responseFlow.toList().size)
+        }
+    }
+
+    @Test
+    fun `Call fails on server error`() {
+        val rpcSpy = RpcSpy(useDirectExecutor = false)
+        setupUpServerHandler { _, responseObserver ->
+            responseObserver.onError(Status.INVALID_ARGUMENT.asRuntimeException())
+        }
+
+        runTest {
+            assertFailsWithStatus(Status.INVALID_ARGUMENT) {
+                rpcSpy.stub
+                    .clientCallServerStreamingFlow(expectedRequest, methodDescriptor)
+                    .collect()
+            }
+        }
+
+        verify(exactly = 0) { rpcSpy.call.cancel(any(), any()) }
+    }
+
+    @Test
+    fun `Call is cancelled when collector stops early`() {
+        val rpcSpy = RpcSpy(useDirectExecutor = false)
+        setupRepeatingServerHandler(10)
+
+        val result = runTest {
+            rpcSpy.stub
+                .clientCallServerStreamingFlow(expectedRequest, methodDescriptor)
+                .take(2)
+                .toList()
+        }
+
+        assertEquals(2, result.size)
+        callState.client.cancelled.assertBlocking { "Client call should be cancelled" }
+    }
+
+    @Test
+    fun `Call is cancelled when collector is cancelled`() {
+        val rpcSpy = RpcSpy(useDirectExecutor = false)
+        setupUpServerHandler { _, _ -> }
+
+        runTest {
+            val job = launch(start = CoroutineStart.UNDISPATCHED) {
+                assertFailsWith(CancellationException::class) {
+                    rpcSpy.stub
+                        .clientCallServerStreamingFlow(expectedRequest, methodDescriptor)
+                        .collect()
+                }
+            }
+            callState.client.started.assert { "Client call should be started" }
+            job.cancel()
+            job.join()
+            callState.awaitCancellation()
+        }
+    }
+
+    @Test
+    fun `Call requests messages in batches as they are collected`() {
+        val rpcSpy = RpcSpy(useDirectExecutor = false)
+        setupRepeatingServerHandler(20)
+
+        val result = runTest {
+            rpcSpy.stub
+                .withInboundPrefetch(4)
+                .clientCallServerStreamingFlow(expectedRequest, methodDescriptor)
+                .toList()
+        }
+
+        assertEquals(20, result.size)
+        verify(exactly = 1) { rpcSpy.call.request(4) }
+        verify(exactly = 0) { rpcSpy.call.request(1) }
+        verify(atLeast = 1) { rpcSpy.call.request(3) }
+    }
+}
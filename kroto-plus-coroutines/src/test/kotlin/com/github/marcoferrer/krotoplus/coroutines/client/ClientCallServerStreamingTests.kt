@@ -22,6 +22,7 @@ import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
 import com.github.marcoferrer.krotoplus.coroutines.utils.invoke
 import com.github.marcoferrer.krotoplus.coroutines.utils.newCancellingInterceptor
 import com.github.marcoferrer.krotoplus.coroutines.withCoroutineContext
+import com.github.marcoferrer.krotoplus.coroutines.withInboundPrefetch
 import io.grpc.CallOptions
 import io.grpc.Channel
 import io.grpc.ClientCall
@@ -400,6 +401,45 @@ class ClientCallServerStreamingTests :
         verify(exactly = 0) { rpcSpy.call.cancel(any(), any()) }
     }
 
+    @Test
+    fun `Call requests messages in batches when prefetch is configured`() {
+        val rpcSpy = RpcSpy(useDirectExecutor = false)
+        val stub = rpcSpy.stub.withInboundPrefetch(4)
+
+        setupUpServerHandler { request, responseObserver ->
+            with(responseObserver) {
+                repeat(20) {
+                    onNext(
+                        HelloReply.newBuilder()
+                            .setMessage("Request#$it:${request.name}")
+                            .build()
+                    )
+                }
+                onCompleted()
+            }
+        }
+
+        val responseChannel = stub
+            .clientCallServerStreaming(expectedRequest, methodDescriptor)
+
+        val result = runTest {
+            verify(exactly = 1, timeout = 1000) { rpcSpy.call.request(1) }
+            verify(exactly = 1, timeout = 1000) { rpcSpy.call.request(3) }
+
+            repeat(3) {
+                assertEquals("Request#$it:${expectedRequest.name}", responseChannel.receive().message)
+            }
+            verify(exactly = 2, timeout = 1000) { rpcSpy.call.request(3) }
+
+            // Consume remaining messages
+            responseChannel.toList()
+        }
+
+        assertEquals(17, result.size)
+        assert(responseChannel.isClosedForReceive) { "Response channel is closed after server error" }
+        verify(exactly = 0) { rpcSpy.call.cancel(any(), any()) }
+    }
+
     @Test
     fun `Excessive messages are buffered without requesting new ones`() {
 
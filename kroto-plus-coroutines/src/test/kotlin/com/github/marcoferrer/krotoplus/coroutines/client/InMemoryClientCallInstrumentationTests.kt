@@ -0,0 +1,153 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.client
+
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import com.github.marcoferrer.krotoplus.coroutines.withCallInstrumentation
+import com.github.marcoferrer.krotoplus.coroutines.withCoroutineContext
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.examples.helloworld.send
+import io.grpc.testing.GrpcServerRule
+import io.mockk.mockk
+import io.mockk.verifyOrder
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.consumeEach
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.Rule
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.CoroutineContext
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+class InMemoryClientCallInstrumentationTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule()
+
+    private val instrumentation = InMemoryClientCallInstrumentation()
+
+    private val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+        override val initialContext: CoroutineContext
+            get() = Dispatchers.Default
+
+        override suspend fun sayHello(request: HelloRequest): HelloReply {
+            if (request.name == "error") throw Status.INVALID_ARGUMENT.asRuntimeException()
+            return HelloReply.newBuilder().setMessage("Hello ${request.name}").build()
+        }
+
+        override suspend fun sayHelloStreaming(
+            requestChannel: ReceiveChannel<HelloRequest>,
+            responseChannel: SendChannel<HelloReply>
+        ) {
+            requestChannel.consumeEach { request ->
+                // Consume slowly so that the client has to wait for the call to become ready
+                delay(5)
+                responseChannel.send { message = request.name }
+            }
+        }
+    }
+
+    @Test
+    fun `Calls are recorded by status`() {
+        grpcServerRule.serviceRegistry.addService(service)
+        // Unary stubs can return before the listener of their call is notified of the close
+        val closedCalls = CountDownLatch(4)
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+            .withCallInstrumentation(object : ClientCallInstrumentation {
+                override fun newCallListener(methodDescriptor: MethodDescriptor<*, *>): ClientCallListener {
+                    val recorder = instrumentation.newCallListener(methodDescriptor)
+                    return object : ClientCallListener by recorder {
+                        override fun onCallClosed(status: Status) {
+                            recorder.onCallClosed(status)
+                            closedCalls.countDown()
+                        }
+                    }
+                }
+            })
+
+        runBlocking {
+            repeat(3) { stub.sayHello { name = "name $it" } }
+            assertFailsWithStatus(Status.INVALID_ARGUMENT) {
+                stub.sayHello { name = "error" }
+            }
+        }
+
+        assertTrue(closedCalls.await(5, TimeUnit.SECONDS))
+        val metrics = assertNotNull(instrumentation[GreeterGrpc.getSayHelloMethod().fullMethodName])
+        assertEquals(0, metrics.activeCalls)
+        assertEquals(3L, metrics.closedCalls(Status.Code.OK))
+        assertEquals(1L, metrics.closedCalls(Status.Code.INVALID_ARGUMENT))
+        assertEquals(4L, metrics.timeToFirstRequestNanos.count)
+        assertEquals(3L, metrics.timeToFirstResponseNanos.count)
+        assertEquals(4L, metrics.callDurationNanos.count)
+    }
+
+    @Test
+    fun `Bidi calls record outbound stalls`() {
+        grpcServerRule.serviceRegistry.addService(service)
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+            .withCallInstrumentation(instrumentation)
+
+        runBlocking {
+            val (requestChannel, responseChannel) = stub.withCoroutineContext().sayHelloStreaming()
+            launch(Dispatchers.Default) {
+                repeat(20) { requestChannel.send { name = "name $it" } }
+                requestChannel.close()
+            }
+            assertEquals(20, responseChannel.toList().size)
+        }
+
+        val metrics = assertNotNull(instrumentation[GreeterGrpc.getSayHelloStreamingMethod().fullMethodName])
+        assertEquals(1L, metrics.closedCalls(Status.Code.OK))
+        assertEquals(1L, metrics.timeToFirstResponseNanos.count)
+        assertEquals(20L, metrics.bufferedResponses.count)
+        assertTrue(metrics.outboundStalledNanos.count > 0, metrics.toString())
+    }
+
+    @Test
+    fun `Listener receives call events in order`() {
+        grpcServerRule.serviceRegistry.addService(service)
+        val listener = mockk<ClientCallListener>(relaxed = true)
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+            .withCallInstrumentation(object : ClientCallInstrumentation {
+                override fun newCallListener(methodDescriptor: MethodDescriptor<*, *>) = listener
+            })
+
+        runBlocking { stub.sayHello { name = "name" } }
+
+        verifyOrder {
+            listener.onCallStarted()
+            listener.onFirstRequestSent()
+            listener.onFirstResponse()
+            listener.onCallClosed(match { it.isOk })
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import com.google.protobuf.ByteString
+import io.grpc.Drainable
+import io.grpc.KnownLength
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Rule
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.CoroutineContext
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class BroadcastHubTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    private val methodDescriptor = GreeterGrpc.getSayHelloServerStreamingMethod()
+
+    private val serializationCount = AtomicInteger()
+
+    private val countingMarshaller = object : MethodDescriptor.Marshaller<HelloReply> {
+        override fun stream(value: HelloReply): InputStream {
+            serializationCount.incrementAndGet()
+            return methodDescriptor.responseMarshaller.stream(value)
+        }
+
+        override fun parse(stream: InputStream): HelloReply = methodDescriptor.responseMarshaller.parse(stream)
+    }
+
+    private fun reply(message: String) = HelloReply.newBuilder().setMessage(message).build()
+
+    private fun BroadcastHub<HelloReply>.awaitSubscribers(count: Int) = runBlocking {
+        withTimeout(5000) {
+            while (subscriberCount < count) delay(10)
+        }
+    }
+
+    private fun BroadcastHub<HelloReply>.registerService(policy: SlowConsumerPolicy = SlowConsumerPolicy.DEFAULT) {
+        val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override val initialContext: CoroutineContext = Dispatchers.Default
+            override suspend fun sayHelloServerStreaming(
+                request: HelloRequest,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                subscribe(responseChannel, policy)
+            }
+        }
+        grpcServerRule.serviceRegistry.addService(bindService(service.bindService(), methodDescriptor))
+    }
+
+    @Test
+    fun `Published messages are serialized once for all subscribers`() {
+        val hub = BroadcastHub(countingMarshaller)
+        hub.registerService()
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+        val responseChannels = List(3) { stub.sayHelloServerStreaming() }
+        hub.awaitSubscribers(3)
+
+        val replies = listOf(reply("update 1"), reply("update 2"))
+        runBlocking {
+            replies.forEach { hub.publish(it) }
+        }
+        hub.close()
+
+        runBlocking {
+            responseChannels.forEach { assertEquals(replies, it.toList()) }
+        }
+        assertEquals(replies.size, serializationCount.get())
+    }
+
+    @Test
+    fun `Closing the hub with a cause fails its subscribers`() {
+        val hub = BroadcastHub(countingMarshaller)
+        hub.registerService()
+        val responseChannel = GreeterCoroutineGrpc.newStub(grpcServerRule.channel).sayHelloServerStreaming()
+        hub.awaitSubscribers(1)
+
+        hub.close(Status.UNAVAILABLE.asRuntimeException())
+        assertFailsWithStatus(Status.UNAVAILABLE) {
+            runBlocking { responseChannel.toList() }
+        }
+    }
+
+    @Test
+    fun `Disconnect policy fails subscribers that cannot keep up`() = runBlocking {
+        val hub = BroadcastHub(countingMarshaller)
+        val responseChannel = Channel<HelloReply>()
+        val subscriber = launch(start = CoroutineStart.UNDISPATCHED) {
+            assertFailsWithStatus(Status.RESOURCE_EXHAUSTED) {
+                hub.subscribe(responseChannel, SlowConsumerPolicy.Disconnect(1))
+            }
+        }
+
+        // Nothing is received from the response channel, so only
+        // one message can be in flight and one more can be buffered
+        repeat(3) { hub.publish(reply("update $it")) }
+        subscriber.join()
+        assertEquals(0, hub.subscriberCount)
+    }
+
+    @Test
+    fun `Conflate policy only keeps the latest message`() = runBlocking {
+        val hub = BroadcastHub(countingMarshaller)
+        val responseChannel = Channel<HelloReply>()
+        launch(start = CoroutineStart.UNDISPATCHED) {
+            try {
+                hub.subscribe(responseChannel, SlowConsumerPolicy.Conflate)
+            } finally {
+                responseChannel.close()
+            }
+        }
+
+        repeat(3) { hub.publish(reply("update $it")) }
+        hub.close()
+        assertEquals(listOf(reply("update 0"), reply("update 2")), responseChannel.toList())
+    }
+
+    @Test
+    fun `Published messages are drained from their shared bytes`() = runBlocking {
+        val hub = BroadcastHub(countingMarshaller)
+        val subscriber = launch(start = CoroutineStart.UNDISPATCHED) {
+            hub.subscribe(Channel(), SlowConsumerPolicy.Conflate)
+        }
+        val message = reply("update")
+        hub.publish(message)
+
+        repeat(2) {
+            val stream = hub.serializingMarshaller.stream(message)
+            assertTrue(stream is KnownLength && stream is Drainable)
+            assertEquals(message.serializedSize, stream.available())
+
+            val drained = ByteArrayOutputStream()
+            assertEquals(message.serializedSize, (stream as Drainable).drainTo(drained))
+            assertEquals(message.toByteString(), ByteString.copyFrom(drained.toByteArray()))
+        }
+        assertEquals(1, serializationCount.get())
+        subscriber.cancel()
+    }
+
+    @Test
+    fun `Cache grows to cover the buffer of its subscribers`() = runBlocking {
+        val hub = BroadcastHub(countingMarshaller, cachedMessageCount = 1)
+        val subscriber = launch(start = CoroutineStart.UNDISPATCHED) {
+            hub.subscribe(Channel(), SlowConsumerPolicy.DropOldest(8))
+        }
+        val messages = List(8) { reply("update $it") }
+        messages.forEach { hub.publish(it) }
+
+        // The oldest buffered message is still marshalled from its cached bytes
+        hub.serializingMarshaller.stream(messages.first())
+        assertEquals(messages.size, serializationCount.get())
+        subscriber.cancel()
+    }
+}
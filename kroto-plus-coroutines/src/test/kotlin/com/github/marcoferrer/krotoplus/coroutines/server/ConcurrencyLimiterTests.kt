@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import io.grpc.MethodDescriptor
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Rule
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class ConcurrencyLimiterTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule()
+
+    @Test
+    fun `Static limiter admits calls up to its limit`() {
+        val limiter = StaticConcurrencyLimiter(2)
+
+        assertTrue(limiter.tryAcquire())
+        assertTrue(limiter.tryAcquire())
+        assertFalse(limiter.tryAcquire())
+
+        limiter.release(0, null)
+        assertEquals(1, limiter.inFlight)
+        assertTrue(limiter.tryAcquire())
+    }
+
+    @Test
+    fun `Aimd limiter grows while its limit is in use`() {
+        val limiter = AimdConcurrencyLimiter(initialLimit = 2, maxLimit = 3)
+
+        repeat(2) { assertTrue(limiter.tryAcquire()) }
+        assertFalse(limiter.tryAcquire())
+
+        limiter.release(0, null)
+        assertEquals(3, limiter.limit)
+
+        repeat(2) { assertTrue(limiter.tryAcquire()) }
+        repeat(3) { limiter.release(0, null) }
+        assertEquals(3, limiter.limit)
+    }
+
+    @Test
+    fun `Aimd limiter backs off when calls are overloaded`() {
+        val limiter = AimdConcurrencyLimiter(initialLimit = 20, minLimit = 10, timeoutMillis = 100)
+
+        limiter.tryAcquire()
+        limiter.release(TimeUnit.MILLISECONDS.toNanos(200), null)
+        assertEquals(18, limiter.limit)
+
+        limiter.tryAcquire()
+        limiter.release(0, Status.DEADLINE_EXCEEDED.asRuntimeException())
+        assertEquals(16, limiter.limit)
+
+        limiter.tryAcquire()
+        limiter.release(0, Status.INVALID_ARGUMENT.asRuntimeException())
+        assertEquals(16, limiter.limit)
+
+        repeat(10) {
+            limiter.tryAcquire()
+            limiter.release(0, Status.UNAVAILABLE.asRuntimeException())
+        }
+        assertEquals(10, limiter.limit)
+    }
+
+    @Test
+    fun `Aimd limiter does not back off from long running streams`() {
+        val limiter = AimdConcurrencyLimiter(initialLimit = 4, timeoutMillis = 100)
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+            override fun concurrencyLimiter(methodDescriptor: MethodDescriptor<*, *>): ConcurrencyLimiter = limiter
+
+            override suspend fun sayHelloServerStreaming(request: HelloRequest, responseChannel: SendChannel<HelloReply>) {
+                repeat(3) {
+                    responseChannel.send(HelloReply.newBuilder().setMessage("Hello $it").build())
+                    delay(100)
+                }
+            }
+        })
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+
+        runBlocking {
+            assertEquals(3, stub.sayHelloServerStreaming(HelloRequest.getDefaultInstance()).toList().size)
+            // The slot is released once the writer of the call has completed,
+            // which can happen after the client has received the last response.
+            withTimeout(1000) {
+                while (limiter.inFlight > 0) delay(10)
+            }
+        }
+        assertEquals(4, limiter.limit)
+    }
+
+    @Test
+    fun `Calls beyond the limit are rejected`() {
+        val limiter = StaticConcurrencyLimiter(1)
+        val callStarted = CompletableDeferred<Unit>()
+        val releaseCall = CompletableDeferred<Unit>()
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+            override fun concurrencyLimiter(methodDescriptor: MethodDescriptor<*, *>): ConcurrencyLimiter = limiter
+
+            override suspend fun sayHello(request: HelloRequest): HelloReply {
+                callStarted.complete(Unit)
+                releaseCall.await()
+                return HelloReply.newBuilder().setMessage("Hello ${request.name}").build()
+            }
+        })
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+
+        runBlocking {
+            val admittedCall = async { stub.sayHello(HelloRequest.newBuilder().setName("first").build()) }
+            callStarted.await()
+
+            assertFailsWithStatus(Status.RESOURCE_EXHAUSTED) {
+                stub.sayHello(HelloRequest.getDefaultInstance())
+            }
+
+            releaseCall.complete(Unit)
+            assertEquals("Hello first", admittedCall.await().message)
+            // The slot is released once the handler coroutine has finished, which
+            // can happen after the client has received its response.
+            withTimeout(1000) {
+                while (limiter.inFlight > 0) delay(10)
+            }
+            assertEquals("Hello second", stub.sayHello(HelloRequest.newBuilder().setName("second").build()).message)
+        }
+    }
+
+    @Test
+    fun `Calls failing before their handler is launched release their slot`() {
+        val limiter = StaticConcurrencyLimiter(1)
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+            override fun concurrencyLimiter(methodDescriptor: MethodDescriptor<*, *>): ConcurrencyLimiter = limiter
+
+            // Fails the setup of streaming calls
+            override fun inboundPrefetch(methodDescriptor: MethodDescriptor<*, *>): Int = 0
+        })
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+
+        repeat(2) {
+            assertFailsWithStatus(Status.UNKNOWN) {
+                runBlocking {
+                    val call = stub.sayHelloStreaming()
+                    call.requestChannel.close()
+                    call.responseChannel.toList()
+                }
+            }
+        }
+        assertEquals(0, limiter.inFlight)
+    }
+}
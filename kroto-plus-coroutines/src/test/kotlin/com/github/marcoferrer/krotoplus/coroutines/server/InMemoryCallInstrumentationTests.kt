@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.CallHistogram
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import com.github.marcoferrer.krotoplus.coroutines.withCoroutineContext
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.examples.helloworld.send
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Rule
+import org.junit.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+
+class InMemoryCallInstrumentationTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    private val instrumentation = InMemoryCallInstrumentation()
+
+    private val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+        override val callInstrumentation: ServerCallInstrumentation
+            get() = instrumentation
+
+        override suspend fun sayHello(request: HelloRequest): HelloReply {
+            if (request.name == "error") throw Status.INVALID_ARGUMENT.asRuntimeException()
+            return HelloReply.newBuilder().setMessage("Hello ${request.name}").build()
+        }
+
+        override suspend fun sayHelloServerStreaming(request: HelloRequest, responseChannel: SendChannel<HelloReply>) {
+            repeat(10) { responseChannel.send { message = "Hello ${request.name} $it" } }
+        }
+    }
+
+    @Test
+    fun `Histogram reports bucket upper bounds`() {
+        val histogram = CallHistogram()
+        assertEquals(0L, histogram.percentile(99.0))
+
+        listOf(0L, 1L, 3L, 5L, 100L).forEach { histogram.record(it) }
+
+        assertEquals(5L, histogram.count)
+        assertEquals(109L, histogram.sum)
+        assertEquals(100L, histogram.max)
+        assertEquals(0L, histogram.percentile(20.0))
+        assertEquals(3L, histogram.percentile(60.0))
+        assertEquals(7L, histogram.percentile(80.0))
+        assertEquals(100L, histogram.percentile(100.0))
+    }
+
+    @Test
+    fun `Histogram records negative values as zero`() {
+        val histogram = CallHistogram()
+        histogram.record(-10L)
+
+        assertEquals(1L, histogram.count)
+        assertEquals(0L, histogram.sum)
+        assertEquals(0L, histogram.percentile(100.0))
+    }
+
+    @Test
+    fun `Calls are attributed to their method`() {
+        grpcServerRule.serviceRegistry.addService(service)
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+
+        runBlocking {
+            repeat(3) { stub.sayHello { name = "name $it" } }
+            assertFailsWithStatus(Status.INVALID_ARGUMENT) {
+                stub.sayHello { name = "error" }
+            }
+        }
+
+        val metrics = assertNotNull(instrumentation[GreeterGrpc.getSayHelloMethod().fullMethodName])
+        metrics.awaitIdle()
+        assertEquals(3L, metrics.completedCalls)
+        assertEquals(1L, metrics.failedCalls)
+        assertNull(instrumentation[GreeterGrpc.getSayHelloServerStreamingMethod().fullMethodName])
+    }
+
+    @Test
+    fun `Server streaming calls are recorded on completion`() {
+        grpcServerRule.serviceRegistry.addService(service)
+
+        runBlocking {
+            val responses = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+                .withCoroutineContext()
+                .sayHelloServerStreaming { name = "name" }
+                .toList()
+
+            assertEquals(10, responses.size)
+        }
+
+        val metrics = assertNotNull(instrumentation[GreeterGrpc.getSayHelloServerStreamingMethod().fullMethodName])
+        metrics.awaitIdle()
+        assertEquals(1L, metrics.completedCalls)
+        assertEquals(0L, metrics.failedCalls)
+        assertEquals(setOf(GreeterGrpc.getSayHelloServerStreamingMethod().fullMethodName), instrumentation.methods.keys)
+    }
+
+    // The client can observe the end of a call before the service coroutine has finished
+    private fun InMemoryCallInstrumentation.MethodMetrics.awaitIdle() = runBlocking {
+        withTimeout(1000) {
+            while (activeCalls > 0) delay(10)
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.github.marcoferrer.krotoplus.coroutines.utils.serverRpcSpy
 import com.github.marcoferrer.krotoplus.coroutines.withCoroutineContext
 import io.grpc.CallOptions
 import io.grpc.ClientCall
+import io.grpc.MethodDescriptor
 import io.grpc.Status
 import io.grpc.examples.helloworld.GreeterCoroutineGrpc
 import io.grpc.examples.helloworld.GreeterGrpc
@@ -127,6 +128,40 @@ class ServerCallBidiStreamingTests {
         assert(respChannel.isClosedForSend) { "Response channel should be closed" }
     }
 
+    @Test
+    fun `Server responds successfully after its response writer hibernates`() {
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override val initialContext: CoroutineContext = Dispatchers.Unconfined
+            override fun idleStreamTimeoutMillis(methodDescriptor: MethodDescriptor<*, *>): Long = 20
+            override suspend fun sayHelloStreaming(
+                requestChannel: ReceiveChannel<HelloRequest>,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                requestChannel.consumeEach {
+                    responseChannel.send(HelloReply.newBuilder().setMessage("Reply: ${it.name}").build())
+                }
+            }
+        })
+
+        val requestObserver = GreeterGrpc.newStub(grpcServerRule.channel)
+            .sayHelloStreaming(responseObserver)
+
+        repeat(3) {
+            // Leaves the stream idle for long enough that the writer hibernates between requests
+            Thread.sleep(100)
+            requestObserver.onNext(HelloRequest.newBuilder().setName(it.toString()).build())
+        }
+        Thread.sleep(100)
+        requestObserver.onCompleted()
+        verifyOrder {
+            responseObserver.onNext(match { it.message == "Reply: 0" })
+            responseObserver.onNext(match { it.message == "Reply: 1" })
+            responseObserver.onNext(match { it.message == "Reply: 2" })
+            responseObserver.onCompleted()
+        }
+        verify(exactly = 0) { responseObserver.onError(any()) }
+    }
+
     @Test
     fun `Server responds successfully on uneven requests to response`() {
         lateinit var reqChannel: ReceiveChannel<HelloRequest>
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import com.github.marcoferrer.krotoplus.coroutines.utils.matchStatus
+import io.grpc.Context
+import io.grpc.Deadline
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.stub.ServerCallStreamObserver
+import io.grpc.testing.GrpcServerRule
+import io.mockk.mockk
+import io.mockk.verify
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+
+class ServerCallDeadlineTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule()
+
+    private val scheduler = Executors.newSingleThreadScheduledExecutor()
+
+    @After
+    fun tearDown() {
+        scheduler.shutdownNow()
+    }
+
+    @Test
+    fun `Rpc scope is cancelled at the call deadline`() {
+        val cancellationStatus = CompletableDeferred<Status>()
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override suspend fun sayHello(request: HelloRequest): HelloReply {
+                try {
+                    delay(10_000)
+                } catch (e: CancellationException) {
+                    cancellationStatus.complete(Status.fromThrowable(e))
+                    throw e
+                }
+                return HelloReply.getDefaultInstance()
+            }
+        })
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+
+        runBlocking {
+            assertFailsWithStatus(Status.DEADLINE_EXCEEDED) {
+                stub.withDeadlineAfter(1, TimeUnit.SECONDS)
+                    .sayHello(HelloRequest.getDefaultInstance())
+            }
+
+            val status = withTimeout(3000) { cancellationStatus.await() }
+            assertEquals(Status.Code.DEADLINE_EXCEEDED, status.code)
+        }
+    }
+
+    @Test
+    fun `Calls with an expired deadline are not started`() {
+        val isStarted = AtomicBoolean()
+        val responseObserver = mockk<ServerCallStreamObserver<HelloReply>>(relaxed = true)
+        val serviceScope = object : ServiceScope {}
+        val expiredContext = Context.current()
+            .withDeadline(Deadline.after(-1, TimeUnit.MILLISECONDS), scheduler)
+
+        expiredContext.run {
+            serviceScope.serverCallUnary(GreeterGrpc.getSayHelloMethod(), responseObserver) {
+                isStarted.set(true)
+                HelloReply.getDefaultInstance()
+            }
+        }
+
+        assertFalse(isStarted.get())
+        verify(exactly = 1) { responseObserver.onError(matchStatus(Status.DEADLINE_EXCEEDED)) }
+        verify(exactly = 0) { responseObserver.setOnCancelHandler(any()) }
+    }
+}
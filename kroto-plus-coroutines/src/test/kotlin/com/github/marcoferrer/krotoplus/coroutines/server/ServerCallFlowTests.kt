@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.utils.matchStatus
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.stub.StreamObserver
+import io.grpc.testing.GrpcServerRule
+import io.mockk.spyk
+import io.mockk.verify
+import io.mockk.verifyOrder
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOf
+import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.flow.onEach
+import org.junit.Rule
+import org.junit.Test
+import kotlin.coroutines.CoroutineContext
+
+class ServerCallFlowTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    private val request = HelloRequest.newBuilder().setName("abc").build()
+
+    private val responseObserver = spyk<StreamObserver<HelloReply>>(object: StreamObserver<HelloReply>{
+        override fun onNext(value: HelloReply?) {}
+        override fun onError(t: Throwable?) {}
+        override fun onCompleted() {}
+    })
+
+    private fun reply(message: String) = HelloReply.newBuilder().setMessage(message).build()
+
+    private fun registerService(
+        serverStreaming: (HelloRequest) -> Flow<HelloReply> =
+            { serverCallUnimplementedFlow(GreeterGrpc.getSayHelloServerStreamingMethod()) },
+        bidiStreaming: (Flow<HelloRequest>) -> Flow<HelloReply> =
+            { serverCallUnimplementedFlow(GreeterGrpc.getSayHelloStreamingMethod()) }
+    ) {
+        val service = object : GreeterGrpc.GreeterImplBase(), ServiceScope {
+            // We're using `Dispatchers.Unconfined` so that responses are
+            // returned before verifying the result.
+            override val initialContext: CoroutineContext = Dispatchers.Unconfined
+
+            override fun sayHelloServerStreaming(request: HelloRequest, responseObserver: StreamObserver<HelloReply>) =
+                serverCallServerStreamingFlow(GreeterGrpc.getSayHelloServerStreamingMethod(), responseObserver) {
+                    serverStreaming(request)
+                }
+
+            override fun sayHelloStreaming(responseObserver: StreamObserver<HelloReply>): StreamObserver<HelloRequest> =
+                serverCallBidiStreamingFlow(GreeterGrpc.getSayHelloStreamingMethod(), responseObserver) { requests ->
+                    bidiStreaming(requests)
+                }
+        }
+        grpcServerRule.serviceRegistry.addService(service)
+    }
+
+    @Test
+    fun `Server streaming flow responds successfully`() {
+        registerService(serverStreaming = { request ->
+            flow { for (char in request.name) emit(reply(char.toString())) }
+        })
+
+        GreeterGrpc.newStub(grpcServerRule.channel)
+            .sayHelloServerStreaming(request, responseObserver)
+
+        verifyOrder {
+            responseObserver.onNext(match { it.message == "a" })
+            responseObserver.onNext(match { it.message == "b" })
+            responseObserver.onNext(match { it.message == "c" })
+            responseObserver.onCompleted()
+        }
+        verify(exactly = 0) { responseObserver.onError(any()) }
+    }
+
+    @Test
+    fun `Server streaming flow responds with error when collection fails`() {
+        registerService(serverStreaming = {
+            flowOf(reply("a")).onEach { throw Status.INVALID_ARGUMENT.asRuntimeException() }
+        })
+
+        GreeterGrpc.newStub(grpcServerRule.channel)
+            .sayHelloServerStreaming(request, responseObserver)
+
+        verify(exactly = 1) { responseObserver.onError(matchStatus(Status.INVALID_ARGUMENT)) }
+        verify(exactly = 0) { responseObserver.onNext(any()) }
+        verify(exactly = 0) { responseObserver.onCompleted() }
+    }
+
+    @Test
+    fun `Server streaming flow responds with unimplemented by default`() {
+        registerService()
+
+        GreeterGrpc.newStub(grpcServerRule.channel)
+            .sayHelloServerStreaming(request, responseObserver)
+
+        verify(exactly = 1) { responseObserver.onError(matchStatus(Status.UNIMPLEMENTED)) }
+        verify(exactly = 0) { responseObserver.onCompleted() }
+    }
+
+    @Test
+    fun `Bidi streaming flow responds to each request`() {
+        registerService(bidiStreaming = { requests ->
+            requests.map { reply("reply:${it.name}") }
+        })
+
+        val requestObserver = GreeterGrpc.newStub(grpcServerRule.channel)
+            .sayHelloStreaming(responseObserver)
+
+        repeat(3) {
+            requestObserver.onNext(HelloRequest.newBuilder().setName("$it").build())
+        }
+        requestObserver.onCompleted()
+
+        verifyOrder {
+            responseObserver.onNext(match { it.message == "reply:0" })
+            responseObserver.onNext(match { it.message == "reply:1" })
+            responseObserver.onNext(match { it.message == "reply:2" })
+            responseObserver.onCompleted()
+        }
+        verify(exactly = 0) { responseObserver.onError(any()) }
+    }
+
+    @Test
+    fun `Bidi streaming flow responds with error when requests fail`() {
+        registerService(bidiStreaming = { requests ->
+            requests.map { reply("reply:${it.name}") }
+        })
+
+        val requestObserver = GreeterGrpc.newStub(grpcServerRule.channel)
+            .sayHelloStreaming(responseObserver)
+
+        requestObserver.onNext(HelloRequest.newBuilder().setName("0").build())
+        requestObserver.onError(Status.DATA_LOSS.asRuntimeException())
+
+        verify(exactly = 1) { responseObserver.onNext(match { it.message == "reply:0" }) }
+        verify(exactly = 1) { responseObserver.onError(matchStatus(Status.CANCELLED)) }
+        verify(exactly = 0) { responseObserver.onCompleted() }
+    }
+}
@@ -17,6 +17,8 @@
 package com.github.marcoferrer.krotoplus.coroutines.server
 
 
+import com.github.marcoferrer.krotoplus.coroutines.OutboundReadiness
+import com.github.marcoferrer.krotoplus.coroutines.outboundReadiness
 import com.github.marcoferrer.krotoplus.coroutines.utils.COROUTINE_TEST_TIMEOUT
 import com.github.marcoferrer.krotoplus.coroutines.utils.CancellingClientInterceptor
 import com.github.marcoferrer.krotoplus.coroutines.utils.ServerSpy
@@ -53,6 +55,8 @@ import org.junit.Test
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.coroutineContext
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 
 class ServerCallServerStreamingTests {
 
@@ -111,6 +115,33 @@ class ServerCallServerStreamingTests {
         verify(exactly = 0) { responseObserver.onError(any()) }
     }
 
+    @Test
+    fun `Server producer observes the readiness of the response channel`(){
+        lateinit var readiness: OutboundReadiness
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase(){
+            override val initialContext: CoroutineContext = Dispatchers.Unconfined
+            override suspend fun sayHelloServerStreaming(
+                request: HelloRequest,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                readiness = responseChannel.outboundReadiness
+                for(char in request.name) {
+                    readiness.awaitReady()
+                    assertTrue(readiness.isReady)
+                    responseChannel.send { message = char.toString() }
+                }
+            }
+        })
+
+        GreeterGrpc.newStub(grpcServerRule.channel)
+            .sayHelloServerStreaming(request,responseObserver)
+
+        verify(exactly = 3) { responseObserver.onNext(any()) }
+        verify(exactly = 1) { responseObserver.onCompleted() }
+        assertFalse(readiness.isReady)
+        assertEquals(0, readiness.queueDepth)
+    }
+
     @Test
     fun `Server responds with error when exception thrown`(){
         lateinit var respChannel: SendChannel<HelloReply>
@@ -31,10 +31,13 @@ import io.grpc.examples.helloworld.GreeterGrpc
 import io.grpc.examples.helloworld.HelloReply
 import io.grpc.examples.helloworld.HelloRequest
 import io.grpc.stub.ClientCalls
+import io.grpc.stub.ServerCallStreamObserver
 import io.grpc.stub.StreamObserver
 import io.grpc.testing.GrpcServerRule
+import io.mockk.mockk
 import io.mockk.spyk
 import io.mockk.verify
+import io.mockk.verifyOrder
 import kotlinx.coroutines.CompletableDeferred
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
@@ -51,6 +54,7 @@ import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.coroutineContext
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 
 
 class ServerCallUnaryTests {
@@ -144,17 +148,19 @@ class ServerCallUnaryTests {
 
     @Test
     fun `Server is cancelled when client sends cancellation`() {
-        lateinit var serverSpy: ServerSpy
+        val deferredServerSpy = CompletableDeferred<ServerSpy>()
         grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
             override val initialContext: CoroutineContext = Dispatchers.Default
             override suspend fun sayHello(request: HelloRequest): HelloReply {
-                serverSpy = serverRpcSpy(coroutineContext)
+                deferredServerSpy.complete(serverRpcSpy(coroutineContext))
                 delay(300000L)
                 return expectedResponse
             }
         })
 
         val call = newCall()
+        // The handler is dispatched, so it may not have started by the time the call is cancelled
+        val serverSpy = runBlocking { deferredServerSpy.await() }
         call.cancel("test",null)
         assert(serverSpy.job!!.isCancelled){ "Server job must be cancelled" }
         verify(exactly = 1) {
@@ -164,6 +170,67 @@ class ServerCallUnaryTests {
         assertEquals("Job was cancelled",serverSpy.error?.message)
     }
 
+    @Test
+    fun `Undispatched handler completes on the transport thread`(){
+        val transportThread = Thread.currentThread()
+        val handlerThreads = mutableListOf<Thread>()
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase(){
+            override val initialContext: CoroutineContext = Dispatchers.Default
+            override fun startUndispatched(methodDescriptor: MethodDescriptor<*, *>): Boolean = true
+            override suspend fun sayHello(request: HelloRequest): HelloReply {
+                handlerThreads += Thread.currentThread()
+                return expectedResponse
+            }
+        })
+
+        val response = GreeterGrpc.newBlockingStub(grpcServerRule.channel).sayHello(request)
+        assertEquals(expectedResponse, response)
+        assertEquals(listOf(transportThread), handlerThreads)
+    }
+
+    @Test
+    fun `Undispatched handler that does not suspend completes without an rpc scope`() {
+        val serverCallObserver = mockk<ServerCallStreamObserver<HelloReply>>(relaxed = true)
+        val serviceScope = object : ServiceScope {
+            override fun startUndispatched(methodDescriptor: MethodDescriptor<*, *>): Boolean = true
+        }
+        var handlerJob: Job? = null
+
+        serviceScope.serverCallUnary(methodDescriptor, request, serverCallObserver) { _ ->
+            handlerJob = coroutineContext[Job]
+            expectedResponse
+        }
+
+        verifyOrder {
+            serverCallObserver.onNext(expectedResponse)
+            serverCallObserver.onCompleted()
+        }
+        // Cancellation is only bound to the scope of handlers that suspend
+        verify(exactly = 0) { serverCallObserver.setOnCancelHandler(any()) }
+        assertTrue(handlerJob!!.isCompleted)
+    }
+
+    @Test
+    fun `Undispatched handler is cancelled after suspending`() {
+        lateinit var serverSpy: ServerSpy
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override val initialContext: CoroutineContext = Dispatchers.Default
+            override fun startUndispatched(methodDescriptor: MethodDescriptor<*, *>): Boolean = true
+            override suspend fun sayHello(request: HelloRequest): HelloReply {
+                serverSpy = serverRpcSpy(coroutineContext)
+                delay(300000L)
+                return expectedResponse
+            }
+        })
+
+        val call = newCall()
+        call.cancel("test",null)
+        assert(serverSpy.job!!.isCancelled){ "Server job must be cancelled" }
+        verify(exactly = 1) {
+            responseObserver.onError(matchStatus(Status.CANCELLED))
+        }
+    }
+
     @Test
     fun `Server method is at least invoked before being cancelled`(){
         val serverMethodCompleted = AtomicBoolean()
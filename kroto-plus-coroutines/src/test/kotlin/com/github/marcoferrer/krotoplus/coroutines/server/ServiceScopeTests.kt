@@ -0,0 +1,143 @@
+/*
+ * Copyright 2019 Kroto+ Contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.marcoferrer.krotoplus.coroutines.server
+
+import com.github.marcoferrer.krotoplus.coroutines.utils.assertFailsWithStatus
+import io.grpc.ForwardingServerCall
+import io.grpc.Metadata
+import io.grpc.MethodDescriptor
+import io.grpc.ServerCall
+import io.grpc.ServerCallHandler
+import io.grpc.ServerInterceptor
+import io.grpc.ServerInterceptors
+import io.grpc.Status
+import io.grpc.examples.helloworld.GreeterCoroutineGrpc
+import io.grpc.examples.helloworld.GreeterGrpc
+import io.grpc.examples.helloworld.HelloReply
+import io.grpc.examples.helloworld.HelloRequest
+import io.grpc.testing.GrpcServerRule
+import kotlinx.coroutines.channels.ReceiveChannel
+import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.channels.consumeEach
+import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.Rule
+import org.junit.Test
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
+import kotlin.test.assertEquals
+
+class ServiceScopeTests {
+
+    @[Rule JvmField]
+    var grpcServerRule = GrpcServerRule().directExecutor()
+
+    @Test
+    fun `Method context is used for each method`() {
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+            override val initialContext: CoroutineContext
+                get() = Marker("service")
+
+            override fun methodContext(methodDescriptor: MethodDescriptor<*, *>): CoroutineContext =
+                if (methodDescriptor == GreeterGrpc.getSayHelloMethod())
+                    Marker("method") else
+                    super.methodContext(methodDescriptor)
+
+            override suspend fun sayHello(request: HelloRequest): HelloReply =
+                HelloReply.newBuilder().setMessage(coroutineContext[Marker]!!.value).build()
+
+            override suspend fun sayHelloServerStreaming(request: HelloRequest, responseChannel: SendChannel<HelloReply>) {
+                responseChannel.send(HelloReply.newBuilder().setMessage(coroutineContext[Marker]!!.value).build())
+            }
+        })
+
+        val stub = GreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+        runBlocking {
+            assertEquals("method", stub.sayHello(HelloRequest.getDefaultInstance()).message)
+            assertEquals(
+                listOf("service"),
+                stub.sayHelloServerStreaming(HelloRequest.getDefaultInstance()).toList().map { it.message }
+            )
+        }
+    }
+
+    @Test
+    fun `Inbound prefetch can be set for each method`() {
+        val requestedMessages = mutableListOf<Int>()
+        val service = object : GreeterCoroutineGrpc.GreeterImplBase() {
+
+            override fun inboundPrefetch(methodDescriptor: MethodDescriptor<*, *>): Int =
+                if (methodDescriptor == GreeterGrpc.getSayHelloStreamingMethod()) 8 else 2
+
+            override suspend fun sayHelloStreaming(
+                requestChannel: ReceiveChannel<HelloRequest>,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                requestChannel.consumeEach {
+                    responseChannel.send(HelloReply.newBuilder().setMessage(it.name).build())
+                }
+            }
+        }
+        grpcServerRule.serviceRegistry.addService(
+            ServerInterceptors.intercept(service, recordingRequests(requestedMessages))
+        )
+
+        runBlocking {
+            val call = GreeterCoroutineGrpc.newStub(grpcServerRule.channel).sayHelloStreaming()
+            call.requestChannel.send(HelloRequest.newBuilder().setName("name").build())
+            assertEquals("name", call.responseChannel.receive().message)
+            call.requestChannel.close()
+            call.responseChannel.toList()
+        }
+        assertEquals(8, requestedMessages.first())
+    }
+
+    @Test
+    fun `Streaming requests fail when the inbound prefetch is not positive`() {
+        grpcServerRule.serviceRegistry.addService(object : GreeterCoroutineGrpc.GreeterImplBase() {
+            override fun inboundPrefetch(methodDescriptor: MethodDescriptor<*, *>): Int = 0
+        })
+
+        assertFailsWithStatus(Status.UNKNOWN) {
+            runBlocking {
+                val call = GreeterCoroutineGrpc.newStub(grpcServerRule.channel).sayHelloStreaming()
+                call.requestChannel.close()
+                call.responseChannel.toList()
+            }
+        }
+    }
+
+    private fun recordingRequests(requestedMessages: MutableList<Int>) = object : ServerInterceptor {
+        override fun <ReqT, RespT> interceptCall(
+            call: ServerCall<ReqT, RespT>,
+            headers: Metadata,
+            next: ServerCallHandler<ReqT, RespT>
+        ): ServerCall.Listener<ReqT> =
+            next.startCall(object : ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+                override fun request(numMessages: Int) {
+                    synchronized(requestedMessages) { requestedMessages += numMessages }
+                    super.request(numMessages)
+                }
+            }, headers)
+    }
+
+    private class Marker(val value: String) : AbstractCoroutineContextElement(Marker) {
+        companion object Key : CoroutineContext.Key<Marker>
+    }
+}
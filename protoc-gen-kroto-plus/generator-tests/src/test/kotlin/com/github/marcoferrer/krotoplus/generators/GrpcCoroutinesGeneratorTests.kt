@@ -30,14 +30,25 @@ import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.channels.SendChannel
 import kotlinx.coroutines.channels.consumeEach
 import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.asFlow
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.flow.map
 import org.junit.Ignore
 import org.junit.Rule
 import org.junit.Test
+import test.flow.FlowGreeterCoroutineGrpc
+import test.flowstub.FlowStubGreeterCoroutineGrpc
+import test.lazy.LazyGreeterCoroutineGrpc
 import test.message.TestMessages
 import test.message.__MalformedService__CoroutineGrpc
+import test.zerocopy.ZeroCopyGreeterCoroutineGrpc
 import kotlin.coroutines.CoroutineContext
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotSame
 import kotlin.test.assertNull
+import kotlin.test.assertSame
 import kotlin.test.BeforeTest
 
 @UseExperimental(ObsoleteCoroutinesApi::class)
@@ -228,4 +239,183 @@ class GrpcCoroutinesGeneratorTests {
             )
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `Flow based server handlers are generated`() {
+        grpcServerRule.serviceRegistry.addService(object : FlowGreeterCoroutineGrpc.FlowGreeterImplBase(){
+
+            override val initialContext: CoroutineContext
+                get() = Dispatchers.Default
+
+            override fun sayHelloServerStreaming(request: HelloRequest): Flow<HelloReply> =
+                (0 until 3).asFlow().map { HelloReply { message = request.name + "-$it" } }
+
+            override fun sayHelloStreaming(requests: Flow<HelloRequest>): Flow<HelloReply> =
+                requests.map { HelloReply { message = it.name } }
+        })
+
+        runBlocking {
+            val stub = FlowGreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+                .withCoroutineContext()
+
+            val serverStreamingResults = stub.sayHelloServerStreaming(HelloRequest { name = "name" }).toList()
+            assertEquals("name-0|name-1|name-2", serverStreamingResults.joinToString(separator = "|") { it.message })
+
+            val (requestChannel, responseChannel) = stub.sayHelloStreaming()
+            launch(Dispatchers.Default) {
+                repeat(3) {
+                    requestChannel.send { name = "name $it" }
+                }
+                requestChannel.close()
+            }
+            val bidiResults = responseChannel.toList()
+            assertEquals("name 0|name 1|name 2", bidiResults.joinToString(separator = "|") { it.message })
+        }
+    }
+
+    @Test
+    fun `Lazy inbound parsing is generated`() {
+        val service = object : LazyGreeterCoroutineGrpc.LazyGreeterImplBase(){
+
+            override val initialContext: CoroutineContext
+                get() = Dispatchers.Default
+
+            override suspend fun sayHelloServerStreaming(
+                request: HelloRequest,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                repeat(3){
+                    responseChannel.send { message = request.name + "-$it" }
+                }
+            }
+
+            override suspend fun sayHelloStreaming(
+                requestChannel: ReceiveChannel<HelloRequest>,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                requestChannel.consumeEach {
+                    responseChannel.send { message = it.name }
+                }
+            }
+        }
+        val serviceDefinition = service.bindService()
+        val bidiMethod = LazyGreeterCoroutineGrpc.sayHelloStreamingMethod
+        val unaryMethod = LazyGreeterCoroutineGrpc.sayHelloMethod
+        assertNotSame(
+            bidiMethod.requestMarshaller,
+            serviceDefinition.getMethod(bidiMethod.fullMethodName).methodDescriptor.requestMarshaller
+        )
+        assertSame(
+            unaryMethod.requestMarshaller,
+            serviceDefinition.getMethod(unaryMethod.fullMethodName).methodDescriptor.requestMarshaller
+        )
+        grpcServerRule.serviceRegistry.addService(serviceDefinition)
+
+        runBlocking {
+            val stub = LazyGreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+                .withCoroutineContext()
+
+            val serverStreamingResults = stub.sayHelloServerStreaming(HelloRequest { name = "name" }).toList()
+            assertEquals("name-0|name-1|name-2", serverStreamingResults.joinToString(separator = "|") { it.message })
+
+            val (requestChannel, responseChannel) = stub.sayHelloStreaming()
+            launch(Dispatchers.Default) {
+                repeat(3) {
+                    requestChannel.send { name = "name $it" }
+                }
+                requestChannel.close()
+            }
+            val bidiResults = responseChannel.toList()
+            assertEquals("name 0|name 1|name 2", bidiResults.joinToString(separator = "|") { it.message })
+        }
+    }
+
+    @Test
+    fun `Zero copy marshallers are generated`() {
+        val service = object : ZeroCopyGreeterCoroutineGrpc.ZeroCopyGreeterImplBase(){
+
+            override val initialContext: CoroutineContext
+                get() = Dispatchers.Default
+
+            override suspend fun sayHello(request: HelloRequest): HelloReply =
+                HelloReply { message = "Hello " + request.name }
+
+            override suspend fun sayHelloStreaming(
+                requestChannel: ReceiveChannel<HelloRequest>,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                requestChannel.consumeEach {
+                    responseChannel.send { message = it.name }
+                }
+            }
+        }
+        val serviceDefinition = service.bindService()
+        val unaryMethod = ZeroCopyGreeterCoroutineGrpc.sayHelloMethod
+        assertNotSame(
+            unaryMethod.requestMarshaller,
+            serviceDefinition.getMethod(unaryMethod.fullMethodName).methodDescriptor.requestMarshaller
+        )
+        assertNotSame(
+            unaryMethod.responseMarshaller,
+            serviceDefinition.getMethod(unaryMethod.fullMethodName).methodDescriptor.responseMarshaller
+        )
+        grpcServerRule.serviceRegistry.addService(serviceDefinition)
+
+        runBlocking {
+            val stub = ZeroCopyGreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+                .withCoroutineContext()
+
+            assertEquals("Hello name", stub.sayHello(HelloRequest { name = "name" }).message)
+
+            val (requestChannel, responseChannel) = stub.sayHelloStreaming()
+            launch(Dispatchers.Default) {
+                repeat(3) {
+                    requestChannel.send { name = "name $it" }
+                }
+                requestChannel.close()
+            }
+            val bidiResults = responseChannel.toList()
+            assertEquals("name 0|name 1|name 2", bidiResults.joinToString(separator = "|") { it.message })
+        }
+    }
+
+    @Test
+    fun `Server streaming flow stubs are only generated with their option`() {
+        assertFalse(
+            GreeterCoroutineGrpc.GreeterCoroutineStub::class.java.methods
+                .any { it.name == "sayHelloServerStreamingFlow" }
+        )
+    }
+
+    @Test
+    fun `Server streaming flow stubs are generated`() {
+        grpcServerRule.serviceRegistry.addService(object : FlowStubGreeterCoroutineGrpc.FlowStubGreeterImplBase(){
+
+            override val initialContext: CoroutineContext
+                get() = Dispatchers.Default
+
+            override suspend fun sayHelloServerStreamingFlow(request: HelloRequest): HelloReply =
+                HelloReply { message = "unary " + request.name }
+
+            override suspend fun sayHelloRepeated(
+                request: HelloRequest,
+                responseChannel: SendChannel<HelloReply>
+            ) {
+                repeat(3){
+                    responseChannel.send { message = request.name + "-$it" }
+                }
+            }
+        })
+
+        runBlocking {
+            val stub = FlowStubGreeterCoroutineGrpc.newStub(grpcServerRule.channel)
+                .withCoroutineContext()
+
+            val flowResults = stub.sayHelloRepeatedFlow(HelloRequest { name = "name" }).toList()
+            assertEquals("name-0|name-1|name-2", flowResults.joinToString(separator = "|") { it.message })
+
+            // The rpc already named like the flow function of 'SayHelloServerStreaming' keeps that name
+            assertEquals("unary name", stub.sayHelloServerStreamingFlow(HelloRequest { name = "name" }).message)
+        }
+    }
+}
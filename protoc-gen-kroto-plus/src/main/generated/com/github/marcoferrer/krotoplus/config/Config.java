@@ -91,37 +91,41 @@ public final class Config {
       "\nFileFilter\022\024\n\014include_path\030\001 \003(\t\022\024\n\014exc" +
       "lude_path\030\002 \003(\t\"d\n\026GrpcStubExtsGenOption" +
       "s\022.\n\006filter\030\001 \001(\0132\036.krotoplus.compiler.F" +
-      "ileFilter\022\032\n\022support_coroutines\030\002 \001(\010\"J\n" +
-      "\030GrpcCoroutinesGenOptions\022.\n\006filter\030\001 \001(" +
-      "\0132\036.krotoplus.compiler.FileFilter\"{\n\027Pro" +
-      "toBuildersGenOptions\022.\n\006filter\030\001 \001(\0132\036.k" +
-      "rotoplus.compiler.FileFilter\022\027\n\017unwrap_b" +
-      "uilders\030\002 \001(\010\022\027\n\017use_dsl_markers\030\003 \001(\010\"x" +
-      "\n\032GeneratorScriptsGenOptions\022.\n\006filter\030\001" +
-      " \001(\0132\036.krotoplus.compiler.FileFilter\022\023\n\013" +
-      "script_path\030\002 \003(\t\022\025\n\rscript_bundle\030\003 \001(\t" +
-      "\"\303\001\n\034ExtendableMessagesGenOptions\022.\n\006fil" +
+      "ileFilter\022\032\n\022support_coroutines\030\002 \001(\010\"\316\001" +
+      "\n\030GrpcCoroutinesGenOptions\022.\n\006filter\030\001 \001" +
+      "(\0132\036.krotoplus.compiler.FileFilter\022 \n\030us" +
+      "e_flow_server_handlers\030\002 \001(\010\022\034\n\024lazy_inb" +
+      "ound_parsing\030\003 \001(\010\022\035\n\025zero_copy_marshall" +
+      "ers\030\004 \001(\010\022#\n\033server_streaming_flow_stubs" +
+      "\030\005 \001(\010\"{\n\027ProtoBuildersGenOptions\022.\n\006fil" +
       "ter\030\001 \001(\0132\036.krotoplus.compiler.FileFilte" +
-      "r\022\034\n\024companion_field_name\030\002 \001(\t\022\034\n\024compa" +
-      "nion_class_name\030\003 \001(\t\022\031\n\021companion_exten" +
-      "ds\030\004 \001(\t\022\034\n\024companion_implements\030\005 \001(\t\"\376" +
-      "\001\n\024InsertionsGenOptions\022.\n\006filter\030\001 \001(\0132" +
-      "\036.krotoplus.compiler.FileFilter\022=\n\005entry" +
-      "\030\002 \003(\0132..krotoplus.compiler.InsertionsGe" +
-      "nOptions.Entry\032w\n\005Entry\0221\n\005point\030\001 \001(\0162\"" +
-      ".krotoplus.compiler.InsertionPoint\022\017\n\007co" +
-      "ntent\030\002 \003(\t\022\023\n\013script_path\030\003 \003(\t\022\025\n\rscri" +
-      "pt_bundle\030\004 \001(\t\"\275\001\n\026MockServicesGenOptio" +
-      "ns\022.\n\006filter\030\001 \001(\0132\036.krotoplus.compiler." +
-      "FileFilter\022\033\n\023implement_as_object\030\002 \001(\010\022" +
-      "\035\n\025generate_service_list\030\003 \001(\010\022\034\n\024servic" +
-      "e_list_package\030\004 \001(\t\022\031\n\021service_list_nam" +
-      "e\030\005 \001(\t*\257\001\n\016InsertionPoint\022\013\n\007UNKNOWN\020\000\022" +
-      "\025\n\021INTERFACE_EXTENDS\020\001\022\026\n\022MESSAGE_IMPLEM" +
-      "ENTS\020\002\022\026\n\022BUILDER_IMPLEMENTS\020\003\022\021\n\rBUILDE" +
-      "R_SCOPE\020\004\022\017\n\013CLASS_SCOPE\020\005\022\016\n\nENUM_SCOPE" +
-      "\020\006\022\025\n\021OUTER_CLASS_SCOPE\020\007B+\n\'com.github." +
-      "marcoferrer.krotoplus.configP\001b\006proto3"
+      "r\022\027\n\017unwrap_builders\030\002 \001(\010\022\027\n\017use_dsl_ma" +
+      "rkers\030\003 \001(\010\"x\n\032GeneratorScriptsGenOption" +
+      "s\022.\n\006filter\030\001 \001(\0132\036.krotoplus.compiler.F" +
+      "ileFilter\022\023\n\013script_path\030\002 \003(\t\022\025\n\rscript" +
+      "_bundle\030\003 \001(\t\"\303\001\n\034ExtendableMessagesGenO" +
+      "ptions\022.\n\006filter\030\001 \001(\0132\036.krotoplus.compi" +
+      "ler.FileFilter\022\034\n\024companion_field_name\030\002" +
+      " \001(\t\022\034\n\024companion_class_name\030\003 \001(\t\022\031\n\021co" +
+      "mpanion_extends\030\004 \001(\t\022\034\n\024companion_imple" +
+      "ments\030\005 \001(\t\"\376\001\n\024InsertionsGenOptions\022.\n\006" +
+      "filter\030\001 \001(\0132\036.krotoplus.compiler.FileFi" +
+      "lter\022=\n\005entry\030\002 \003(\0132..krotoplus.compiler" +
+      ".InsertionsGenOptions.Entry\032w\n\005Entry\0221\n\005" +
+      "point\030\001 \001(\0162\".krotoplus.compiler.Inserti" +
+      "onPoint\022\017\n\007content\030\002 \003(\t\022\023\n\013script_path\030" +
+      "\003 \003(\t\022\025\n\rscript_bundle\030\004 \001(\t\"\275\001\n\026MockSer" +
+      "vicesGenOptions\022.\n\006filter\030\001 \001(\0132\036.krotop" +
+      "lus.compiler.FileFilter\022\033\n\023implement_as_" +
+      "object\030\002 \001(\010\022\035\n\025generate_service_list\030\003 " +
+      "\001(\010\022\034\n\024service_list_package\030\004 \001(\t\022\031\n\021ser" +
+      "vice_list_name\030\005 \001(\t*\257\001\n\016InsertionPoint\022" +
+      "\013\n\007UNKNOWN\020\000\022\025\n\021INTERFACE_EXTENDS\020\001\022\026\n\022M" +
+      "ESSAGE_IMPLEMENTS\020\002\022\026\n\022BUILDER_IMPLEMENT" +
+      "S\020\003\022\021\n\rBUILDER_SCOPE\020\004\022\017\n\013CLASS_SCOPE\020\005\022" +
+      "\016\n\nENUM_SCOPE\020\006\022\025\n\021OUTER_CLASS_SCOPE\020\007B+" +
+      "\n\'com.github.marcoferrer.krotoplus.confi" +
+      "gP\001b\006proto3"
     };
     descriptor = com.google.protobuf.Descriptors.FileDescriptor
       .internalBuildGeneratedFileFrom(descriptorData,
@@ -151,7 +155,7 @@ public final class Config {
     internal_static_krotoplus_compiler_GrpcCoroutinesGenOptions_fieldAccessorTable = new
       com.google.protobuf.GeneratedMessageV3.FieldAccessorTable(
         internal_static_krotoplus_compiler_GrpcCoroutinesGenOptions_descriptor,
-        new java.lang.String[] { "Filter", });
+        new java.lang.String[] { "Filter", "UseFlowServerHandlers", "LazyInboundParsing", "ZeroCopyMarshallers", "ServerStreamingFlowStubs", });
     internal_static_krotoplus_compiler_ProtoBuildersGenOptions_descriptor =
       getDescriptor().getMessageTypes().get(4);
     internal_static_krotoplus_compiler_ProtoBuildersGenOptions_fieldAccessorTable = new
@@ -65,6 +65,26 @@ private static final long serialVersionUID = 0L;
 
             break;
           }
+          case 16: {
+
+            useFlowServerHandlers_ = input.readBool();
+            break;
+          }
+          case 24: {
+
+            lazyInboundParsing_ = input.readBool();
+            break;
+          }
+          case 32: {
+
+            zeroCopyMarshallers_ = input.readBool();
+            break;
+          }
+          case 40: {
+
+            serverStreamingFlowStubs_ = input.readBool();
+            break;
+          }
           default: {
             if (!parseUnknownField(
                 input, unknownFields, extensionRegistry, tag)) {
@@ -133,6 +153,66 @@ private static final long serialVersionUID = 0L;
     return getFilter();
   }
 
+  public static final int USE_FLOW_SERVER_HANDLERS_FIELD_NUMBER = 2;
+  private boolean useFlowServerHandlers_;
+  /**
+   * <pre>
+   * Generate server streaming and bidi streaming service methods using 'kotlinx.coroutines.flow.Flow'
+   * instead of channels. Service implementations return a flow of responses, which is
+   * collected directly into the underlying call as the client becomes ready to receive.
+   * </pre>
+   *
+   * <code>bool use_flow_server_handlers = 2;</code>
+   */
+  public boolean getUseFlowServerHandlers() {
+    return useFlowServerHandlers_;
+  }
+
+  public static final int LAZY_INBOUND_PARSING_FIELD_NUMBER = 3;
+  private boolean lazyInboundParsing_;
+  /**
+   * <pre>
+   * Defer parsing the inbound messages of streaming calls until they are received from their channel or flow.
+   * Generated services parse client and bidi streaming requests on the dispatcher of the call, and generated
+   * stubs parse server and bidi streaming responses on the dispatcher of the call, instead of the transport thread.
+   * </pre>
+   *
+   * <code>bool lazy_inbound_parsing = 3;</code>
+   */
+  public boolean getLazyInboundParsing() {
+    return lazyInboundParsing_;
+  }
+
+  public static final int ZERO_COPY_MARSHALLERS_FIELD_NUMBER = 4;
+  private boolean zeroCopyMarshallers_;
+  /**
+   * <pre>
+   * Bind generated services and create the method descriptors of generated stubs with marshallers that parse
+   * messages without copying their bytes fields. Parsed bytes fields reference the buffer read from the transport,
+   * which is not copied again for every field.
+   * </pre>
+   *
+   * <code>bool zero_copy_marshallers = 4;</code>
+   */
+  public boolean getZeroCopyMarshallers() {
+    return zeroCopyMarshallers_;
+  }
+
+  public static final int SERVER_STREAMING_FLOW_STUBS_FIELD_NUMBER = 5;
+  private boolean serverStreamingFlowStubs_;
+  /**
+   * <pre>
+   * Generate an additional '&lt;method&gt;Flow' stub function for every server streaming method, returning a cold
+   * 'kotlinx.coroutines.flow.Flow' of its responses. The function is skipped for any method whose flow
+   * function name is already taken by another method of the same service.
+   * </pre>
+   *
+   * <code>bool server_streaming_flow_stubs = 5;</code>
+   */
+  public boolean getServerStreamingFlowStubs() {
+    return serverStreamingFlowStubs_;
+  }
+
   private byte memoizedIsInitialized = -1;
   @java.lang.Override
   public final boolean isInitialized() {
@@ -150,6 +230,18 @@ private static final long serialVersionUID = 0L;
     if (filter_ != null) {
       output.writeMessage(1, getFilter());
     }
+    if (useFlowServerHandlers_ != false) {
+      output.writeBool(2, useFlowServerHandlers_);
+    }
+    if (lazyInboundParsing_ != false) {
+      output.writeBool(3, lazyInboundParsing_);
+    }
+    if (zeroCopyMarshallers_ != false) {
+      output.writeBool(4, zeroCopyMarshallers_);
+    }
+    if (serverStreamingFlowStubs_ != false) {
+      output.writeBool(5, serverStreamingFlowStubs_);
+    }
     unknownFields.writeTo(output);
   }
 
@@ -163,6 +255,22 @@ private static final long serialVersionUID = 0L;
       size += com.google.protobuf.CodedOutputStream
         .computeMessageSize(1, getFilter());
     }
+    if (useFlowServerHandlers_ != false) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeBoolSize(2, useFlowServerHandlers_);
+    }
+    if (lazyInboundParsing_ != false) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeBoolSize(3, lazyInboundParsing_);
+    }
+    if (zeroCopyMarshallers_ != false) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeBoolSize(4, zeroCopyMarshallers_);
+    }
+    if (serverStreamingFlowStubs_ != false) {
+      size += com.google.protobuf.CodedOutputStream
+        .computeBoolSize(5, serverStreamingFlowStubs_);
+    }
     size += unknownFields.getSerializedSize();
     memoizedSize = size;
     return size;
@@ -183,6 +291,14 @@ private static final long serialVersionUID = 0L;
       if (!getFilter()
           .equals(other.getFilter())) return false;
     }
+    if (getUseFlowServerHandlers()
+        != other.getUseFlowServerHandlers()) return false;
+    if (getLazyInboundParsing()
+        != other.getLazyInboundParsing()) return false;
+    if (getZeroCopyMarshallers()
+        != other.getZeroCopyMarshallers()) return false;
+    if (getServerStreamingFlowStubs()
+        != other.getServerStreamingFlowStubs()) return false;
     if (!unknownFields.equals(other.unknownFields)) return false;
     return true;
   }
@@ -198,6 +314,18 @@ private static final long serialVersionUID = 0L;
       hash = (37 * hash) + FILTER_FIELD_NUMBER;
       hash = (53 * hash) + getFilter().hashCode();
     }
+    hash = (37 * hash) + USE_FLOW_SERVER_HANDLERS_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
+        getUseFlowServerHandlers());
+    hash = (37 * hash) + LAZY_INBOUND_PARSING_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
+        getLazyInboundParsing());
+    hash = (37 * hash) + ZERO_COPY_MARSHALLERS_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
+        getZeroCopyMarshallers());
+    hash = (37 * hash) + SERVER_STREAMING_FLOW_STUBS_FIELD_NUMBER;
+    hash = (53 * hash) + com.google.protobuf.Internal.hashBoolean(
+        getServerStreamingFlowStubs());
     hash = (29 * hash) + unknownFields.hashCode();
     memoizedHashCode = hash;
     return hash;
@@ -341,6 +469,14 @@ private static final long serialVersionUID = 0L;
         filter_ = null;
         filterBuilder_ = null;
       }
+      useFlowServerHandlers_ = false;
+
+      lazyInboundParsing_ = false;
+
+      zeroCopyMarshallers_ = false;
+
+      serverStreamingFlowStubs_ = false;
+
       return this;
     }
 
@@ -372,6 +508,10 @@ private static final long serialVersionUID = 0L;
       } else {
         result.filter_ = filterBuilder_.build();
       }
+      result.useFlowServerHandlers_ = useFlowServerHandlers_;
+      result.lazyInboundParsing_ = lazyInboundParsing_;
+      result.zeroCopyMarshallers_ = zeroCopyMarshallers_;
+      result.serverStreamingFlowStubs_ = serverStreamingFlowStubs_;
       onBuilt();
       return result;
     }
@@ -423,6 +563,18 @@ private static final long serialVersionUID = 0L;
       if (other.hasFilter()) {
         mergeFilter(other.getFilter());
       }
+      if (other.getUseFlowServerHandlers() != false) {
+        setUseFlowServerHandlers(other.getUseFlowServerHandlers());
+      }
+      if (other.getLazyInboundParsing() != false) {
+        setLazyInboundParsing(other.getLazyInboundParsing());
+      }
+      if (other.getZeroCopyMarshallers() != false) {
+        setZeroCopyMarshallers(other.getZeroCopyMarshallers());
+      }
+      if (other.getServerStreamingFlowStubs() != false) {
+        setServerStreamingFlowStubs(other.getServerStreamingFlowStubs());
+      }
       this.mergeUnknownFields(other.unknownFields);
       onChanged();
       return this;
@@ -613,6 +765,182 @@ private static final long serialVersionUID = 0L;
       }
       return filterBuilder_;
     }
+
+    private boolean useFlowServerHandlers_ ;
+    /**
+     * <pre>
+     * Generate server streaming and bidi streaming service methods using 'kotlinx.coroutines.flow.Flow'
+     * instead of channels. Service implementations return a flow of responses, which is
+     * collected directly into the underlying call as the client becomes ready to receive.
+     * </pre>
+     *
+     * <code>bool use_flow_server_handlers = 2;</code>
+     */
+    public boolean getUseFlowServerHandlers() {
+      return useFlowServerHandlers_;
+    }
+    /**
+     * <pre>
+     * Generate server streaming and bidi streaming service methods using 'kotlinx.coroutines.flow.Flow'
+     * instead of channels. Service implementations return a flow of responses, which is
+     * collected directly into the underlying call as the client becomes ready to receive.
+     * </pre>
+     *
+     * <code>bool use_flow_server_handlers = 2;</code>
+     */
+    public Builder setUseFlowServerHandlers(boolean value) {
+      
+      useFlowServerHandlers_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <pre>
+     * Generate server streaming and bidi streaming service methods using 'kotlinx.coroutines.flow.Flow'
+     * instead of channels. Service implementations return a flow of responses, which is
+     * collected directly into the underlying call as the client becomes ready to receive.
+     * </pre>
+     *
+     * <code>bool use_flow_server_handlers = 2;</code>
+     */
+    public Builder clearUseFlowServerHandlers() {
+      
+      useFlowServerHandlers_ = false;
+      onChanged();
+      return this;
+    }
+
+    private boolean lazyInboundParsing_ ;
+    /**
+     * <pre>
+     * Defer parsing the inbound messages of streaming calls until they are received from their channel or flow.
+     * Generated services parse client and bidi streaming requests on the dispatcher of the call, and generated
+     * stubs parse server and bidi streaming responses on the dispatcher of the call, instead of the transport thread.
+     * </pre>
+     *
+     * <code>bool lazy_inbound_parsing = 3;</code>
+     */
+    public boolean getLazyInboundParsing() {
+      return lazyInboundParsing_;
+    }
+    /**
+     * <pre>
+     * Defer parsing the inbound messages of streaming calls until they are received from their channel or flow.
+     * Generated services parse client and bidi streaming requests on the dispatcher of the call, and generated
+     * stubs parse server and bidi streaming responses on the dispatcher of the call, instead of the transport thread.
+     * </pre>
+     *
+     * <code>bool lazy_inbound_parsing = 3;</code>
+     */
+    public Builder setLazyInboundParsing(boolean value) {
+      
+      lazyInboundParsing_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <pre>
+     * Defer parsing the inbound messages of streaming calls until they are received from their channel or flow.
+     * Generated services parse client and bidi streaming requests on the dispatcher of the call, and generated
+     * stubs parse server and bidi streaming responses on the dispatcher of the call, instead of the transport thread.
+     * </pre>
+     *
+     * <code>bool lazy_inbound_parsing = 3;</code>
+     */
+    public Builder clearLazyInboundParsing() {
+      
+      lazyInboundParsing_ = false;
+      onChanged();
+      return this;
+    }
+
+    private boolean zeroCopyMarshallers_ ;
+    /**
+     * <pre>
+     * Bind generated services and create the method descriptors of generated stubs with marshallers that parse
+     * messages without copying their bytes fields. Parsed bytes fields reference the buffer read from the transport,
+     * which is not copied again for every field.
+     * </pre>
+     *
+     * <code>bool zero_copy_marshallers = 4;</code>
+     */
+    public boolean getZeroCopyMarshallers() {
+      return zeroCopyMarshallers_;
+    }
+    /**
+     * <pre>
+     * Bind generated services and create the method descriptors of generated stubs with marshallers that parse
+     * messages without copying their bytes fields. Parsed bytes fields reference the buffer read from the transport,
+     * which is not copied again for every field.
+     * </pre>
+     *
+     * <code>bool zero_copy_marshallers = 4;</code>
+     */
+    public Builder setZeroCopyMarshallers(boolean value) {
+      
+      zeroCopyMarshallers_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <pre>
+     * Bind generated services and create the method descriptors of generated stubs with marshallers that parse
+     * messages without copying their bytes fields. Parsed bytes fields reference the buffer read from the transport,
+     * which is not copied again for every field.
+     * </pre>
+     *
+     * <code>bool zero_copy_marshallers = 4;</code>
+     */
+    public Builder clearZeroCopyMarshallers() {
+      
+      zeroCopyMarshallers_ = false;
+      onChanged();
+      return this;
+    }
+
+    private boolean serverStreamingFlowStubs_ ;
+    /**
+     * <pre>
+     * Generate an additional '&lt;method&gt;Flow' stub function for every server streaming method, returning a cold
+     * 'kotlinx.coroutines.flow.Flow' of its responses. The function is skipped for any method whose flow
+     * function name is already taken by another method of the same service.
+     * </pre>
+     *
+     * <code>bool server_streaming_flow_stubs = 5;</code>
+     */
+    public boolean getServerStreamingFlowStubs() {
+      return serverStreamingFlowStubs_;
+    }
+    /**
+     * <pre>
+     * Generate an additional '&lt;method&gt;Flow' stub function for every server streaming method, returning a cold
+     * 'kotlinx.coroutines.flow.Flow' of its responses. The function is skipped for any method whose flow
+     * function name is already taken by another method of the same service.
+     * </pre>
+     *
+     * <code>bool server_streaming_flow_stubs = 5;</code>
+     */
+    public Builder setServerStreamingFlowStubs(boolean value) {
+      
+      serverStreamingFlowStubs_ = value;
+      onChanged();
+      return this;
+    }
+    /**
+     * <pre>
+     * Generate an additional '&lt;method&gt;Flow' stub function for every server streaming method, returning a cold
+     * 'kotlinx.coroutines.flow.Flow' of its responses. The function is skipped for any method whose flow
+     * function name is already taken by another method of the same service.
+     * </pre>
+     *
+     * <code>bool server_streaming_flow_stubs = 5;</code>
+     */
+    public Builder clearServerStreamingFlowStubs() {
+      
+      serverStreamingFlowStubs_ = false;
+      onChanged();
+      return this;
+    }
     @java.lang.Override
     public final Builder setUnknownFields(
         final com.google.protobuf.UnknownFieldSet unknownFields) {
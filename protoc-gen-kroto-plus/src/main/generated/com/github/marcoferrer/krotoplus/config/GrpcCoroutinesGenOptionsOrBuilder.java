@@ -34,4 +34,48 @@ public interface GrpcCoroutinesGenOptionsOrBuilder extends
    * <code>.krotoplus.compiler.FileFilter filter = 1;</code>
    */
   com.github.marcoferrer.krotoplus.config.FileFilterOrBuilder getFilterOrBuilder();
+
+  /**
+   * <pre>
+   * Generate server streaming and bidi streaming service methods using 'kotlinx.coroutines.flow.Flow'
+   * instead of channels. Service implementations return a flow of responses, which is
+   * collected directly into the underlying call as the client becomes ready to receive.
+   * </pre>
+   *
+   * <code>bool use_flow_server_handlers = 2;</code>
+   */
+  boolean getUseFlowServerHandlers();
+
+  /**
+   * <pre>
+   * Defer parsing the inbound messages of streaming calls until they are received from their channel or flow.
+   * Generated services parse client and bidi streaming requests on the dispatcher of the call, and generated
+   * stubs parse server and bidi streaming responses on the dispatcher of the call, instead of the transport thread.
+   * </pre>
+   *
+   * <code>bool lazy_inbound_parsing = 3;</code>
+   */
+  boolean getLazyInboundParsing();
+
+  /**
+   * <pre>
+   * Bind generated services and create the method descriptors of generated stubs with marshallers that parse
+   * messages without copying their bytes fields. Parsed bytes fields reference the buffer read from the transport,
+   * which is not copied again for every field.
+   * </pre>
+   *
+   * <code>bool zero_copy_marshallers = 4;</code>
+   */
+  boolean getZeroCopyMarshallers();
+
+  /**
+   * <pre>
+   * Generate an additional '&lt;method&gt;Flow' stub function for every server streaming method, returning a cold
+   * 'kotlinx.coroutines.flow.Flow' of its responses. The function is skipped for any method whose flow
+   * function name is already taken by another method of the same service.
+   * </pre>
+   *
+   * <code>bool server_streaming_flow_stubs = 5;</code>
+   */
+  boolean getServerStreamingFlowStubs();
 }
@@ -16,6 +16,7 @@
 
 package com.github.marcoferrer.krotoplus.generators
 
+import com.github.marcoferrer.krotoplus.config.GrpcCoroutinesGenOptions
 import com.github.marcoferrer.krotoplus.generators.Generator.Companion.AutoGenerationDisclaimer
 import com.github.marcoferrer.krotoplus.generators.builders.GrpcServiceBaseImplBuilder
 import com.github.marcoferrer.krotoplus.generators.builders.GrpcStubBuilder
@@ -61,7 +62,7 @@ object GrpcCoroutinesGenerator : Generator {
             for (options in context.config.grpcCoroutinesList) {
 
                 if (isFileToGenerate(service.protoFile.name,options.filter)) {
-                    service.buildGrpcFileSpec()?.let {
+                    service.buildGrpcFileSpec(options)?.let {
                         responseBuilder.addFile(it.toResponseFileProto())
                     }
 
@@ -79,18 +80,18 @@ object GrpcCoroutinesGenerator : Generator {
         return responseBuilder.build()
     }
 
-    private fun ProtoService.buildGrpcFileSpec(): FileSpec? {
+    private fun ProtoService.buildGrpcFileSpec(options: GrpcCoroutinesGenOptions): FileSpec? {
 
         val fileSpecBuilder = FileSpec
             .builder(protoFile.javaPackage, outerObjectName)
             .addComment(AutoGenerationDisclaimer)
-            .addType(buildOuterObject())
+            .addType(buildOuterObject(options))
 
         return fileSpecBuilder.build()
             .takeIf { it.members.isNotEmpty() }
     }
 
-    private fun ProtoService.buildOuterObject(): TypeSpec =
+    private fun ProtoService.buildOuterObject(options: GrpcCoroutinesGenOptions): TypeSpec =
         TypeSpec.objectBuilder(outerObjectName)
             .addKdoc(attachedComments)
             .addAnnotation(protoFile.getGeneratedAnnotationSpec())
@@ -109,8 +110,8 @@ object GrpcCoroutinesGenerator : Generator {
                     .addCode("return %T.newStubWithContext(channel)", stubClassName)
                     .build()
             )
-            .addType(stubBuilder.buildStub(this))
-            .addType(serviceBaseImplBuilder.build(this))
+            .addType(stubBuilder.buildStub(this, options))
+            .addType(serviceBaseImplBuilder.build(this, options))
             .addProperty(
                 PropertySpec.builder("SERVICE_NAME", String::class.asClassName())
                     .addModifiers(KModifier.CONST)
@@ -16,6 +16,7 @@
 
 package com.github.marcoferrer.krotoplus.generators.builders
 
+import com.github.marcoferrer.krotoplus.config.GrpcCoroutinesGenOptions
 import com.github.marcoferrer.krotoplus.generators.GeneratorContext
 
 import com.github.marcoferrer.krotoplus.proto.ProtoMethod
@@ -36,9 +37,13 @@ import io.grpc.MethodDescriptor
 
 class GrpcServiceBaseImplBuilder(val context: GeneratorContext){
 
-    fun build(protoService: ProtoService): TypeSpec = with(protoService){
+    fun build(
+        protoService: ProtoService,
+        options: GrpcCoroutinesGenOptions = GrpcCoroutinesGenOptions.getDefaultInstance()
+    ): TypeSpec = with(protoService){
 
         val delegateValName = "delegate"
+        val useFlows = options.useFlowServerHandlers
 
         TypeSpec.classBuilder(baseImplName)
             .addKdoc(attachedComments)
@@ -56,20 +61,33 @@ class GrpcServiceBaseImplBuilder(val context: GeneratorContext){
                 FunSpec.builder("bindService")
                     .addModifiers(KModifier.OVERRIDE)
                     .returns(CommonClassNames.grpcServerServiceDefinition)
-                    .addCode("return %N.bindService()", delegateValName)
+                    .apply {
+                        addCode("return %N.bindService()", delegateValName)
+                        if (options.zeroCopyMarshallers)
+                            addCode(".%T()", CommonClassNames.withZeroCopyMarshallers)
+                        if (options.lazyInboundParsing)
+                            addCode(".%T()", CommonClassNames.withLazyRequestParsing)
+                    }
                     .build()
             )
             .apply {
                 for(method in methodDefinitions) when(method.type){
                     MethodDescriptor.MethodType.UNARY -> addFunction(buildUnaryBaseImpl(method))
                     MethodDescriptor.MethodType.CLIENT_STREAMING -> addFunction(buildClientStreamingBaseImpl(method))
-                    MethodDescriptor.MethodType.SERVER_STREAMING -> addFunction(buildServerStreamingBaseImpl(method))
-                    MethodDescriptor.MethodType.BIDI_STREAMING -> addFunction(buildBidiStreamingBaseImpl(method))
+                    MethodDescriptor.MethodType.SERVER_STREAMING -> addFunction(
+                        if (useFlows) buildServerStreamingFlowBaseImpl(method) else buildServerStreamingBaseImpl(method)
+                    )
+                    MethodDescriptor.MethodType.BIDI_STREAMING -> addFunction(
+                        if (useFlows) buildBidiStreamingFlowBaseImpl(method) else buildBidiStreamingBaseImpl(method)
+                    )
                     MethodDescriptor.MethodType.UNKNOWN -> throw IllegalStateException("Unknown method type")
                 }
             }
-            .addFunctions(buildResponseLambdaOverloads())
-            .addType(buildServiceBaseImplDelegate(protoService))
+            .apply {
+                // Flow based handlers never expose a response channel
+                if (!useFlows) addFunctions(buildResponseLambdaOverloads())
+            }
+            .addType(buildServiceBaseImplDelegate(protoService, useFlows))
             .build()
     }
 
@@ -208,24 +226,80 @@ class GrpcServiceBaseImplBuilder(val context: GeneratorContext){
             .build()
     }
 
+    private fun buildServerStreamingFlowBaseImpl(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+        FunSpec.builder(functionName)
+            .addKdoc(attachedComments)
+            .addModifiers(KModifier.OPEN)
+            .addParameter("request", requestClassName)
+            .returns(CommonClassNames.flow.parameterizedBy(responseClassName))
+            .addStatement(
+                "return %T(%T.%N())",
+                CommonClassNames.ServerCalls.serverCallUnimplementedFlow,
+                protoService.enclosingServiceClassName,
+                methodDefinitionGetterName
+            )
+            .build()
+    }
+
+    private fun buildBidiStreamingFlowBaseImpl(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+        FunSpec.builder(functionName)
+            .addKdoc(attachedComments)
+            .addModifiers(KModifier.OPEN)
+            .addParameter(
+                name = "requests",
+                type = CommonClassNames.flow.parameterizedBy(requestClassName)
+            )
+            .returns(CommonClassNames.flow.parameterizedBy(responseClassName))
+            .addStatement(
+                "return %T(%T.%N())",
+                CommonClassNames.ServerCalls.serverCallUnimplementedFlow,
+                protoService.enclosingServiceClassName,
+                methodDefinitionGetterName
+            )
+            .build()
+    }
+
     // Service impl delegate
 
-    private fun buildServiceBaseImplDelegate(protoService: ProtoService): TypeSpec = with(protoService) {
+    private fun buildServiceBaseImplDelegate(protoService: ProtoService, useFlows: Boolean): TypeSpec = with(protoService) {
         TypeSpec.classBuilder(serviceDelegateName)
             .addModifiers(KModifier.PRIVATE, KModifier.INNER)
             .superclass(serviceJavaBaseImplClassName)
             .apply {
                 for(method in methodDefinitions) when(method.type){
-                    MethodDescriptor.MethodType.UNARY -> addFunction(buildUnaryDelegate(method))
-                    MethodDescriptor.MethodType.SERVER_STREAMING -> addFunction(buildServerStreamingDelegate(method))
+                    MethodDescriptor.MethodType.UNARY -> {
+                        addProperty(buildUnaryDelegateHandler(method))
+                        addFunction(buildUnaryDelegate(method))
+                    }
+                    MethodDescriptor.MethodType.SERVER_STREAMING -> addFunction(
+                        if (useFlows) buildServerStreamingFlowDelegate(method) else buildServerStreamingDelegate(method)
+                    )
                     MethodDescriptor.MethodType.CLIENT_STREAMING -> addFunction(buildClientStreamingDelegate(method))
-                    MethodDescriptor.MethodType.BIDI_STREAMING -> addFunction(buildBidiStreamingDelegate(method))
+                    MethodDescriptor.MethodType.BIDI_STREAMING -> addFunction(
+                        if (useFlows) buildBidiStreamingFlowDelegate(method) else buildBidiStreamingDelegate(method)
+                    )
                     MethodDescriptor.MethodType.UNKNOWN -> throw IllegalStateException("Unknown method type")
                 }
             }
             .build()
     }
 
+    private val ProtoMethod.delegateHandlerName: String
+        get() = "${functionName}Handler"
+
+    // Created once per service instance, so that unary calls
+    // do not allocate a lambda capturing their request.
+    private fun buildUnaryDelegateHandler(protoMethod: ProtoMethod): PropertySpec = with(protoMethod){
+        val handlerType = LambdaTypeName
+            .get(parameters = *arrayOf(requestClassName), returnType = responseClassName)
+            .copy(suspending = true)
+
+        PropertySpec.builder(delegateHandlerName, handlerType)
+            .addModifiers(KModifier.PRIVATE)
+            .initializer("{ %N(it) }", functionName)
+            .build()
+    }
+
     private fun buildUnaryDelegate(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
         FunSpec.builder(functionName)
             .addModifiers(KModifier.OVERRIDE)
@@ -234,19 +308,12 @@ class GrpcServiceBaseImplBuilder(val context: GeneratorContext){
                 name = "responseObserver",
                 type = CommonClassNames.streamObserver.parameterizedBy(responseClassName)
             )
-            .addCode(
-                CodeBlock.builder()
-                    .addStatement(
-                        "%T(%T.%N(),responseObserver) {",
-                        CommonClassNames.ServerCalls.serverCallUnary,
-                        protoService.enclosingServiceClassName,
-                        methodDefinitionGetterName
-                    )
-                    .indent()
-                    .addStatement("%N(request)", functionName)
-                    .unindent()
-                    .addStatement("}")
-                    .build()
+            .addStatement(
+                "%T(%T.%N(), request, responseObserver, %N)",
+                CommonClassNames.ServerCalls.serverCallUnary,
+                protoService.enclosingServiceClassName,
+                methodDefinitionGetterName,
+                delegateHandlerName
             )
             .build()
     }
@@ -341,4 +408,60 @@ class GrpcServiceBaseImplBuilder(val context: GeneratorContext){
             .build()
     }
 
-}
\ No newline at end of file
+    private fun buildServerStreamingFlowDelegate(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+        FunSpec.builder(functionName)
+            .addModifiers(KModifier.OVERRIDE)
+            .addParameter("request", requestClassName)
+            .addParameter(
+                name = "responseObserver",
+                type = CommonClassNames.streamObserver.parameterizedBy(responseClassName)
+            )
+            .addCode(
+                CodeBlock.builder()
+                    .addStatement(
+                        "%T(%T.%N(),responseObserver) {",
+                        CommonClassNames.ServerCalls.serverCallServerStreamingFlow,
+                        protoService.enclosingServiceClassName,
+                        methodDefinitionGetterName
+                    )
+                    .indent()
+                    .addStatement("%N(request)", functionName)
+                    .unindent()
+                    .addStatement("}")
+                    .build()
+            )
+            .build()
+    }
+
+    private fun buildBidiStreamingFlowDelegate(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+        FunSpec.builder(functionName)
+            .addModifiers(KModifier.OVERRIDE)
+            .returns(CommonClassNames.streamObserver.parameterizedBy(requestClassName))
+            .addParameter(
+                name = "responseObserver",
+                type = CommonClassNames.streamObserver.parameterizedBy(responseClassName)
+            )
+            .addCode(
+                CodeBlock.of(
+                    """
+                    val requestObserver = %T(
+                        %T.%N(),
+                        responseObserver
+                    ) { requests: %T ->
+                        
+                        %N(requests)
+                    }
+                    return requestObserver %L
+                    """.trimIndent(),
+                    CommonClassNames.ServerCalls.serverCallBidiStreamingFlow,
+                    protoService.enclosingServiceClassName,
+                    methodDefinitionGetterName,
+                    CommonClassNames.flow.parameterizedBy(requestClassName),
+                    functionName,
+                    "\n"
+                )
+            )
+            .build()
+    }
+
+}
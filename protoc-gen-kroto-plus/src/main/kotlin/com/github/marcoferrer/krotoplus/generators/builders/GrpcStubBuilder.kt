@@ -16,6 +16,7 @@
 
 package com.github.marcoferrer.krotoplus.generators.builders
 
+import com.github.marcoferrer.krotoplus.config.GrpcCoroutinesGenOptions
 import com.github.marcoferrer.krotoplus.generators.GeneratorContext
 import com.github.marcoferrer.krotoplus.proto.ProtoMethod
 import com.github.marcoferrer.krotoplus.proto.ProtoService
@@ -24,6 +25,7 @@ import com.github.marcoferrer.krotoplus.utils.builderLambdaTypeName
 import com.github.marcoferrer.krotoplus.utils.requestParamSpec
 import com.github.marcoferrer.krotoplus.utils.requestValueBuilderCodeBlock
 import com.github.marcoferrer.krotoplus.utils.requestValueMethodSigCodeBlock
+import com.squareup.kotlinpoet.CodeBlock
 import com.squareup.kotlinpoet.FunSpec
 import com.squareup.kotlinpoet.KModifier
 import com.squareup.kotlinpoet.ParameterSpec
@@ -36,7 +38,10 @@ import io.grpc.MethodDescriptor
 
 class GrpcStubBuilder(val context: GeneratorContext){
 
-    fun buildStub(protoService: ProtoService): TypeSpec = with(protoService) {
+    fun buildStub(
+        protoService: ProtoService,
+        options: GrpcCoroutinesGenOptions = GrpcCoroutinesGenOptions.getDefaultInstance()
+    ): TypeSpec = with(protoService) {
 
         val paramNameChannel = "channel"
         val paramNameCallOptions = "callOptions"
@@ -69,66 +74,82 @@ class GrpcStubBuilder(val context: GeneratorContext){
                     .addStatement("return %T(channel,callOptions)",stubClassName)
                     .build()
             )
-            .addRpcMethods(protoService)
-            .addType(buildCompanionObject())
+            .addRpcMethods(protoService, options)
+            .addType(buildCompanionObject(options))
             .build()
     }
 
-    private fun TypeSpec.Builder.addRpcMethods(service: ProtoService): TypeSpec.Builder = apply {
+    private fun TypeSpec.Builder.addRpcMethods(service: ProtoService, options: GrpcCoroutinesGenOptions): TypeSpec.Builder = apply {
 
         for(method in service.methodDefinitions) when(method.type){
             MethodDescriptor.MethodType.UNARY -> {
-                addFunction(buildUnaryMethod(method))
+                addFunction(buildUnaryMethod(method, options))
                 addFunction(buildUnaryLambdaOverload(method))
                 addFunctions(buildUnaryMethodSigOverload(method))
             }
 
             MethodDescriptor.MethodType.SERVER_STREAMING -> {
-                addFunction(buildServerStreamingMethod(method))
+                addFunction(buildServerStreamingMethod(method, options))
+                if (options.serverStreamingFlowStubs && service.methodDefinitions.none { it.functionName == method.flowFunctionName })
+                    addFunction(buildServerStreamingFlowMethod(method, options))
                 addFunction(buildServerStreamingLambdaOverload(method))
                 addFunctions(buildServerStreamingMethodSigOverload(method))
             }
 
             MethodDescriptor.MethodType.CLIENT_STREAMING ->
-                addFunction(buildClientStreamingMethod(method))
+                addFunction(buildClientStreamingMethod(method, options))
 
             MethodDescriptor.MethodType.BIDI_STREAMING ->
-                addFunction(buildBidiStreamingMethod(method))
+                addFunction(buildBidiStreamingMethod(method, options))
 
             MethodDescriptor.MethodType.UNKNOWN -> throw IllegalStateException("Unknown method type")
         }
     }
 
-    private fun buildUnaryMethod(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+    private fun buildUnaryMethod(protoMethod: ProtoMethod, options: GrpcCoroutinesGenOptions): FunSpec = with(protoMethod){
         FunSpec.builder(functionName)
             .addModifiers(KModifier.SUSPEND)
             .addKdoc(attachedComments)
             .returns(responseClassName)
             .addParameter(requestClassName.requestParamSpec)
             .addStatement(
-                "return %T(request, %T.%N())",
+                "return %T(request, %L)",
                 CommonClassNames.ClientCalls.clientCallUnary,
-                protoService.enclosingServiceClassName,
-                methodDefinitionGetterName
+                methodDescriptorCodeBlock(options)
             )
             .build()
     }
 
-    private fun buildServerStreamingMethod(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+    private fun buildServerStreamingMethod(protoMethod: ProtoMethod, options: GrpcCoroutinesGenOptions): FunSpec = with(protoMethod){
         FunSpec.builder(functionName)
             .addKdoc(attachedComments)
             .returns(CommonClassNames.receiveChannel.parameterizedBy(responseClassName))
             .addParameter(requestClassName.requestParamSpec)
             .addStatement(
-                "return %T(request, %T.%N())",
+                "return %T(request, %L)",
                 CommonClassNames.ClientCalls.clientCallServerStreaming,
-                protoService.enclosingServiceClassName,
-                methodDefinitionGetterName
+                methodDescriptorCodeBlock(options)
             )
             .build()
     }
 
-    private fun buildClientStreamingMethod(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+    private fun buildServerStreamingFlowMethod(protoMethod: ProtoMethod, options: GrpcCoroutinesGenOptions): FunSpec = with(protoMethod){
+        FunSpec.builder(flowFunctionName)
+            .addKdoc(attachedComments)
+            .returns(CommonClassNames.flow.parameterizedBy(responseClassName))
+            .addParameter(requestClassName.requestParamSpec)
+            .addStatement(
+                "return %T(request, %L)",
+                CommonClassNames.ClientCalls.clientCallServerStreamingFlow,
+                methodDescriptorCodeBlock(options)
+            )
+            .build()
+    }
+
+    private val ProtoMethod.flowFunctionName: String
+        get() = "${functionName}Flow"
+
+    private fun buildClientStreamingMethod(protoMethod: ProtoMethod, options: GrpcCoroutinesGenOptions): FunSpec = with(protoMethod){
         FunSpec.builder(functionName)
             .addKdoc(attachedComments)
             .returns(
@@ -138,15 +159,14 @@ class GrpcStubBuilder(val context: GeneratorContext){
                 )
             )
             .addStatement(
-                "return %T(%T.%N())",
+                "return %T(%L)",
                 CommonClassNames.ClientCalls.clientCallClientStreaming,
-                protoService.enclosingServiceClassName,
-                methodDefinitionGetterName
+                methodDescriptorCodeBlock(options)
             )
             .build()
     }
 
-    private fun buildBidiStreamingMethod(protoMethod: ProtoMethod): FunSpec = with(protoMethod){
+    private fun buildBidiStreamingMethod(protoMethod: ProtoMethod, options: GrpcCoroutinesGenOptions): FunSpec = with(protoMethod){
         FunSpec.builder(functionName)
             .addKdoc(attachedComments)
             .returns(
@@ -156,10 +176,9 @@ class GrpcStubBuilder(val context: GeneratorContext){
                 )
             )
             .addStatement(
-                "return %T(%T.%N())",
+                "return %T(%L)",
                 CommonClassNames.ClientCalls.clientCallBidiStreaming,
-                protoService.enclosingServiceClassName,
-                methodDefinitionGetterName
+                methodDescriptorCodeBlock(options)
             )
             .build()
     }
@@ -215,9 +234,47 @@ class GrpcStubBuilder(val context: GeneratorContext){
         }
     }
 
+    // Method descriptors customized by the generator options are created once, and kept in the stub companion object
+
+    private val ProtoMethod.stubMethodPropName: String
+        get() = "${functionName}StubMethod"
+
+    private fun ProtoMethod.hasCustomDescriptor(options: GrpcCoroutinesGenOptions): Boolean =
+        options.zeroCopyMarshallers || (options.lazyInboundParsing && (isServerStream || isBidi))
+
+    private fun ProtoMethod.methodDescriptorCodeBlock(options: GrpcCoroutinesGenOptions): CodeBlock =
+        if (hasCustomDescriptor(options))
+            CodeBlock.of("%N", stubMethodPropName) else
+            CodeBlock.of("%T.%N()", protoService.enclosingServiceClassName, methodDefinitionGetterName)
+
+    private fun ProtoService.buildStubMethodProps(options: GrpcCoroutinesGenOptions): List<PropertySpec> =
+        methodDefinitions
+            .filter { it.hasCustomDescriptor(options) }
+            .map { method ->
+                val initializer = CodeBlock.builder()
+                    .add("%T.%N()", enclosingServiceClassName, method.methodDefinitionGetterName)
+                    .apply {
+                        if (options.zeroCopyMarshallers)
+                            add(".%T()", CommonClassNames.withZeroCopyMarshallers)
+                        if (options.lazyInboundParsing && (method.isServerStream || method.isBidi))
+                            add(".%T()", CommonClassNames.withLazyResponseParsing)
+                    }
+                    .build()
+
+                PropertySpec
+                    .builder(
+                        method.stubMethodPropName,
+                        CommonClassNames.grpcMethodDescriptor
+                            .parameterizedBy(method.requestClassName, method.responseClassName)
+                    )
+                    .addModifiers(KModifier.PRIVATE)
+                    .initializer(initializer)
+                    .build()
+            }
+
     // Stub companion object
 
-    private fun ProtoService.buildCompanionObject(): TypeSpec =
+    private fun ProtoService.buildCompanionObject(options: GrpcCoroutinesGenOptions): TypeSpec =
         TypeSpec.companionObjectBuilder()
             .addSuperinterface(CommonClassNames.stubDefinition.parameterizedBy(stubClassName))
             .addProperty(
@@ -242,6 +299,9 @@ class GrpcStubBuilder(val context: GeneratorContext){
                     .addCode("return %T(channel).%T()", stubClassName, CommonClassNames.withCoroutineContext)
                     .build()
             )
+            .apply {
+                addProperties(buildStubMethodProps(options))
+            }
             .build()
 
 }
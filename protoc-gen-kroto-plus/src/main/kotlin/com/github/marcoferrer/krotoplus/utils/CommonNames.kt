@@ -26,6 +26,7 @@ import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.channels.ReceiveChannel
 import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.flow.Flow
 import kotlin.coroutines.CoroutineContext
 import kotlin.coroutines.EmptyCoroutineContext
 
@@ -38,6 +39,7 @@ object CommonClassNames{
     val emptyCoroutineContext: ClassName = EmptyCoroutineContext::class.asClassName()
     val receiveChannel: ClassName = ReceiveChannel::class.asClassName()
     val sendChannel: ClassName = SendChannel::class.asClassName()
+    val flow: ClassName = Flow::class.asClassName()
     val dispatchers: ClassName = Dispatchers::class.asClassName()
     val completableDeferred: ClassName = CompletableDeferred::class.asClassName()
 
@@ -66,6 +68,9 @@ object CommonClassNames{
     val serviceScope = ClassName("$krotoCoroutineLib.server", "ServiceScope")
     val stubDefinition = ClassName(krotoCoroutineLib, "StubDefinition")
     val withCoroutineContext = ClassName(krotoCoroutineLib, "withCoroutineContext")
+    val withLazyRequestParsing = ClassName(krotoCoroutineLib, "withLazyRequestParsing")
+    val withLazyResponseParsing = ClassName(krotoCoroutineLib, "withLazyResponseParsing")
+    val withZeroCopyMarshallers = ClassName(krotoCoroutineLib, "withZeroCopyMarshallers")
 
     val listenableFuture = ClassName("com.google.common.util.concurrent", "ListenableFuture")
     val grpcContextElement = ClassName(krotoCoroutineLib,"GrpcContextElement")
@@ -77,6 +82,7 @@ object CommonClassNames{
     object ClientCalls {
         val clientCallUnary = ClassName("$krotoCoroutineLib.client", "clientCallUnary")
         val clientCallServerStreaming = ClassName("$krotoCoroutineLib.client", "clientCallServerStreaming")
+        val clientCallServerStreamingFlow = ClassName("$krotoCoroutineLib.client", "clientCallServerStreamingFlow")
         val clientCallBidiStreaming = ClassName("$krotoCoroutineLib.client", "clientCallBidiStreaming")
         val clientCallClientStreaming = ClassName("$krotoCoroutineLib.client", "clientCallClientStreaming")
     }
@@ -92,8 +98,11 @@ object CommonClassNames{
         val serverCallClientStreaming = ClassName("$krotoCoroutineLib.server","serverCallClientStreaming")
         val serverCallServerStreaming = ClassName("$krotoCoroutineLib.server","serverCallServerStreaming")
         val serverCallBidiStreaming = ClassName("$krotoCoroutineLib.server","serverCallBidiStreaming")
+        val serverCallServerStreamingFlow = ClassName("$krotoCoroutineLib.server","serverCallServerStreamingFlow")
+        val serverCallBidiStreamingFlow = ClassName("$krotoCoroutineLib.server","serverCallBidiStreamingFlow")
         val serverCallUnimplementedUnary = ClassName("$krotoCoroutineLib.server","serverCallUnimplementedUnary")
         val serverCallUnimplementedStream = ClassName("$krotoCoroutineLib.server","serverCallUnimplementedStream")
+        val serverCallUnimplementedFlow = ClassName("$krotoCoroutineLib.server","serverCallUnimplementedFlow")
     }
 }
 